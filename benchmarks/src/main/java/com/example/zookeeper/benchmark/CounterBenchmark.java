@@ -0,0 +1,83 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.counter.BlockSequenceGenerator;
+import com.example.zookeeper.counter.ShardedCounter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.atomic.AtomicValue;
+import org.apache.curator.framework.recipes.atomic.DistributedAtomicLong;
+import org.apache.curator.framework.recipes.shared.SharedCount;
+import org.apache.curator.framework.recipes.shared.VersionedValue;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程计数：Curator自带的SharedCount、DistributedAtomicLong，与分片计数器、号段ID生成器对比
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+
+    private TestingServer server;
+    private CuratorFramework client;
+    private SharedCount sharedCount;
+    private DistributedAtomicLong atomicLong;
+    private ShardedCounter shardedCounter;
+    private BlockSequenceGenerator sequenceGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedZookeeper.startServer();
+        client = EmbeddedZookeeper.newCurator(server.getConnectString());
+        sharedCount = new SharedCount(client, "/counter/shared", 0);
+        sharedCount.start();
+        atomicLong = new DistributedAtomicLong(client, "/counter/atomic", new RetryNTimes(100, 1));
+        shardedCounter = new ShardedCounter(client, "/counter/sharded", 8);
+        shardedCounter.start();
+        sequenceGenerator = new BlockSequenceGenerator(client, "/counter/sequence");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        shardedCounter.close();
+        sharedCount.close();
+        client.close();
+        server.close();
+    }
+
+    /**
+     * 版本冲突时重试直到成功
+     */
+    @Benchmark
+    public int sharedCount() throws Exception {
+        while (true) {
+            VersionedValue<Integer> current = sharedCount.getVersionedValue();
+            if (sharedCount.trySetCount(current, current.getValue() + 1)) {
+                return current.getValue() + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object distributedAtomicLong() throws Exception {
+        AtomicValue<Long> value = atomicLong.increment();
+        return value.succeeded() ? value.postValue() : null;
+    }
+
+    @Benchmark
+    public void shardedCounter() throws Exception {
+        shardedCounter.increment();
+    }
+
+    @Benchmark
+    public long blockSequence() throws Exception {
+        return sequenceGenerator.nextId();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.client.ZkClient;
+import com.example.zookeeper.config.ZookeeperProperties;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试共用的嵌入式zookeeper和客户端创建方法
+ */
+final class EmbeddedZookeeper {
+
+    static final String NAMESPACE = "bench";
+
+    private EmbeddedZookeeper() {
+    }
+
+    static TestingServer startServer() throws Exception {
+        return new TestingServer(true);
+    }
+
+    /**
+     * 创建并初始化ZkClient，命名空间缓存监听/bench子树
+     * @param connectString
+     * @param readCacheEnabled 是否开启命名空间之外的读缓存
+     * @param snapshotEnabled 命名空间缓存是否使用不可变快照
+     * @return
+     */
+    static ZkClient newZkClient(String connectString, boolean readCacheEnabled, boolean snapshotEnabled) throws Exception {
+        ZookeeperProperties properties = new ZookeeperProperties();
+        properties.setEnabled(true);
+        properties.setServer(connectString);
+        properties.setNamespace(NAMESPACE);
+        properties.setSessionTimeoutMs(30000);
+        properties.setConnectionTimeoutMs(10000);
+        properties.setMaxRetries(3);
+        properties.setBaseSleepTimeMs(1000);
+        properties.setReadCacheMaxEntries(readCacheEnabled ? 10000 : 0);
+        properties.setSnapshotEnabled(snapshotEnabled);
+        ZkClient zkClient = new ZkClient(properties);
+        zkClient.init();
+        if (!zkClient.getClient().blockUntilConnected(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("连接嵌入式zookeeper超时: " + connectString);
+        }
+        return zkClient;
+    }
+
+    static CuratorFramework newCurator(String connectString) throws Exception {
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString(connectString)
+                .namespace(NAMESPACE)
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+        if (!client.blockUntilConnected(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("连接嵌入式zookeeper超时: " + connectString);
+        }
+        return client;
+    }
+
+    /**
+     * 等待节点进入命名空间缓存
+     */
+    static void awaitCached(ZkClient zkClient, String path) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (zkClient.getCache().getData(path) == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("节点未进入缓存: " + path);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.lock.AsyncLock;
+import com.example.zookeeper.lock.CoalescingLock;
+import com.example.zookeeper.lock.DistributedLock;
+import com.example.zookeeper.lock.LockHandle;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程竞争同一把锁的获取+释放
+ * sync: DistributedLock；async: AsyncLock互斥锁(等待future)；coalescing: 进程内合并的InterProcessMutex
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LockBenchmark {
+
+    private static final String LOCK_PATH = "/locks/bench";
+
+    @Param({"sync", "async", "coalescing"})
+    public String mode;
+
+    private TestingServer server;
+    private CuratorFramework client;
+    private DistributedLock distributedLock;
+    private AsyncLock asyncLock;
+    private CoalescingLock coalescingLock;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedZookeeper.startServer();
+        client = EmbeddedZookeeper.newCurator(server.getConnectString());
+        distributedLock = new DistributedLock(client, LOCK_PATH);
+        asyncLock = AsyncLock.mutex(client, LOCK_PATH + "-async");
+        coalescingLock = new CoalescingLock(new InterProcessMutex(client, LOCK_PATH + "-coalescing"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        coalescingLock.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void acquireRelease() throws Exception {
+        switch (mode) {
+            case "async":
+                LockHandle handle = asyncLock.acquireAsync().join();
+                handle.releaseAsync().join();
+                break;
+            case "coalescing":
+                coalescingLock.acquire();
+                coalescingLock.release();
+                break;
+            default:
+                distributedLock.acquire();
+                distributedLock.release();
+        }
+    }
+}
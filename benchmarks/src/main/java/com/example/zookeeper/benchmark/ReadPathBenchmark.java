@@ -0,0 +1,79 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.client.ZkClient;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读路径：命名空间缓存命中、未命中直接读zookeeper、读穿透缓存命中、getRandomData
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadPathBenchmark {
+
+    /**
+     * 命名空间缓存监听的是/bench子树
+     */
+    private static final String CACHED_PATH = "/bench/hit";
+    private static final String SERVICE_PATH = "/bench/service";
+    private static final String OUTSIDE_PATH = "/outside/node";
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private TestingServer server;
+    /**
+     * 不开启读缓存，命名空间之外的读取每次访问zookeeper
+     */
+    private ZkClient direct;
+    private ZkClient readThrough;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedZookeeper.startServer();
+        direct = EmbeddedZookeeper.newZkClient(server.getConnectString(), false, snapshot);
+        readThrough = EmbeddedZookeeper.newZkClient(server.getConnectString(), true, snapshot);
+        byte[] payload = new byte[256];
+        direct.getClient().create().creatingParentsIfNeeded().forPath(CACHED_PATH, payload);
+        direct.getClient().create().creatingParentsIfNeeded().forPath(OUTSIDE_PATH, payload);
+        for (int i = 0; i < 16; i++) {
+            direct.getClient().create().creatingParentsIfNeeded()
+                    .forPath(SERVICE_PATH + "/instance-" + i, ("http://127.0.0.1:" + (8000 + i) + "/").getBytes("UTF-8"));
+        }
+        EmbeddedZookeeper.awaitCached(direct, CACHED_PATH);
+        EmbeddedZookeeper.awaitCached(direct, SERVICE_PATH + "/instance-15");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        direct.stop();
+        readThrough.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public byte[] cacheHit() {
+        return direct.getNodeData(CACHED_PATH);
+    }
+
+    @Benchmark
+    public byte[] cacheMiss() {
+        return direct.getNodeData(OUTSIDE_PATH);
+    }
+
+    @Benchmark
+    public byte[] readThroughHit() {
+        return readThrough.getNodeData(OUTSIDE_PATH);
+    }
+
+    @Benchmark
+    public String randomData() {
+        return direct.getRandomData(SERVICE_PATH);
+    }
+}
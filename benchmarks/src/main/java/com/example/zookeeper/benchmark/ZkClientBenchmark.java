@@ -0,0 +1,106 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.client.AsyncZkClient;
+import com.example.zookeeper.client.ZkClient;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ZkClient基本读写：同步方法与AsyncZkClient异步方法(等待future完成)对比
+ * 两种模式都通过ZkClient的API写入同样的256字节数据；DATA_PATH不在命名空间缓存监听的子树中，
+ * 同步getNodeData与异步读取一样每次访问zookeeper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZkClientBenchmark {
+
+    private static final String DATA_PATH = "/data/node";
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    private TestingServer server;
+    private ZkClient zkClient;
+    private AsyncZkClient async;
+    private final String payloadText = payloadText(256);
+    private final byte[] payload = payloadText.getBytes(StandardCharsets.UTF_8);
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedZookeeper.startServer();
+        zkClient = EmbeddedZookeeper.newZkClient(server.getConnectString(), false, false);
+        async = zkClient.async();
+        zkClient.getClient().create().creatingParentsIfNeeded().forPath(DATA_PATH, payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        zkClient.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public byte[] getData() throws Exception {
+        if ("async".equals(mode)) {
+            return async.getNodeData(DATA_PATH).join();
+        }
+        return zkClient.getNodeData(DATA_PATH);
+    }
+
+    @Benchmark
+    public Object setData() throws Exception {
+        if ("async".equals(mode)) {
+            return async.setNodeData(DATA_PATH, payload).join();
+        }
+        zkClient.setNodeData(DATA_PATH, payload);
+        return null;
+    }
+
+    @Benchmark
+    public Object create() {
+        String path = "/data/create/n-" + sequence.incrementAndGet();
+        if ("async".equals(mode)) {
+            return async.createNode(CreateMode.PERSISTENT, path, payloadText).join();
+        }
+        zkClient.createNode(CreateMode.PERSISTENT, path, payloadText);
+        return path;
+    }
+
+    @Benchmark
+    public Object createDelete() {
+        String path = "/data/temp/n-" + sequence.incrementAndGet();
+        if ("async".equals(mode)) {
+            return async.createNode(CreateMode.PERSISTENT, path, payloadText)
+                    .thenCompose(created -> async.deleteNode(created, false)).join();
+        }
+        zkClient.createNode(CreateMode.PERSISTENT, path, payloadText);
+        zkClient.deleteNode(path, false);
+        return path;
+    }
+
+    @Benchmark
+    public Object exists() {
+        if ("async".equals(mode)) {
+            return async.isExistNode(DATA_PATH).join();
+        }
+        return zkClient.isExistNode(DATA_PATH);
+    }
+
+    private static String payloadText(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+}
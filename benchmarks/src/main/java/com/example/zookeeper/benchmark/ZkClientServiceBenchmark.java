@@ -0,0 +1,75 @@
+package com.example.zookeeper.benchmark;
+
+import com.example.zookeeper.client.AsyncZkClient;
+import com.example.zookeeper.two.ZkClientService;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量写入：ZkClientService.batchAdd(multi事务分批) 与同样数量的异步setData流水线对比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZkClientServiceBenchmark {
+
+    private static final String TYPE = "batch";
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private TestingServer server;
+    private ZkClientService service;
+    private CuratorFramework curator;
+    private AsyncZkClient async;
+    private List<String> ids;
+    private final byte[] payload = new byte[36];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = EmbeddedZookeeper.startServer();
+        service = new ZkClientService(server.getConnectString(), EmbeddedZookeeper.NAMESPACE);
+        if (!service.awaitConnected(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("ZkClientService连接超时");
+        }
+        curator = EmbeddedZookeeper.newCurator(server.getConnectString());
+        async = new AsyncZkClient(curator);
+        ids = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ids.add("id-" + i);
+        }
+        // 预先创建，之后两种方式都是覆盖写
+        service.batchAdd(ids, TYPE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        curator.close();
+        service.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Map<String, Boolean> batchAdd() {
+        return service.batchAdd(ids, TYPE);
+    }
+
+    @Benchmark
+    public Object asyncPipeline() {
+        List<CompletableFuture<?>> futures = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            futures.add(async.setNodeData("/" + TYPE + "/" + id, payload));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+}
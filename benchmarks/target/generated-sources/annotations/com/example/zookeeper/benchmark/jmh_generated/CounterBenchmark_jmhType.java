@@ -0,0 +1,4 @@
+package com.example.zookeeper.benchmark.jmh_generated;
+public class CounterBenchmark_jmhType extends CounterBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.example.zookeeper.benchmark.jmh_generated;
+public class LockBenchmark_jmhType extends LockBenchmark_jmhType_B3 {
+}
+
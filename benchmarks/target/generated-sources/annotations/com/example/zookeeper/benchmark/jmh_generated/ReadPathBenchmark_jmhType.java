@@ -0,0 +1,4 @@
+package com.example.zookeeper.benchmark.jmh_generated;
+public class ReadPathBenchmark_jmhType extends ReadPathBenchmark_jmhType_B3 {
+}
+
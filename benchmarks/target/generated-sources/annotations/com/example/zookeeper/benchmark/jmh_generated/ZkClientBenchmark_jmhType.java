@@ -0,0 +1,4 @@
+package com.example.zookeeper.benchmark.jmh_generated;
+public class ZkClientBenchmark_jmhType extends ZkClientBenchmark_jmhType_B3 {
+}
+
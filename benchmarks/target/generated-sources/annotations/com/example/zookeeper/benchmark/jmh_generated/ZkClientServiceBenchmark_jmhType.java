@@ -0,0 +1,4 @@
+package com.example.zookeeper.benchmark.jmh_generated;
+public class ZkClientServiceBenchmark_jmhType extends ZkClientServiceBenchmark_jmhType_B3 {
+}
+
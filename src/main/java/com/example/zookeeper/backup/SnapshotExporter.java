@@ -0,0 +1,199 @@
+package com.example.zookeeper.backup;
+
+import com.example.zookeeper.codec.ValueCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEventType;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 子树流式导出
+ * 深度优先遍历子树，每个节点的getData和getChildren异步发出，在途节点数不超过maxInFlight(流水线)；
+ * 节点返回后在调用线程上写入快照流，再把它的子节点压入待读取栈，因此父节点总是先于子节点写出。
+ * 内存中只有待读取栈(路径上各层的子节点名称)和在途节点，与子树的节点总数无关。
+ * 临时节点属于创建它的会话，不导出；遍历过程中被删除的节点跳过。
+ * 导出不是某一时刻的一致快照，遍历期间的修改可能部分出现在结果中。
+ * 可以按路径选择会话(会话池的forPath)，每个节点的读取发往该路径写入所用的会话。
+ * 指定ValueCodec时导出解码后的原始数据(压缩数据解压、分块拼接)，分块根节点本身不导出；
+ * 未指定时按原样导出，遇到分块清单只打印警告，导入到其它集群后清单指向的分块不存在
+ */
+@Slf4j
+public class SnapshotExporter {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    private final Function<String, CuratorFramework> sessions;
+    private final int maxInFlight;
+    private final ValueCodec codec;
+
+    public SnapshotExporter(CuratorFramework client) {
+        this(client, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public SnapshotExporter(CuratorFramework client, int maxInFlight) {
+        this(path -> client, maxInFlight);
+    }
+
+    /**
+     * @param sessions 路径 -> 读取该路径的会话
+     * @param maxInFlight 最大在途节点数
+     */
+    public SnapshotExporter(Function<String, CuratorFramework> sessions, int maxInFlight) {
+        this(sessions, maxInFlight, null);
+    }
+
+    /**
+     * @param sessions 路径 -> 读取该路径的会话
+     * @param maxInFlight 最大在途节点数
+     * @param codec 节点数据的编解码，null表示按原样导出
+     */
+    public SnapshotExporter(Function<String, CuratorFramework> sessions, int maxInFlight, ValueCodec codec) {
+        this.sessions = sessions;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.codec = codec;
+    }
+
+    /**
+     * 导出子树到文件
+     * @param root 子树根节点
+     * @param file 目标文件，已存在时覆盖
+     * @return 导出的节点数
+     * @throws Exception
+     */
+    public long export(String root, File file) throws Exception {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), SnapshotWriter.BUFFER_SIZE)) {
+            return export(root, out);
+        }
+    }
+
+    /**
+     * 导出子树到输出流
+     * @param root 子树根节点
+     * @param out 目标流，不会关闭
+     * @return 导出的节点数，根节点不存在返回0
+     * @throws Exception 读取失败时抛出，已写出的部分不完整(没有结束记录)，导入时会报错
+     */
+    public long export(String root, OutputStream out) throws Exception {
+        SnapshotWriter writer = new SnapshotWriter(out);
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(root);
+        BlockingQueue<Fetched> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        while (!pending.isEmpty() || inFlight > 0) {
+            while (inFlight < maxInFlight && !pending.isEmpty()) {
+                fetch(pending.pop(), completed);
+                inFlight++;
+            }
+            Fetched node = completed.take();
+            inFlight--;
+            if (node.error != null) {
+                throw new IllegalStateException("导出子树失败: " + node.path, node.error);
+            }
+            if (node.missing || node.ephemeral || (codec != null && ValueCodec.CHUNK_ROOT.equals(node.path))) {
+                continue;
+            }
+            writer.writeNode(relativize(root, node.path), value(node));
+            String prefix = "/".equals(node.path) ? node.path : node.path + "/";
+            List<String> children = node.children;
+            //倒序入栈，按名称顺序出栈
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(prefix + children.get(i));
+            }
+        }
+        writer.finish();
+        log.info("导出子树 {} 完成，共 {} 个节点", root, writer.getCount());
+        return writer.getCount();
+    }
+
+    /**
+     * 写入快照的数据：有编解码时解码，在调用线程上同步读取分块
+     */
+    private byte[] value(Fetched node) throws Exception {
+        byte[] data = node.data;
+        if (codec != null) {
+            return codec.decode(sessions.apply(node.path), node.path, data);
+        }
+        if (data != null && data.length > 0 && data[0] == ValueCodec.MANIFEST) {
+            log.warn("节点 {} 的数据可能是分块清单，按原样导出后分块不会随快照导出", node.path);
+        }
+        return data;
+    }
+
+    /**
+     * 异步读取节点的数据和子节点，两个请求都返回后放入completed
+     */
+    private void fetch(String path, BlockingQueue<Fetched> completed) {
+        Fetched node = new Fetched(path);
+        AtomicInteger remaining = new AtomicInteger(2);
+        BackgroundCallback callback = (client1, event) -> {
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (code == KeeperException.Code.OK) {
+                if (event.getType() == CuratorEventType.GET_DATA) {
+                    node.data = event.getData();
+                    node.ephemeral = event.getStat() != null && event.getStat().getEphemeralOwner() != 0;
+                } else {
+                    node.children = event.getChildren();
+                }
+            } else if (code == KeeperException.Code.NONODE) {
+                node.missing = true;
+            } else {
+                node.error = KeeperException.create(code, path);
+            }
+            if (remaining.decrementAndGet() == 0) {
+                completed.add(node);
+            }
+        };
+        int issued = 0;
+        try {
+            CuratorFramework client = sessions.apply(path);
+            client.getData().inBackground(callback).forPath(path);
+            issued++;
+            client.getChildren().inBackground(callback).forPath(path);
+            issued++;
+        } catch (Exception e) {
+            node.error = e;
+            if (remaining.addAndGet(issued - 2) == 0) {
+                completed.add(node);
+            }
+        }
+    }
+
+    /**
+     * 相对导出根节点的路径，根节点本身为"/"
+     */
+    static String relativize(String root, String path) {
+        if (path.equals(root)) {
+            return "/";
+        }
+        return "/".equals(root) ? path : path.substring(root.length());
+    }
+
+    /**
+     * 读取结果，字段由zookeeper事件线程写入，通过remaining和completed队列对调用线程可见
+     */
+    private static class Fetched {
+        private final String path;
+        private byte[] data;
+        private List<String> children;
+        private boolean ephemeral;
+        private boolean missing;
+        private Throwable error;
+
+        Fetched(String path) {
+            this.path = path;
+        }
+    }
+}
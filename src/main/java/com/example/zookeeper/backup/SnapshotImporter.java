@@ -0,0 +1,175 @@
+package com.example.zookeeper.backup;
+
+import com.example.zookeeper.client.TransactionBatcher;
+import com.example.zookeeper.client.ZkUpsert;
+import com.example.zookeeper.codec.ValueCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 快照流式导入
+ * 逐条读取快照记录，每攒够batchSize个节点用TransactionBatcher打包成multi事务按顺序提交，
+ * 内存中只保留当前一批节点。快照中父节点总是在子节点之前，同一事务内按顺序创建，后面的批次依赖前面的批次。
+ * 节点已存在、目标父节点不存在等导致事务失败的节点交给ZkUpsert逐个写入(覆盖已有数据、自动创建父节点)。
+ * 指定ValueCodec时按写入路径重新编码(压缩、分块)，与导出时的解码对应；
+ * 未指定时按原样写入，遇到分块清单只打印警告
+ */
+@Slf4j
+public class SnapshotImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final CuratorFramework client;
+    private final int batchSize;
+    private final ValueCodec codec;
+
+    public SnapshotImporter(CuratorFramework client) {
+        this(client, DEFAULT_BATCH_SIZE);
+    }
+
+    public SnapshotImporter(CuratorFramework client, int batchSize) {
+        this(client, batchSize, null);
+    }
+
+    /**
+     * @param client 写入使用的会话
+     * @param batchSize 每个事务的最大节点数
+     * @param codec 节点数据的编解码，null表示按原样写入
+     */
+    public SnapshotImporter(CuratorFramework client, int batchSize, ValueCodec codec) {
+        this.client = client;
+        this.batchSize = Math.max(1, batchSize);
+        this.codec = codec;
+    }
+
+    /**
+     * 从文件导入
+     * @param file 快照文件
+     * @param targetRoot 导入到的节点，快照的根节点对应该节点
+     * @return 写入成功的节点数
+     * @throws Exception
+     */
+    public long importFrom(File file, String targetRoot) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), SnapshotWriter.BUFFER_SIZE)) {
+            return importFrom(in, targetRoot);
+        }
+    }
+
+    /**
+     * 从输入流导入
+     * @param in 快照流，不会关闭
+     * @param targetRoot 导入到的节点，快照的根节点对应该节点
+     * @return 写入成功的节点数
+     * @throws Exception 快照损坏或截断时抛出，之前的批次已经提交
+     */
+    public long importFrom(InputStream in, String targetRoot) throws Exception {
+        long imported = 0;
+        long failed = 0;
+        try (SnapshotReader reader = new SnapshotReader(in)) {
+            Map<String, byte[]> chunk = new LinkedHashMap<>();
+            SnapshotRecord record;
+            while ((record = reader.next()) != null) {
+                String path = resolve(targetRoot, record.getPath());
+                //zookeeper根节点不能创建或删除
+                if ("/".equals(path)) {
+                    continue;
+                }
+                chunk.put(path, record.getData());
+                if (chunk.size() >= batchSize) {
+                    int ok = commit(chunk);
+                    imported += ok;
+                    failed += chunk.size() - ok;
+                    chunk.clear();
+                }
+            }
+            int ok = commit(chunk);
+            imported += ok;
+            failed += chunk.size() - ok;
+        }
+        log.info("导入快照到 {} 完成，成功 {} 个节点，失败 {} 个节点", targetRoot, imported, failed);
+        return imported;
+    }
+
+    /**
+     * 提交一批节点，返回成功数
+     */
+    private int commit(Map<String, byte[]> chunk) throws Exception {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        Map<String, byte[]> stored = encode(chunk);
+        TransactionBatcher<String> batcher = new TransactionBatcher<>(TransactionBatcher.defaultMaxBatchBytes(), batchSize);
+        for (Map.Entry<String, byte[]> entry : stored.entrySet()) {
+            batcher.add(entry.getKey(), TransactionBatcher.estimate(entry.getKey(), entry.getValue()),
+                    client.transactionOp().create().forPath(entry.getKey(), entry.getValue()));
+        }
+        Map<String, Boolean> result = batcher.commit(client, path -> {
+            try {
+                return ZkUpsert.upsert(client, path, stored.get(path), ZkUpsert.ANY_VERSION);
+            } catch (Exception e) {
+                log.warn("导入节点失败: {}", path, e);
+                return false;
+            }
+        });
+        int ok = 0;
+        for (Map.Entry<String, Boolean> entry : result.entrySet()) {
+            boolean success = Boolean.TRUE.equals(entry.getValue());
+            if (success) {
+                ok++;
+            }
+            if (codec != null) {
+                if (success) {
+                    codec.afterWrite(client, entry.getKey());
+                } else {
+                    codec.abandon(client, entry.getKey(), stored.get(entry.getKey()));
+                }
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 节点上要保存的数据：有编解码时重新编码，超大数据先写入分块
+     */
+    private Map<String, byte[]> encode(Map<String, byte[]> chunk) throws Exception {
+        if (codec == null) {
+            for (Map.Entry<String, byte[]> entry : chunk.entrySet()) {
+                byte[] data = entry.getValue();
+                if (data != null && data.length > 0 && data[0] == ValueCodec.MANIFEST) {
+                    log.warn("节点 {} 的数据可能是分块清单，按原样导入后清单指向的分块可能不存在", entry.getKey());
+                }
+            }
+            return chunk;
+        }
+        //保持快照顺序，父节点在子节点之前进入同一批事务
+        Map<String, byte[]> stored = new LinkedHashMap<>(chunk.size() * 2);
+        try {
+            for (Map.Entry<String, byte[]> entry : chunk.entrySet()) {
+                stored.put(entry.getKey(), codec.encode(client, entry.getKey(), entry.getValue()));
+            }
+        } catch (Exception e) {
+            for (Map.Entry<String, byte[]> entry : stored.entrySet()) {
+                codec.abandon(client, entry.getKey(), entry.getValue());
+            }
+            throw e;
+        }
+        return stored;
+    }
+
+    /**
+     * 快照中的相对路径对应的目标路径
+     */
+    static String resolve(String targetRoot, String relativePath) {
+        if ("/".equals(relativePath)) {
+            return targetRoot;
+        }
+        return "/".equals(targetRoot) ? relativePath : targetRoot + relativePath;
+    }
+}
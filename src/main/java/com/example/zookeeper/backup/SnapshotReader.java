@@ -0,0 +1,94 @@
+package com.example.zookeeper.backup;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 快照流读取，格式见SnapshotWriter
+ * 逐条读取记录，内存占用与快照大小无关
+ */
+public class SnapshotReader implements Closeable {
+
+    /**
+     * 单条记录长度上限，防止损坏的文件申请超大数组
+     */
+    private static final int MAX_FIELD_BYTES = 64 * 1024 * 1024;
+
+    private final Inflater inflater = new Inflater();
+    private final DataInputStream in;
+    private long count;
+    private boolean finished;
+
+    /**
+     * 读取并校验文件头
+     * @param in 源流，close时不会关闭
+     * @throws IOException 不是快照文件或版本不支持
+     */
+    public SnapshotReader(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        int magic = header.readInt();
+        if (magic != SnapshotWriter.MAGIC) {
+            inflater.end();
+            throw new IOException("不是zookeeper快照文件, magic=" + Integer.toHexString(magic));
+        }
+        byte version = header.readByte();
+        if (version != SnapshotWriter.VERSION) {
+            inflater.end();
+            throw new IOException("不支持的快照版本: " + version);
+        }
+        this.in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(in, inflater, SnapshotWriter.BUFFER_SIZE), SnapshotWriter.BUFFER_SIZE));
+    }
+
+    /**
+     * 读取下一个节点
+     * @return 读到结束记录返回null
+     * @throws IOException 文件被截断、损坏或节点数与结束记录不符
+     */
+    public SnapshotRecord next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        byte type = in.readByte();
+        if (type == SnapshotWriter.RECORD_END) {
+            long expected = in.readLong();
+            if (expected != count) {
+                throw new IOException("快照节点数不符, expect=" + expected + " actual=" + count);
+            }
+            finished = true;
+            return null;
+        }
+        if (type != SnapshotWriter.RECORD_NODE) {
+            throw new IOException("未知的快照记录类型: " + type);
+        }
+        String path = new String(readField(), StandardCharsets.UTF_8);
+        byte[] data = readField();
+        count++;
+        return new SnapshotRecord(path, data);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private byte[] readField() throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FIELD_BYTES) {
+            throw new IOException("快照记录长度非法: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
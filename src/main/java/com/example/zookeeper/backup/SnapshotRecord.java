@@ -0,0 +1,31 @@
+package com.example.zookeeper.backup;
+
+/**
+ * 快照中的一个节点
+ */
+public final class SnapshotRecord {
+
+    private final String path;
+    private final byte[] data;
+
+    public SnapshotRecord(String path, byte[] data) {
+        this.path = path;
+        this.data = data;
+    }
+
+    /**
+     * 相对导出根节点的路径，根节点本身为"/"
+     * @return
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 节点数据，无数据为空数组
+     * @return
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.zookeeper.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 快照流写入
+ * 格式：
+ * 1. 文件头(不压缩)：魔数 int "ZKSN"、版本 byte
+ * 2. 之后全部为deflate压缩的记录流，每条记录以类型 byte 开头：
+ *    节点记录 1：路径长度 int、路径(UTF-8)、数据长度 int、数据
+ *    结束记录 0：节点总数 long，读取时用来发现截断的文件
+ * 父节点总是写在子节点之前，导入时按顺序创建即可
+ */
+public class SnapshotWriter {
+
+    static final int MAGIC = 0x5A4B534E;
+    static final byte VERSION = 1;
+    static final byte RECORD_END = 0;
+    static final byte RECORD_NODE = 1;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final DeflaterOutputStream deflaterOut;
+    private final DataOutputStream out;
+    private long count;
+
+    /**
+     * 写入文件头
+     * @param out 目标流，finish后不会关闭
+     * @throws IOException
+     */
+    public SnapshotWriter(OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.flush();
+        this.deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+        this.out = new DataOutputStream(new BufferedOutputStream(deflaterOut, BUFFER_SIZE));
+    }
+
+    /**
+     * 写入一个节点
+     * @param path 相对导出根节点的路径
+     * @param data 节点数据，可以为null
+     * @throws IOException
+     */
+    public void writeNode(String path, byte[] data) throws IOException {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(RECORD_NODE);
+        out.writeInt(pathBytes.length);
+        out.write(pathBytes);
+        if (data == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        count++;
+    }
+
+    /**
+     * 写入结束记录并结束压缩流，不关闭目标流
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        try {
+            out.writeByte(RECORD_END);
+            out.writeLong(count);
+            out.flush();
+            deflaterOut.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
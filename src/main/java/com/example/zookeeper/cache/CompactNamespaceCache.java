@@ -0,0 +1,585 @@
+package com.example.zookeeper.cache;
+
+import com.example.zookeeper.utils.CompressUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * 紧凑的命名空间缓存，用于替代整棵子树的TreeCache
+ * 1. 路径保存在前缀树中，每一级只保存一个驻留(intern)的节点名，不为每个节点保存完整路径和Stat，
+ *    驻留的节点名按引用计数，没有节点使用时移除
+ * 2. 节点数据保存在堆外内存中，超过压缩阈值的数据用Deflate压缩后保存
+ * 3. 可以限制缓存的最大深度，并按路径过滤，未通过的节点及其子树都不缓存
+ * 4. 数据总量有硬上限，超过时按CLOCK(近似LRU)淘汰节点数据，节点本身保留；读到被淘汰的数据时回源zookeeper。
+ *    已申请的堆外内存(按1MB的页)同样不超过上限，上限小于一页时按一页计算
+ * 与TreeCache一样通过getData/getChildren的watcher增量同步，重连后全量刷新
+ * 数据保存在堆外且可能被淘汰，不提供不可变快照(snapshot()返回null)
+ */
+@Slf4j
+public class CompactNamespaceCache implements NamespaceCache {
+
+    private final CuratorFramework client;
+    private final String rootPath;
+    private final int maxDepth;
+    private final Predicate<String> pathFilter;
+    private final long maxBytes;
+    private final int compressThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final OffHeapArena arena = new OffHeapArena();
+    private final Map<String, Name> names = new HashMap<>();
+    // 数据驻留在堆外的节点，CLOCK淘汰的环
+    private final List<Node> resident = new ArrayList<>();
+    private int clockHand;
+    private final Node root = new Node("", null);
+    private long nodeCount = 1;
+    private final AtomicLong evictionCount = new AtomicLong();
+    private volatile boolean closed;
+
+    private final Watcher watcher = this::process;
+    private final ConnectionStateListener connectionStateListener = (client1, state) -> {
+        if (state == ConnectionState.RECONNECTED) {
+            // 断线期间的变化可能丢失，全量刷新
+            load(getRootPath());
+        }
+    };
+
+    /**
+     * @param client
+     * @param rootPath 缓存的子树根节点
+     * @param maxDepth 最大深度，根节点深度为0
+     * @param pathFilter 路径过滤，null表示全部缓存
+     * @param maxBytes 节点数据占用的堆外内存上限
+     * @param compressThreshold 超过该大小的数据压缩保存，小于等于0不压缩
+     */
+    public CompactNamespaceCache(CuratorFramework client, String rootPath, int maxDepth,
+                                 Predicate<String> pathFilter, long maxBytes, int compressThreshold) {
+        this.client = client;
+        this.rootPath = rootPath;
+        this.maxDepth = maxDepth < 0 ? Integer.MAX_VALUE : maxDepth;
+        this.pathFilter = pathFilter;
+        this.maxBytes = maxBytes;
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public void start() {
+        client.getConnectionStateListenable().addListener(connectionStateListener);
+        load(rootPath);
+    }
+
+    @Override
+    public byte[] getData(String path) {
+        Node node;
+        byte[] stored;
+        int dataLength;
+        boolean compressed;
+        lock.readLock().lock();
+        try {
+            node = find(path);
+            if (node == null) {
+                return null;
+            }
+            if (node.slot == null && node.dataLength == 0 && node.loaded) {
+                return new byte[0];
+            }
+            stored = node.slot == null ? null : node.slot.read();
+            dataLength = node.dataLength;
+            compressed = node.compressed;
+            node.referenced = true;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stored == null) {
+            // 数据已被淘汰或尚未加载，回源zookeeper
+            return fetch(path);
+        }
+        if (!compressed) {
+            return stored;
+        }
+        try {
+            return CompressUtil.inflate(stored, 0, stored.length, dataLength);
+        } catch (Exception e) {
+            log.error("解压缓存数据错误: " + path, e);
+            return fetch(path);
+        }
+    }
+
+    @Override
+    public List<String> getChildren(String path) {
+        lock.readLock().lock();
+        try {
+            Node node = find(path);
+            if (node == null) {
+                return null;
+            }
+            return node.children == null ? new ArrayList<>() : new ArrayList<>(node.children.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 缓存的节点数
+     * @return
+     */
+    public long getNodeCount() {
+        lock.readLock().lock();
+        try {
+            return nodeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 节点数据占用的堆外内存
+     * @return
+     */
+    public long getResidentBytes() {
+        lock.readLock().lock();
+        try {
+            return arena.getUsedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 被淘汰的节点数据次数
+     * @return
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        client.getConnectionStateListenable().removeListener(connectionStateListener);
+        lock.writeLock().lock();
+        try {
+            clear(root);
+            root.children = null;
+            nodeCount = 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //--------------------同步-----------------
+
+    private void process(WatchedEvent event) {
+        String path = event.getPath();
+        if (closed || path == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case NodeDataChanged:
+                loadData(path);
+                break;
+            case NodeChildrenChanged:
+                loadChildren(path);
+                break;
+            case NodeDeleted:
+                remove(path);
+                break;
+            case NodeCreated:
+                load(path);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 加载节点数据及子节点，并注册watcher
+     */
+    private void load(String path) {
+        if (closed || !accept(path)) {
+            return;
+        }
+        loadData(path);
+        if (depthOf(path) < maxDepth) {
+            loadChildren(path);
+        }
+    }
+
+    private void loadData(String path) {
+        background(path, (client1, event) -> {
+            int rc = event.getResultCode();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                store(path, event.getData(), event.getStat());
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                remove(path);
+            }
+        }, true);
+    }
+
+    private void loadChildren(String path) {
+        background(path, (client1, event) -> {
+            int rc = event.getResultCode();
+            if (rc == KeeperException.Code.OK.intValue()) {
+                syncChildren(path, event.getChildren());
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                remove(path);
+            }
+        }, false);
+    }
+
+    private void background(String path, BackgroundCallback callback, boolean data) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (data) {
+                client.getData().usingWatcher(watcher).inBackground(callback).forPath(path);
+            } else {
+                client.getChildren().usingWatcher(watcher).inBackground(callback).forPath(path);
+            }
+        } catch (Exception e) {
+            log.error("加载缓存节点错误: " + path, e);
+        }
+    }
+
+    /**
+     * 根节点不存在时用exists watcher等待它被创建
+     */
+    private void watchRootCreated() {
+        try {
+            client.checkExists().usingWatcher(watcher).inBackground().forPath(rootPath);
+        } catch (Exception e) {
+            log.error("监听缓存根节点错误: " + rootPath, e);
+        }
+    }
+
+    private void store(String path, byte[] data, Stat stat) {
+        if (closed) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Node node = getOrCreate(path);
+            if (node != null) {
+                setPayload(node, data, stat);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("缓存节点更新 path:{} version:{}", path, stat == null ? null : stat.getVersion());
+        }
+    }
+
+    private void syncChildren(String path, List<String> children) {
+        List<String> added = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Node node = getOrCreate(path);
+            if (node == null) {
+                return;
+            }
+            Set<String> current = new HashSet<>(children);
+            if (node.children != null) {
+                Iterator<Map.Entry<String, Node>> iterator = node.children.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, Node> entry = iterator.next();
+                    if (!current.remove(entry.getKey())) {
+                        clear(entry.getValue());
+                        nodeCount--;
+                        releaseName(entry.getKey());
+                        iterator.remove();
+                    }
+                }
+            }
+            for (String name : current) {
+                String childPath = ZKPaths.makePath(path, name);
+                if (accept(childPath)) {
+                    child(node, name, true);
+                    added.add(childPath);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (String childPath : added) {
+            load(childPath);
+        }
+    }
+
+    private void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            Node node = find(path);
+            if (node == null) {
+                return;
+            }
+            if (node == root) {
+                clear(root);
+                root.children = null;
+                root.loaded = false;
+                nodeCount = 1;
+            } else {
+                clear(node);
+                nodeCount--;
+                releaseName(node.name);
+                node.parent.children.remove(node.name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (rootPath.equals(path)) {
+            watchRootCreated();
+        }
+    }
+
+    /**
+     * 同步读取被淘汰的数据，节点仍在缓存中时重新保存
+     */
+    private byte[] fetch(String path) {
+        try {
+            Stat stat = new Stat();
+            byte[] data = client.getData().storingStatIn(stat).forPath(path);
+            lock.writeLock().lock();
+            try {
+                Node node = find(path);
+                if (node != null && node.slot == null && stat.getMzxid() >= node.mzxid) {
+                    setPayload(node, data, stat);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return data;
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            log.error("读取节点数据错误: " + path, e);
+            return null;
+        }
+    }
+
+    //--------------------存储-----------------
+
+    /**
+     * 保存节点数据，调用方持有写锁
+     */
+    private void setPayload(Node node, byte[] data, Stat stat) {
+        freePayload(node);
+        node.loaded = true;
+        node.compressed = false;
+        node.dataLength = data == null ? 0 : data.length;
+        if (stat != null) {
+            node.mzxid = stat.getMzxid();
+        }
+        if (data == null || data.length == 0) {
+            return;
+        }
+        byte[] stored = data;
+        if (compressThreshold > 0 && data.length >= compressThreshold) {
+            byte[] deflated = CompressUtil.deflate(data);
+            if (deflated.length < data.length) {
+                stored = deflated;
+                node.compressed = true;
+            }
+        }
+        int capacity = OffHeapArena.capacityOf(stored.length);
+        if (capacity > maxBytes) {
+            // 单个数据超过上限，不缓存数据，读取时回源
+            return;
+        }
+        long reserveLimit = Math.max(maxBytes, OffHeapArena.PAGE_SIZE);
+        while ((arena.getUsedBytes() + capacity > maxBytes
+                || arena.getReservedBytes() + arena.reserveFor(stored.length) > reserveLimit) && evictOne()) {
+            evictionCount.incrementAndGet();
+        }
+        node.slot = arena.allocate(stored, 0, stored.length);
+        node.referenced = true;
+        node.residentIndex = resident.size();
+        resident.add(node);
+    }
+
+    /**
+     * CLOCK淘汰：跳过并清除最近访问过的节点，淘汰第一个未被访问的节点的数据
+     */
+    private boolean evictOne() {
+        while (!resident.isEmpty()) {
+            if (clockHand >= resident.size()) {
+                clockHand = 0;
+            }
+            Node node = resident.get(clockHand);
+            if (node.referenced) {
+                node.referenced = false;
+                clockHand++;
+            } else {
+                freePayload(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void freePayload(Node node) {
+        if (node.slot == null) {
+            return;
+        }
+        arena.free(node.slot);
+        node.slot = null;
+        // 从环中移除：用最后一个元素填补空位
+        int index = node.residentIndex;
+        Node last = resident.remove(resident.size() - 1);
+        if (last != node) {
+            resident.set(index, last);
+            last.residentIndex = index;
+        }
+        node.residentIndex = -1;
+    }
+
+    /**
+     * 释放节点及其子树的数据，调用方负责从父节点摘除并维护计数
+     */
+    private void clear(Node node) {
+        freePayload(node);
+        if (node.children != null) {
+            for (Node child : node.children.values()) {
+                clear(child);
+                nodeCount--;
+                releaseName(child.name);
+            }
+            node.children = null;
+        }
+    }
+
+    //--------------------前缀树-----------------
+
+    private Node find(String path) {
+        if (!isUnderRoot(path)) {
+            return null;
+        }
+        Node node = root;
+        for (String name : split(path)) {
+            if (node.children == null) {
+                return null;
+            }
+            node = node.children.get(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Node getOrCreate(String path) {
+        if (!isUnderRoot(path)) {
+            return null;
+        }
+        Node node = root;
+        for (String name : split(path)) {
+            node = child(node, name, true);
+        }
+        return node;
+    }
+
+    private Node child(Node parent, String name, boolean create) {
+        Node node = parent.children == null ? null : parent.children.get(name);
+        if (node == null && create) {
+            if (parent.children == null) {
+                parent.children = new HashMap<>(4);
+            }
+            Name interned = names.computeIfAbsent(name, Name::new);
+            interned.refs++;
+            node = new Node(interned.value, parent);
+            parent.children.put(interned.value, node);
+            nodeCount++;
+        }
+        return node;
+    }
+
+    /**
+     * 节点被移除时减少驻留节点名的引用，没有引用时移除
+     */
+    private void releaseName(String name) {
+        Name interned = names.get(name);
+        if (interned != null && --interned.refs <= 0) {
+            names.remove(name);
+        }
+    }
+
+    /**
+     * 相对根节点的各级节点名
+     */
+    private List<String> split(String path) {
+        String relative = path.substring(rootPath.length());
+        List<String> result = new ArrayList<>();
+        for (String name : relative.split("/")) {
+            if (!name.isEmpty()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    private boolean isUnderRoot(String path) {
+        return path.equals(rootPath) || "/".equals(rootPath) || path.startsWith(rootPath + "/");
+    }
+
+    private int depthOf(String path) {
+        return split(path).size();
+    }
+
+    private boolean accept(String path) {
+        if (rootPath.equals(path)) {
+            return true;
+        }
+        return depthOf(path) <= maxDepth && (pathFilter == null || pathFilter.test(path));
+    }
+
+    /**
+     * 驻留的节点名及引用它的节点数
+     */
+    private static final class Name {
+        final String value;
+        int refs;
+
+        Name(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * 前缀树节点，只保存节点名、数据位置和必要的状态
+     */
+    private static final class Node {
+        final String name;
+        final Node parent;
+        Map<String, Node> children;
+        OffHeapArena.Slot slot;
+        int dataLength;
+        boolean compressed;
+        boolean loaded;
+        long mzxid;
+        volatile boolean referenced;
+        int residentIndex = -1;
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+}
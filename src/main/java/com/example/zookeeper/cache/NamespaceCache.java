@@ -0,0 +1,45 @@
+package com.example.zookeeper.cache;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * 命名空间本地缓存
+ * 监听一棵子树并在本地保存节点数据，供getNodeData、getRandomData优先读取
+ */
+public interface NamespaceCache extends Closeable {
+
+    /**
+     * 启动缓存，开始监听并加载子树
+     * @throws Exception
+     */
+    void start() throws Exception;
+
+    /**
+     * 获取缓存的节点数据
+     * @param path 节点路径
+     * @return 节点不在缓存中返回null，节点无数据返回空数组
+     */
+    byte[] getData(String path);
+
+    /**
+     * 获取缓存的子节点名称
+     * @param path 节点路径
+     * @return 节点不在缓存中返回null
+     */
+    List<String> getChildren(String path);
+
+    /**
+     * 获取当前的不可变快照，快照内的多次读取互相一致且不加锁
+     * @return 未开启快照或该实现不支持快照时返回null
+     */
+    default NamespaceSnapshot snapshot() {
+        return null;
+    }
+
+    /**
+     * 关闭缓存，释放监听和内存
+     */
+    @Override
+    void close();
+}
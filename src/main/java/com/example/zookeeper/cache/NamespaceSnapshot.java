@@ -0,0 +1,202 @@
+package com.example.zookeeper.cache;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 命名空间的不可变快照
+ * 持久化(path copying)前缀树：每次更新只复制从根到被修改节点的一条路径，其余子树在新旧快照之间共享。
+ * 快照一旦发布就不再变化，读取多个相关节点时看到的是同一时刻的一致视图，读取过程不需要任何锁。
+ * 节点数据与缓存共用同一个数组，调用方不要修改返回的数据
+ */
+public final class NamespaceSnapshot {
+
+    public static final NamespaceSnapshot EMPTY = new NamespaceSnapshot(Node.ABSENT, 0);
+
+    private final Node root;
+    private final long zxid;
+
+    private NamespaceSnapshot(Node root, long zxid) {
+        this.root = root;
+        this.zxid = zxid;
+    }
+
+    /**
+     * 快照反映的zxid：已应用的所有节点事件中最大的mzxid/pzxid，
+     * 表示zxid不超过该值的修改都已经包含在快照中(删除事件不携带zxid，不推进该值)
+     * @return
+     */
+    public long getZxid() {
+        return zxid;
+    }
+
+    /**
+     * 节点数据
+     * @param path
+     * @return 节点不存在返回null，节点无数据返回空数组
+     */
+    public byte[] getData(String path) {
+        Node node = find(path);
+        if (node == null) {
+            return null;
+        }
+        return node.data == null ? new byte[0] : node.data;
+    }
+
+    /**
+     * 节点状态
+     * @param path
+     * @return 节点不存在返回null
+     */
+    public Stat getStat(String path) {
+        Node node = find(path);
+        return node == null ? null : node.stat;
+    }
+
+    /**
+     * 子节点名称，按字典序排列，不可修改
+     * @param path
+     * @return 节点不存在返回null
+     */
+    public List<String> getChildren(String path) {
+        Node node = find(path);
+        if (node == null) {
+            return null;
+        }
+        List<String> names = new ArrayList<>(node.names.length);
+        for (int i = 0; i < node.names.length; i++) {
+            if (node.children[i].present) {
+                names.add(node.names[i]);
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public boolean exists(String path) {
+        return find(path) != null;
+    }
+
+    /**
+     * 返回包含该节点最新数据的新快照
+     */
+    NamespaceSnapshot withNode(String path, byte[] data, Stat stat) {
+        long newZxid = zxid;
+        if (stat != null) {
+            newZxid = Math.max(newZxid, Math.max(stat.getMzxid(), stat.getPzxid()));
+        }
+        return new NamespaceSnapshot(root.put(split(path), 0, data, stat), newZxid);
+    }
+
+    /**
+     * 返回删除了该节点及其子树的新快照
+     */
+    NamespaceSnapshot withoutNode(String path) {
+        Node newRoot = root.remove(split(path), 0);
+        return new NamespaceSnapshot(newRoot == null ? Node.ABSENT : newRoot, zxid);
+    }
+
+    private Node find(String path) {
+        Node node = root;
+        for (String name : split(path)) {
+            int index = Arrays.binarySearch(node.names, name);
+            if (index < 0) {
+                return null;
+            }
+            node = node.children[index];
+        }
+        return node.present ? node : null;
+    }
+
+    private static String[] split(String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * 不可变的前缀树节点，子节点按名称排序保存在数组中，二分查找
+     * present为false表示只是为了挂子节点而存在的占位节点
+     */
+    private static final class Node {
+        static final String[] NO_NAMES = new String[0];
+        static final Node[] NO_CHILDREN = new Node[0];
+        static final Node ABSENT = new Node(null, null, false, NO_NAMES, NO_CHILDREN);
+
+        final byte[] data;
+        final Stat stat;
+        final boolean present;
+        final String[] names;
+        final Node[] children;
+
+        Node(byte[] data, Stat stat, boolean present, String[] names, Node[] children) {
+            this.data = data;
+            this.stat = stat;
+            this.present = present;
+            this.names = names;
+            this.children = children;
+        }
+
+        Node put(String[] path, int depth, byte[] newData, Stat newStat) {
+            if (depth == path.length) {
+                return new Node(newData, newStat, true, names, children);
+            }
+            int index = Arrays.binarySearch(names, path[depth]);
+            Node child = index >= 0 ? children[index] : ABSENT;
+            return withChild(index, path[depth], child.put(path, depth + 1, newData, newStat));
+        }
+
+        /**
+         * @return 该节点本身被删除时返回null
+         */
+        Node remove(String[] path, int depth) {
+            if (depth == path.length) {
+                return null;
+            }
+            int index = Arrays.binarySearch(names, path[depth]);
+            if (index < 0) {
+                return this;
+            }
+            Node child = children[index].remove(path, depth + 1);
+            if (child == null) {
+                return withoutChild(index);
+            }
+            return child == children[index] ? this : withChild(index, path[depth], child);
+        }
+
+        private Node withChild(int index, String name, Node child) {
+            if (index >= 0) {
+                Node[] newChildren = children.clone();
+                newChildren[index] = child;
+                return new Node(data, stat, present, names, newChildren);
+            }
+            int insert = -index - 1;
+            String[] newNames = new String[names.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(names, 0, newNames, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            newNames[insert] = name;
+            newChildren[insert] = child;
+            System.arraycopy(names, insert, newNames, insert + 1, names.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            return new Node(data, stat, present, newNames, newChildren);
+        }
+
+        private Node withoutChild(int index) {
+            String[] newNames = new String[names.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(names, 0, newNames, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(names, index + 1, newNames, index, names.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            return new Node(data, stat, present, newNames, newChildren);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.zookeeper.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 堆外内存分配器
+ * 按2的幂划分大小等级(32B ~ 64KB)，每个等级从1MB的直接内存页上切分槽位，每页维护自己的空闲槽位，释放的槽位直接复用；
+ * 某页的槽位全部释放后整页归还，其它大小等级可以重新使用这部分内存，已申请的直接内存不会因为数据大小分布变化而只增不减。
+ * 超过64KB的数据单独分配直接内存。调用方按getUsedBytes和reserveFor判断是否需要淘汰。
+ * 非线程安全，分配和释放由调用方加锁；读取使用duplicate()，不修改共享的position
+ */
+final class OffHeapArena {
+
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int MIN_SHIFT = 5;
+    private static final int MAX_SHIFT = 16;
+
+    // 每个大小等级中还有空闲槽位的页
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Page>[] available = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    private long usedBytes;
+    private long reservedBytes;
+
+    OffHeapArena() {
+        for (int i = 0; i < available.length; i++) {
+            available[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 存放length字节实际占用的容量
+     */
+    static int capacityOf(int length) {
+        int sizeClass = sizeClassOf(length);
+        return sizeClass < 0 ? length : 1 << (sizeClass + MIN_SHIFT);
+    }
+
+    /**
+     * 分配length字节需要新申请的直接内存，有空闲槽位时为0
+     */
+    long reserveFor(int length) {
+        int sizeClass = sizeClassOf(length);
+        if (sizeClass < 0) {
+            return length;
+        }
+        return available[sizeClass].isEmpty() ? PAGE_SIZE : 0;
+    }
+
+    /**
+     * 分配槽位并写入数据
+     */
+    Slot allocate(byte[] data, int offset, int length) {
+        int sizeClass = sizeClassOf(length);
+        ByteBuffer buffer;
+        Page page = null;
+        if (sizeClass < 0) {
+            buffer = ByteBuffer.allocateDirect(length);
+            reservedBytes += length;
+        } else {
+            ArrayDeque<Page> pages = available[sizeClass];
+            if (pages.isEmpty()) {
+                pages.push(carvePage(sizeClass));
+            }
+            page = pages.peek();
+            buffer = page.free.poll();
+            if (page.free.isEmpty()) {
+                pages.poll();
+            }
+        }
+        ByteBuffer writer = buffer.duplicate();
+        writer.clear();
+        writer.put(data, offset, length);
+        usedBytes += buffer.capacity();
+        return new Slot(buffer, page, length);
+    }
+
+    /**
+     * 释放槽位，同一槽位只能释放一次
+     */
+    void free(Slot slot) {
+        usedBytes -= slot.buffer.capacity();
+        Page page = slot.page;
+        if (page == null) {
+            reservedBytes -= slot.buffer.capacity();
+            return;
+        }
+        page.free.push(slot.buffer);
+        ArrayDeque<Page> pages = available[page.sizeClass];
+        if (page.free.size() == page.slots) {
+            // 整页空闲，归还给系统
+            pages.remove(page);
+            reservedBytes -= PAGE_SIZE;
+        } else if (page.free.size() == 1) {
+            // 原来已满的页重新有空闲槽位
+            pages.push(page);
+        }
+    }
+
+    /**
+     * 正在使用的槽位容量
+     */
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 已向系统申请的直接内存
+     */
+    long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    private Page carvePage(int sizeClass) {
+        int slotSize = 1 << (sizeClass + MIN_SHIFT);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE);
+        reservedBytes += PAGE_SIZE;
+        Page page = new Page(sizeClass, PAGE_SIZE / slotSize);
+        for (int position = 0; position + slotSize <= PAGE_SIZE; position += slotSize) {
+            buffer.limit(position + slotSize).position(position);
+            page.free.push(buffer.slice());
+        }
+        return page;
+    }
+
+    /**
+     * 大小等级，超过最大等级返回-1
+     */
+    private static int sizeClassOf(int length) {
+        if (length > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    /**
+     * 一页直接内存，槽位全部空闲后不再引用，由GC回收直接内存
+     */
+    private static final class Page {
+        private final int sizeClass;
+        private final int slots;
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+        private Page(int sizeClass, int slots) {
+            this.sizeClass = sizeClass;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * 一段已分配的堆外内存
+     */
+    static final class Slot {
+        private final ByteBuffer buffer;
+        // 所在的页，单独分配的大数据为null
+        private final Page page;
+        private final int length;
+
+        private Slot(ByteBuffer buffer, Page page, int length) {
+            this.buffer = buffer;
+            this.page = page;
+            this.length = length;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * 读取数据到堆上的数组
+         */
+        byte[] read() {
+            byte[] data = new byte[length];
+            ByteBuffer reader = buffer.duplicate();
+            reader.clear();
+            reader.get(data, 0, length);
+            return data;
+        }
+    }
+}
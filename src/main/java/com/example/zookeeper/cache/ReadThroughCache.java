@@ -0,0 +1,286 @@
+package com.example.zookeeper.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 单节点读穿透缓存，用于命名空间缓存之外的路径
+ * 1. 未命中时异步getData并注册数据watcher，同一路径的并发未命中共用一个在途请求
+ * 2. 节点修改或删除时watcher使缓存失效(Curator已把事件路径还原为不带命名空间的路径)；连接挂起或丢失时收不到通知，清空全部缓存
+ * 3. 条目数超过上限时扫描一遍全部条目，批量淘汰最久未访问的一批(超出部分加上上限的1/10)，
+ *    扫描的开销分摊到之后的插入上；超过TTL的条目在读取时重新加载
+ * 节点不存在时不缓存(不存在的节点上getData不会留下watcher)
+ */
+@Slf4j
+public class ReadThroughCache implements Closeable {
+
+    /**
+     * 每次淘汰额外腾出上限的1/EVICTION_BATCH_DIVISOR，避免每次插入都扫描
+     */
+    private static final int EVICTION_BATCH_DIVISOR = 10;
+
+    // 路径 -> 加载该路径的会话
+    private final Function<String, CuratorFramework> sessions;
+    // 监听连接状态的会话
+    private final Collection<CuratorFramework> listened;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 同一时刻只有一个线程扫描淘汰
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * 所有路径共用一个watcher，zookeeper客户端对同一路径上的同一watcher只登记一次
+     */
+    private final Watcher watcher = this::onWatchedEvent;
+    private final ConnectionStateListener connectionListener = this::onStateChanged;
+
+    /**
+     * @param client
+     * @param maxEntries 最大条目数
+     * @param ttlMs 条目最长存活时间，毫秒，0表示不过期
+     */
+    public ReadThroughCache(CuratorFramework client, int maxEntries, long ttlMs) {
+        this(path -> client, Collections.singletonList(client), maxEntries, ttlMs);
+    }
+
+    /**
+     * 按路径选择会话加载，与写入使用同一个会话时，写入后的加载可以读到这次写入
+     * @param sessions 路径 -> 加载该路径的会话
+     * @param allSessions sessions可能返回的所有会话，任一会话挂起或丢失都清空缓存
+     * @param maxEntries 最大条目数
+     * @param ttlMs 条目最长存活时间，毫秒，0表示不过期
+     */
+    public ReadThroughCache(Function<String, CuratorFramework> sessions, Collection<CuratorFramework> allSessions,
+                            int maxEntries, long ttlMs) {
+        this.sessions = sessions;
+        this.listened = allSessions;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+        for (CuratorFramework session : allSessions) {
+            session.getConnectionStateListenable().addListener(connectionListener);
+        }
+    }
+
+    /**
+     * 读取节点数据
+     * @param path
+     * @return 节点不存在返回null
+     * @throws Exception
+     */
+    public byte[] get(String path) throws Exception {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.isExpired(ttlMs)) {
+            if (entries.remove(path, entry)) {
+                expirations.increment();
+            }
+            entry = null;
+        }
+        if (entry != null) {
+            hits.increment();
+        } else {
+            boolean[] created = new boolean[1];
+            entry = entries.computeIfAbsent(path, p -> {
+                created[0] = true;
+                return new Entry(fetch(p));
+            });
+            if (created[0]) {
+                misses.increment();
+                evictIfNecessary();
+            } else {
+                hits.increment();
+            }
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        try {
+            return entry.value.get();
+        } catch (ExecutionException e) {
+            entries.remove(path, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof KeeperException.NoNodeException) {
+                return null;
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * 只读取已缓存的条目，未缓存或已过期时不加载
+     * 批量读取使用，避免一次性读取大量节点把常用条目挤出缓存
+     * @param path
+     * @return 未缓存返回null；加载中的条目返回在途的future，节点不存在时以NoNodeException完成
+     */
+    public CompletableFuture<byte[]> getIfPresent(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.isExpired(ttlMs)) {
+            return null;
+        }
+        hits.increment();
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.value;
+    }
+
+    /**
+     * 使一个路径的缓存失效
+     * @param path
+     */
+    public void invalidate(String path) {
+        if (entries.remove(path) != null) {
+            invalidations.increment();
+        }
+    }
+
+    public void invalidateAll() {
+        int size = entries.size();
+        entries.clear();
+        invalidations.add(size);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    @Override
+    public void close() {
+        for (CuratorFramework session : listened) {
+            session.getConnectionStateListenable().removeListener(connectionListener);
+        }
+        entries.clear();
+    }
+
+    private CompletableFuture<byte[]> fetch(String path) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).getData().usingWatcher(watcher).inBackground((client1, event) -> {
+                KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (code == KeeperException.Code.OK) {
+                    future.complete(event.getData() == null ? new byte[0] : event.getData());
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void onWatchedEvent(WatchedEvent event) {
+        if (event.getPath() != null) {
+            invalidate(event.getPath());
+        } else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+            invalidateAll();
+        }
+    }
+
+    private void onStateChanged(CuratorFramework client, ConnectionState state) {
+        if (state == ConnectionState.SUSPENDED || state == ConnectionState.LOST) {
+            log.info("zookeeper连接{}，清空读缓存", state);
+            invalidateAll();
+        }
+    }
+
+    /**
+     * 超过上限时扫描全部条目，淘汰最久未访问的一批
+     */
+    private void evictIfNecessary() {
+        if (entries.size() <= maxEntries || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int count = entries.size() - maxEntries + Math.max(1, maxEntries / EVICTION_BATCH_DIVISOR);
+            if (count <= 0) {
+                return;
+            }
+            // 大顶堆，堆顶是已选中的条目中最近访问的
+            PriorityQueue<Victim> victims = new PriorityQueue<>(count, Comparator.comparingLong((Victim v) -> v.lastAccess).reversed());
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                long lastAccess = candidate.getValue().lastAccess;
+                if (victims.size() < count) {
+                    victims.add(new Victim(candidate.getKey(), candidate.getValue(), lastAccess));
+                } else if (lastAccess < victims.peek().lastAccess) {
+                    victims.poll();
+                    victims.add(new Victim(candidate.getKey(), candidate.getValue(), lastAccess));
+                }
+            }
+            for (Victim victim : victims) {
+                // 只移除扫描时的条目，期间重新加载的条目保留
+                if (entries.remove(victim.path, victim.entry)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Victim {
+        final String path;
+        final Entry entry;
+        final long lastAccess;
+
+        Victim(String path, Entry entry, long lastAccess) {
+            this.path = path;
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Entry {
+        final CompletableFuture<byte[]> value;
+        final long loadedAt = System.currentTimeMillis();
+        volatile long lastAccess = loadedAt;
+
+        Entry(CompletableFuture<byte[]> value) {
+            this.value = value;
+        }
+
+        boolean isExpired(long ttlMs) {
+            return ttlMs > 0 && System.currentTimeMillis() - loadedAt > ttlMs;
+        }
+    }
+}
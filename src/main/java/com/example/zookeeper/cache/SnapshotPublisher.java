@@ -0,0 +1,112 @@
+package com.example.zookeeper.cache;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 快照发布器
+ * 监听事件先进入队列，由单独的线程一次取出当前积压的所有事件，依次应用到不可变快照上，
+ * 整批应用完后通过AtomicReference发布一次新快照，读者只需要读取引用。
+ * multi事务的各个节点事件分别到达，队列取空后再等待QUIET_MS，期间到达的事件并入同一批，避免事务只发布一半；
+ * 持续有事件时最多攒MAX_HOLD_MS，之后只在mzxid变化处(事务边界)发布。
+ * 删除事件拿不到删除时的zxid，按zxid分组只对节点新增和修改有效
+ */
+final class SnapshotPublisher {
+
+    private static final long QUIET_MS = 5;
+    private static final long MAX_HOLD_MS = 50;
+
+    private final AtomicReference<NamespaceSnapshot> current = new AtomicReference<>(NamespaceSnapshot.EMPTY);
+    private final BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "namespace-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    NamespaceSnapshot snapshot() {
+        return current.get();
+    }
+
+    void nodeChanged(String path, byte[] data, Stat stat) {
+        changes.add(new Change(path, data, stat, false));
+        schedule();
+    }
+
+    void nodeRemoved(String path) {
+        changes.add(new Change(path, null, null, true));
+        schedule();
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        // 先清除标记，之后到达的事件会再调度一次
+        scheduled.set(false);
+        NamespaceSnapshot snapshot = current.get();
+        int applied = 0;
+        long lastZxid = 0;
+        long batchStart = System.nanoTime();
+        while (true) {
+            Change change = changes.poll();
+            if (change == null && applied > 0) {
+                // 等待同一事务中尚未到达的事件
+                try {
+                    change = changes.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (change == null) {
+                break;
+            }
+            if (applied > 0 && change.zxid != lastZxid
+                    && System.nanoTime() - batchStart > TimeUnit.MILLISECONDS.toNanos(MAX_HOLD_MS)) {
+                // 攒批超时，在事务边界先发布
+                current.set(snapshot);
+                applied = 0;
+                batchStart = System.nanoTime();
+            }
+            snapshot = change.removed ? snapshot.withoutNode(change.path)
+                    : snapshot.withNode(change.path, change.data, change.stat);
+            lastZxid = change.zxid;
+            applied++;
+        }
+        if (applied > 0) {
+            current.set(snapshot);
+        }
+    }
+
+    private static final class Change {
+        final String path;
+        final byte[] data;
+        final Stat stat;
+        final boolean removed;
+        // 产生该变化的事务，删除事件为0
+        final long zxid;
+
+        Change(String path, byte[] data, Stat stat, boolean removed) {
+            this.path = path;
+            this.data = data;
+            this.stat = stat;
+            this.removed = removed;
+            this.zxid = stat == null ? 0 : stat.getMzxid();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.zookeeper.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Curator TreeCache的命名空间缓存，每个节点在堆上保存完整的ChildData
+ * 开启快照后，TreeCache事件同时应用到不可变快照上，getData、getChildren改为读取快照，读路径无锁
+ */
+@Slf4j
+public class TreeNamespaceCache implements NamespaceCache {
+
+    private final TreeCache cache;
+    private final SnapshotPublisher publisher;
+
+    public TreeNamespaceCache(CuratorFramework client, String watchRootPath) {
+        this(client, watchRootPath, false);
+    }
+
+    /**
+     * @param client
+     * @param watchRootPath 监听的子树根节点
+     * @param snapshotEnabled 是否维护不可变快照
+     */
+    public TreeNamespaceCache(CuratorFramework client, String watchRootPath, boolean snapshotEnabled) {
+        this.cache = new TreeCache(client, watchRootPath);
+        this.publisher = snapshotEnabled ? new SnapshotPublisher() : null;
+    }
+
+    @Override
+    public void start() throws Exception {
+        TreeCacheListener listener = (client1, event) ->{
+            log.info("event:" + event.getType() +
+                    " |path:" + (null != event.getData() ? event.getData().getPath() : null));
+
+            if(event.getData()!=null && event.getData().getData()!=null){
+                log.info("发生变化的节点内容为：" + new String(event.getData().getData()));
+            }
+            if (publisher != null && event.getData() != null) {
+                ChildData data = event.getData();
+                switch (event.getType()) {
+                    case NODE_ADDED:
+                    case NODE_UPDATED:
+                        publisher.nodeChanged(data.getPath(), data.getData(), data.getStat());
+                        break;
+                    case NODE_REMOVED:
+                        publisher.nodeRemoved(data.getPath());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        };
+        cache.getListenable().addListener(listener);
+        cache.start();
+    }
+
+    @Override
+    public byte[] getData(String path) {
+        if (publisher != null) {
+            return publisher.snapshot().getData(path);
+        }
+        ChildData data = cache.getCurrentData(path);
+        if (data == null) {
+            return null;
+        }
+        return data.getData() == null ? new byte[0] : data.getData();
+    }
+
+    @Override
+    public List<String> getChildren(String path) {
+        if (publisher != null) {
+            return publisher.snapshot().getChildren(path);
+        }
+        Map<String, ChildData> children = cache.getCurrentChildren(path);
+        return children == null ? null : new ArrayList<>(children.keySet());
+    }
+
+    @Override
+    public NamespaceSnapshot snapshot() {
+        return publisher == null ? null : publisher.snapshot();
+    }
+
+    public TreeCache getTreeCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+}
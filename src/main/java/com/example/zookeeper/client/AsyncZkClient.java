@@ -0,0 +1,246 @@
+package com.example.zookeeper.client;
+
+import com.example.zookeeper.metrics.ZkMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * zookeeper异步客户端
+ * 基于Curator的inBackground()回调实现，所有方法立即返回CompletableFuture，
+ * 同一个会话上可以同时有大量请求在途（pipeline），不需要为每个未完成的请求占用一个线程。
+ * 可以按路径选择会话(例如会话池的forPath)，同一路径的请求总是发往同一个会话，与同步接口的路由一致。
+ * 写入成功后、future完成前调用writeListener，用于使读缓存失效和标记读会话需要sync。
+ * 不经过ValueCodec编解码：读写的都是节点上保存的原始字节，开启编解码后读到的可能是压缩数据或分块清单。
+ * 注意：future在Curator的事件线程中完成，耗时的后续处理请使用thenXxxAsync并指定线程池，避免阻塞事件线程
+ */
+@Slf4j
+public class AsyncZkClient {
+
+    private final Function<String, CuratorFramework> sessions;
+    private final Consumer<String> writeListener;
+
+    public AsyncZkClient(CuratorFramework client) {
+        this(path -> client);
+    }
+
+    /**
+     * @param sessions 路径 -> 执行该路径请求的会话
+     */
+    public AsyncZkClient(Function<String, CuratorFramework> sessions) {
+        this(sessions, path -> { });
+    }
+
+    /**
+     * @param sessions 路径 -> 执行该路径请求的会话
+     * @param writeListener 写入成功后以路径调用，在事件线程中执行，不能阻塞
+     */
+    public AsyncZkClient(Function<String, CuratorFramework> sessions, Consumer<String> writeListener) {
+        this.sessions = sessions;
+        this.writeListener = writeListener;
+    }
+
+    /**
+     * 创建节点，父节点不存在时自动创建
+     * @param mode  节点类型
+     * @param path  节点名称
+     * @param nodeData  节点数据
+     * @return 实际创建的节点路径（顺序节点带序号）
+     */
+    public CompletableFuture<String> createNode(CreateMode mode, String path, String nodeData) {
+        return createNode(mode, path, nodeData.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 创建节点，父节点不存在时自动创建
+     * @param mode  节点类型
+     * @param path  节点名称
+     * @param datas 节点数据
+     * @return 实际创建的节点路径（顺序节点带序号）
+     */
+    public CompletableFuture<String> createNode(CreateMode mode, String path, byte[] datas) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).create().creatingParentsIfNeeded().withMode(mode)
+                    .inBackground(writeCallback(future, path, CuratorEvent::getName)).forPath(path, datas);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.create", path, future);
+    }
+
+    /**
+     * 创建无数据的节点
+     * @param mode 节点类型
+     * @param path 节点名称
+     * @return 实际创建的节点路径
+     */
+    public CompletableFuture<String> createNode(CreateMode mode, String path) {
+        return createNode(mode, path, new byte[0]);
+    }
+
+    /**
+     * 设置指定节点的数据
+     * @param path
+     * @param datas
+     * @return 修改后的节点状态
+     */
+    public CompletableFuture<Stat> setNodeData(String path, byte[] datas) {
+        return setNodeData(path, datas, -1);
+    }
+
+    /**
+     * 按版本设置节点数据（CAS），版本不匹配时以BadVersionException完成
+     * @param path
+     * @param datas
+     * @param version 期望版本，-1表示不校验
+     * @return 修改后的节点状态
+     */
+    public CompletableFuture<Stat> setNodeData(String path, byte[] datas, int version) {
+        CompletableFuture<Stat> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).setData().withVersion(version)
+                    .inBackground(writeCallback(future, path, CuratorEvent::getStat)).forPath(path, datas);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.setData", path, future);
+    }
+
+    /**
+     * 获取指定节点的数据
+     * @param path
+     * @return
+     */
+    public CompletableFuture<byte[]> getNodeData(String path) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).getData().inBackground(callback(future, path, CuratorEvent::getData)).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.getData", path, future);
+    }
+
+    /**
+     * 获取节点的子节点
+     * @param path
+     * @return
+     */
+    public CompletableFuture<List<String>> getChildren(String path) {
+        CompletableFuture<List<String>> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).getChildren().inBackground(callback(future, path, CuratorEvent::getChildren)).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.getChildren", path, future);
+    }
+
+    /**
+     * 删除节点及其子节点
+     * @param path
+     * @return
+     */
+    public CompletableFuture<Void> deleteNode(String path) {
+        return deleteNode(path, true);
+    }
+
+    /**
+     * 删除节点
+     * @param path
+     * @param deleteChildren 是否删除子节点
+     * @return
+     */
+    public CompletableFuture<Void> deleteNode(String path, boolean deleteChildren) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            if (deleteChildren) {
+                sessions.apply(path).delete().guaranteed().deletingChildrenIfNeeded()
+                        .inBackground(writeCallback(future, path, event -> null)).forPath(path);
+            } else {
+                sessions.apply(path).delete().guaranteed()
+                        .inBackground(writeCallback(future, path, event -> null)).forPath(path);
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.delete", path, future);
+    }
+
+    /**
+     * 判断路径是否存在
+     * @param path
+     * @return
+     */
+    public CompletableFuture<Boolean> isExistNode(String path) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            sessions.apply(path).checkExists().inBackground((client1, event) -> {
+                KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (code == KeeperException.Code.OK) {
+                    future.complete(event.getStat() != null);
+                } else if (code == KeeperException.Code.NONODE) {
+                    future.complete(false);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return ZkMetrics.recordAsync("async.checkExists", path, future);
+    }
+
+    /**
+     * 当前线程是否为zookeeper事件线程，watcher和后台回调都在该线程中执行
+     * 事件线程中不能同步等待zookeeper请求的结果：结果也要由该线程回调，会互相等待
+     * @return
+     */
+    public static boolean isEventThread() {
+        return Thread.currentThread().getName().endsWith("-EventThread");
+    }
+
+    /**
+     * 写操作的回调：成功时先通知writeListener再完成future，调用方在future完成后的读取可以看到这次写入
+     */
+    private <T> BackgroundCallback writeCallback(CompletableFuture<T> future, String path,
+                                                 Function<CuratorEvent, T> mapper) {
+        BackgroundCallback callback = callback(future, path, mapper);
+        return (client1, event) -> {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                try {
+                    writeListener.accept(path);
+                } catch (Exception e) {
+                    log.warn("写入后处理失败: {}", path, e);
+                }
+            }
+            callback.processResult(client1, event);
+        };
+    }
+
+    /**
+     * 将后台回调结果转换为future：结果码为OK时用mapper取值，否则以对应的KeeperException完成
+     */
+    private static <T> BackgroundCallback callback(CompletableFuture<T> future, String path,
+                                                   Function<CuratorEvent, T> mapper) {
+        return (client1, event) -> {
+            KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (code == KeeperException.Code.OK) {
+                future.complete(mapper.apply(event));
+            } else {
+                future.completeExceptionally(KeeperException.create(code, path));
+            }
+        };
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.zookeeper.client;
+
+import com.example.zookeeper.cache.NamespaceCache;
+import com.example.zookeeper.cache.NamespaceSnapshot;
+import com.example.zookeeper.cache.ReadThroughCache;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * 批量读取子节点及其数据
+ * 1. 优先从命名空间缓存读取(开启快照时整批读取来自同一个快照)，其次使用读穿透缓存中已有的条目
+ * 2. 缓存没有的节点，同一层的getChildren、getData全部异步发出(流水线)，在途请求数不超过maxConcurrency
+ * 读取N个子节点的耗时约为一次往返，而不是N次；子树按层读取，耗时约为层数次往返
+ * 读取过程中被删除的节点不出现在结果中。
+ * 读己之写：调用方在读取前sync读会话；读穿透缓存中写过的路径在写入后已失效，剩下的条目加载前都经过sync，
+ * 命名空间缓存由watch异步更新，命中的节点不保证读己之写
+ */
+public class BulkReader {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 1000;
+
+    private final AsyncZkClient asyncClient;
+    private final NamespaceCache cache;
+    private final ReadThroughCache readCache;
+    private final int maxConcurrency;
+
+    /**
+     * @param client 读会话
+     * @param cache 命名空间缓存，可以为null
+     * @param readCache 读穿透缓存，可以为null
+     * @param maxConcurrency 最大在途请求数
+     */
+    public BulkReader(CuratorFramework client, NamespaceCache cache, ReadThroughCache readCache, int maxConcurrency) {
+        this(new AsyncZkClient(client), cache, readCache, maxConcurrency);
+    }
+
+    /**
+     * @param asyncClient 发出读取请求的异步客户端，可以按路径路由到会话池
+     * @param cache 命名空间缓存，可以为null
+     * @param readCache 读穿透缓存，可以为null
+     * @param maxConcurrency 最大在途请求数
+     */
+    public BulkReader(AsyncZkClient asyncClient, NamespaceCache cache, ReadThroughCache readCache, int maxConcurrency) {
+        this.asyncClient = asyncClient;
+        this.cache = cache;
+        this.readCache = readCache;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * 读取所有子节点的数据
+     * @param path 父节点
+     * @return 子节点名称 -> 数据，按名称排序；父节点不存在返回空map
+     * @throws Exception
+     */
+    public Map<String, byte[]> getChildrenWithData(String path) throws Exception {
+        NamespaceSnapshot snapshot = cache != null ? cache.snapshot() : null;
+        Semaphore permits = new Semaphore(maxConcurrency);
+        List<String> children = join(children(path, snapshot, permits));
+        if (children == null || children.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        String prefix = childPrefix(path);
+        Map<String, byte[]> result = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(children.size());
+        for (String child : children) {
+            futures.add(data(prefix + child, snapshot, permits).thenAccept(data -> {
+                if (data != null) {
+                    result.put(child, data);
+                }
+            }));
+        }
+        join(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+        return new TreeMap<>(result);
+    }
+
+    /**
+     * 按层读取子树所有节点的数据
+     * @param path 子树根节点
+     * @param depth 读取的层数，0只读取根节点，1读取根节点和子节点，小于0不限
+     * @return 节点完整路径 -> 数据，按路径排序，包含根节点；根节点不存在返回空map
+     * @throws Exception
+     */
+    public Map<String, byte[]> getSubtree(String path, int depth) throws Exception {
+        NamespaceSnapshot snapshot = cache != null ? cache.snapshot() : null;
+        Semaphore permits = new Semaphore(maxConcurrency);
+        Map<String, byte[]> result = new ConcurrentHashMap<>();
+        List<String> level = Collections.singletonList(path);
+        for (int d = 0; !level.isEmpty(); d++) {
+            boolean expand = depth < 0 || d < depth;
+            Queue<String> next = new ConcurrentLinkedQueue<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>(expand ? level.size() * 2 : level.size());
+            for (String node : level) {
+                futures.add(data(node, snapshot, permits).thenAccept(data -> {
+                    if (data != null) {
+                        result.put(node, data);
+                    }
+                }));
+                if (expand) {
+                    String prefix = childPrefix(node);
+                    futures.add(children(node, snapshot, permits).thenAccept(list -> {
+                        if (list != null) {
+                            for (String child : list) {
+                                next.add(prefix + child);
+                            }
+                        }
+                    }));
+                }
+            }
+            //等待本层全部返回，下一层依赖本层的子节点列表
+            join(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+            level = new ArrayList<>(next);
+        }
+        return new TreeMap<>(result);
+    }
+
+    /**
+     * 节点数据，节点不存在时以null完成
+     */
+    private CompletableFuture<byte[]> data(String path, NamespaceSnapshot snapshot, Semaphore permits) {
+        byte[] cached = snapshot != null ? snapshot.getData(path) : cache != null ? cache.getData(path) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (readCache != null) {
+            CompletableFuture<byte[]> future = readCache.getIfPresent(path);
+            if (future != null) {
+                return ignoreNoNode(future);
+            }
+        }
+        //无数据的节点返回空数组，与节点不存在区分
+        return ignoreNoNode(acquire(permits, () -> asyncClient.getNodeData(path))
+                .thenApply(data -> data == null ? new byte[0] : data));
+    }
+
+    /**
+     * 子节点名称，节点不存在时以null完成
+     */
+    private CompletableFuture<List<String>> children(String path, NamespaceSnapshot snapshot, Semaphore permits) {
+        List<String> cached = snapshot != null ? snapshot.getChildren(path) : cache != null ? cache.getChildren(path) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return ignoreNoNode(acquire(permits, () -> asyncClient.getChildren(path)));
+    }
+
+    /**
+     * 在调用线程上等待许可后发出请求，请求完成时释放许可
+     */
+    private static <T> CompletableFuture<T> acquire(Semaphore permits, Supplier<CompletableFuture<T>> request) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<T> future = request.get();
+        future.whenComplete((v, e) -> permits.release());
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> ignoreNoNode(CompletableFuture<T> future) {
+        return future.handle((v, e) -> {
+            if (e == null) {
+                return v;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof KeeperException.NoNodeException) {
+                return null;
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    private static String childPrefix(String path) {
+        return "/".equals(path) ? path : path + "/";
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+}
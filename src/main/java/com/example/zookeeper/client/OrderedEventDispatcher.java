@@ -0,0 +1,181 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有序、有界的事件分发
+ * 1. 按分组key的hash分片到N个工作线程，同一组的事件总是由同一个线程按投递顺序执行
+ * 2. 每个分片使用有界队列，队列满时阻塞投递线程。投递线程是TreeCache的事件线程时，
+ *    阻塞只是让事件积压在TreeCache自己的无界线程池里，并不能限制ZooKeeper推送事件的速度，
+ *    有界队列只限制分发器自身占用的内存
+ * 3. 可合并的事件在队列中尚未执行时，组内同一个key的新事件直接替换旧事件，只执行最新的一个；
+ *    同一组投递了不可合并的事件后，之后的可合并事件重新排队，不会越过它提前执行
+ */
+@Slf4j
+public class OrderedEventDispatcher implements Closeable {
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private final Shard[] shards;
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile boolean closed;
+
+    public OrderedEventDispatcher() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads 工作线程数(分片数)
+     * @param queueCapacity 每个分片的队列容量
+     */
+    public OrderedEventDispatcher(int threads, int queueCapacity) {
+        shards = new Shard[Math.max(1, threads)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, Math.max(1, queueCapacity));
+        }
+    }
+
+    /**
+     * 投递事件，队列满时阻塞，key自成一组
+     * @param key 顺序key，同一个key的事件按投递顺序执行
+     * @param coalesce 是否允许与队列中同一个key的未执行事件合并
+     * @param task 事件处理逻辑
+     */
+    public void dispatch(String key, boolean coalesce, Runnable task) {
+        dispatch(key, key, coalesce, task);
+    }
+
+    /**
+     * 投递事件，队列满时阻塞
+     * @param group 顺序分组，同一组的事件按投递顺序执行
+     * @param key 组内的合并key
+     * @param coalesce 是否允许与队列中同一组、同一个key的未执行事件合并
+     * @param task 事件处理逻辑
+     */
+    public void dispatch(String group, String key, boolean coalesce, Runnable task) {
+        if (closed) {
+            return;
+        }
+        Shard shard = shards[(group.hashCode() & Integer.MAX_VALUE) % shards.length];
+        try {
+            Item item;
+            synchronized (shard.pending) {
+                if (!coalesce) {
+                    // 组内之前排队的可合并事件都不再接受替换，之后的事件不会越过这个事件
+                    shard.pending.remove(group);
+                    item = new Item(null, null, task);
+                } else {
+                    Map<String, Item> groupPending = shard.pending.computeIfAbsent(group, g -> new HashMap<>());
+                    Item queued = groupPending.get(key);
+                    if (queued != null) {
+                        // 队列中已有该key的事件，执行时会取到最新的task
+                        queued.task = task;
+                        coalescedCount.incrementAndGet();
+                        return;
+                    }
+                    item = new Item(group, key, task);
+                    groupPending.put(key, item);
+                }
+            }
+            // 队列满时阻塞，不能持有pending的锁
+            shard.queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("投递事件被中断，丢弃事件: {}", key);
+        }
+    }
+
+    /**
+     * 所有分片中排队的事件数
+     * @return
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * 被合并掉的事件数
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.worker.interrupt();
+        }
+    }
+
+    private static final class Item {
+        final String group;
+        final String key;
+        // 可合并事件的task在pending的锁内读写
+        Runnable task;
+
+        Item(String group, String key, Runnable task) {
+            this.group = group;
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final BlockingQueue<Item> queue;
+        // 分组 -> 组内key -> 排队中可合并的事件
+        final Map<String, Map<String, Item>> pending = new HashMap<>();
+        final Thread worker;
+
+        Shard(int index, int queueCapacity) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            worker = new Thread(this, "zk-event-dispatcher-" + index);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                Runnable task;
+                try {
+                    Item item = queue.take();
+                    if (item.key == null) {
+                        task = item.task;
+                    } else {
+                        synchronized (pending) {
+                            Map<String, Item> groupPending = pending.get(item.group);
+                            if (groupPending != null && groupPending.remove(item.key, item) && groupPending.isEmpty()) {
+                                pending.remove(item.group);
+                            }
+                            task = item.task;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    log.error("事件处理错误", e);
+                }
+            }
+        }
+    }
+}
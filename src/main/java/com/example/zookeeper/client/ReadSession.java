@@ -0,0 +1,135 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 读会话
+ * 读取和监听使用独立的会话(可以连接observer等其它集群节点)，写入和锁仍在主会话上，
+ * 大量写入不会拖慢缓存刷新和单点读取。
+ * 不同会话之间没有读己之写的保证：开启readYourWrites后，本进程写入之后的第一次读取前，
+ * 先在读会话上执行sync，让读会话连接的服务器追上leader，之后的读取直到下一次写入都不需要再sync
+ */
+@Slf4j
+public class ReadSession implements Closeable {
+
+    private final CuratorFramework client;
+    private final boolean owned;
+    private final boolean readYourWrites;
+    private final long syncTimeoutMs;
+    /**
+     * 已完成的写入次数
+     */
+    private final AtomicLong writes = new AtomicLong();
+    /**
+     * 最近一次sync完成时已经覆盖的写入次数
+     */
+    private final AtomicLong synced = new AtomicLong();
+
+    /**
+     * 与写入共用主会话，不做任何隔离
+     * @param primary
+     * @return
+     */
+    public static ReadSession shared(CuratorFramework primary) {
+        return new ReadSession(primary, false, false, 0);
+    }
+
+    /**
+     * @param client 读会话，已启动
+     * @param owned 是否由本对象负责关闭
+     * @param readYourWrites 写入后读取前是否先sync
+     * @param syncTimeoutMs 等待sync完成的超时时间
+     */
+    public ReadSession(CuratorFramework client, boolean owned, boolean readYourWrites, long syncTimeoutMs) {
+        this.client = client;
+        this.owned = owned;
+        this.readYourWrites = readYourWrites && owned;
+        this.syncTimeoutMs = syncTimeoutMs;
+    }
+
+    /**
+     * 读会话本身，用于缓存、监听等不需要读己之写的场景
+     * @return
+     */
+    public CuratorFramework client() {
+        return client;
+    }
+
+    /**
+     * 读取前调用：有尚未sync的写入时先sync
+     * @param path 读取的路径
+     * @return 读会话
+     * @throws Exception sync失败或超时
+     */
+    public CuratorFramework fenced(String path) throws Exception {
+        if (readYourWrites) {
+            long target = writes.get();
+            if (target > synced.get()) {
+                sync(path);
+                synced.accumulateAndGet(target, Math::max);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * 主会话写入成功后调用
+     */
+    public void writeCompleted() {
+        if (readYourWrites) {
+            writes.incrementAndGet();
+        }
+    }
+
+    /**
+     * 在读会话上执行sync并等待完成，之后读会话连接的服务器至少包含sync之前leader已提交的所有写入
+     * @param path
+     * @throws Exception
+     */
+    public void sync(String path) throws Exception {
+        sync(client, path, syncTimeoutMs);
+    }
+
+    /**
+     * 在指定会话上执行sync并等待完成
+     * @param client
+     * @param path
+     * @param syncTimeoutMs 等待超时时间，小于等于0不限
+     * @throws Exception
+     */
+    public static void sync(CuratorFramework client, String path, long syncTimeoutMs) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger resultCode = new AtomicInteger();
+        client.sync().inBackground((client1, event) -> {
+            resultCode.set(event.getResultCode());
+            latch.countDown();
+        }).forPath(path);
+        if (!latch.await(syncTimeoutMs > 0 ? syncTimeoutMs : Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("读会话sync超时: " + path);
+        }
+        KeeperException.Code code = KeeperException.Code.get(resultCode.get());
+        if (code != KeeperException.Code.OK && code != KeeperException.Code.NONODE) {
+            throw KeeperException.create(code, path);
+        }
+    }
+
+    public boolean isSeparate() {
+        return owned;
+    }
+
+    @Override
+    public void close() {
+        if (owned) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 并行子树删除
+ * 1. 按层遍历子树，同一层的getChildren全部异步发出(流水线)，在途请求数不超过maxConcurrency
+ * 2. 从最深的一层开始自底向上删除，同一层的节点打包成multi事务分批异步提交
+ * 批次失败时(遍历之后又新增了子节点、节点已被其它客户端删除等)退回到逐个删除该批次的节点
+ * 调用线程同步等待在途请求完成，不能在zookeeper事件线程(watcher、后台回调)中调用
+ */
+@Slf4j
+public class SubtreeDeleter {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * 删除进度回调，在zookeeper事件线程中调用，不要做耗时操作
+     */
+    public interface ProgressListener {
+        /**
+         * @param deleted 已删除节点数
+         * @param total   遍历到的节点总数
+         */
+        void onProgress(long deleted, long total);
+    }
+
+    private final CuratorFramework client;
+    private final AsyncZkClient asyncClient;
+    private final int maxConcurrency;
+    private final int batchSize;
+
+    public SubtreeDeleter(CuratorFramework client) {
+        this(client, DEFAULT_MAX_CONCURRENCY, DEFAULT_BATCH_SIZE);
+    }
+
+    public SubtreeDeleter(CuratorFramework client, int maxConcurrency, int batchSize) {
+        this.client = client;
+        this.asyncClient = new AsyncZkClient(client);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * 删除节点及其所有子节点，"/"只删除子节点
+     * @param path 子树根节点
+     * @param listener 进度回调，可以为null
+     * @return 删除的节点数，根节点不存在返回0
+     * @throws Exception
+     * @throws IllegalStateException 在zookeeper事件线程中调用
+     */
+    public long delete(String path, ProgressListener listener) throws Exception {
+        if (AsyncZkClient.isEventThread()) {
+            throw new IllegalStateException("不能在zookeeper事件线程中同步删除子树: " + path);
+        }
+        List<List<String>> levels = walk(path);
+        long total = 0;
+        for (List<String> level : levels) {
+            total += level.size();
+        }
+        if ("/".equals(path) && !levels.isEmpty()) {
+            levels.get(0).clear();
+            total--;
+        }
+        final long totalNodes = total;
+        AtomicLong deleted = new AtomicLong();
+        Semaphore permits = new Semaphore(maxConcurrency);
+        //自底向上，上一层的删除依赖本层全部完成
+        for (int depth = levels.size() - 1; depth >= 0; depth--) {
+            TransactionBatcher<String> batcher = new TransactionBatcher<>(TransactionBatcher.defaultMaxBatchBytes(), batchSize);
+            for (String node : levels.get(depth)) {
+                batcher.add(node, TransactionBatcher.estimate(node, null), client.transactionOp().delete().forPath(node));
+            }
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (TransactionBatcher.Batch<String> batch : batcher.getBatches()) {
+                permits.acquire();
+                CompletableFuture<Void> future = deleteBatch(batch, deleted);
+                future.whenComplete((v, e) -> {
+                    permits.release();
+                    if (listener != null) {
+                        listener.onProgress(deleted.get(), totalNodes);
+                    }
+                });
+                futures.add(future);
+            }
+            join(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+        }
+        log.info("删除子树 {} 完成，共删除 {} 个节点", path, deleted.get());
+        return deleted.get();
+    }
+
+    /**
+     * 按层遍历子树，返回每一层存在的节点路径，第0层为根节点；根节点不存在时返回空列表
+     */
+    private List<List<String>> walk(String root) throws Exception {
+        List<List<String>> levels = new ArrayList<>();
+        List<String> probe = new ArrayList<>();
+        probe.add(root);
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        while (!probe.isEmpty()) {
+            Queue<String> existing = new ConcurrentLinkedQueue<>();
+            Queue<String> children = new ConcurrentLinkedQueue<>();
+            for (String node : probe) {
+                permits.acquire();
+                asyncClient.getChildren(node).whenComplete((list, e) -> {
+                    try {
+                        if (e == null) {
+                            existing.add(node);
+                            String prefix = "/".equals(node) ? node : node + "/";
+                            for (String child : list) {
+                                children.add(prefix + child);
+                            }
+                        } else if (!(e instanceof KeeperException.NoNodeException)) {
+                            error.compareAndSet(null, e);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            //等待本层所有getChildren返回
+            permits.acquire(maxConcurrency);
+            permits.release(maxConcurrency);
+            if (error.get() != null) {
+                throw new IllegalStateException("遍历子树失败: " + root, error.get());
+            }
+            if (existing.isEmpty()) {
+                break;
+            }
+            levels.add(new ArrayList<>(existing));
+            probe = new ArrayList<>(children);
+        }
+        return levels;
+    }
+
+    /**
+     * 以multi事务异步删除一批节点，失败时退回到逐个删除
+     */
+    private CompletableFuture<Void> deleteBatch(TransactionBatcher.Batch<String> batch, AtomicLong deleted) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<String> nodes = batch.getOwners();
+        try {
+            client.transaction().inBackground((client1, event) -> {
+                if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                    deleted.addAndGet(nodes.size());
+                    future.complete(null);
+                } else {
+                    log.debug("批量删除失败，逐个删除, code={}", KeeperException.Code.get(event.getResultCode()));
+                    deleteOneByOne(nodes, deleted).whenComplete((v, e) -> complete(future, e));
+                }
+            }).forOperations(batch.getOps());
+        } catch (Exception e) {
+            deleteOneByOne(nodes, deleted).whenComplete((v, ex) -> complete(future, ex));
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> deleteOneByOne(List<String> nodes, AtomicLong deleted) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            futures.add(asyncClient.deleteNode(node, true).handle((v, e) -> {
+                if (e == null) {
+                    deleted.incrementAndGet();
+                } else if (!(e instanceof KeeperException.NoNodeException)) {
+                    throw new CompletionException(e);
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable e) {
+        if (e == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static void join(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * multi事务分批器
+ * 将大量create/setData/delete操作打包为zookeeper multi事务，按jute包大小(jute.maxbuffer)和操作数切分为多个批次，
+ * 每个批次一次往返提交，并按key返回结果。同一个key的多个操作总是落在同一个批次中。
+ * 批次失败时剔除出错的key重试剩余操作，出错的key交给调用方的兜底逻辑逐个处理
+ * @param <K> 结果对应的key，例如id或节点路径
+ */
+@Slf4j
+public class TransactionBatcher<K> {
+
+    /**
+     * 每个操作在请求包中的额外开销估算(操作头、acl、版本等)
+     */
+    private static final int OP_OVERHEAD_BYTES = 128;
+    /**
+     * 默认每批最多操作数
+     */
+    public static final int DEFAULT_MAX_BATCH_OPS = 1000;
+    /**
+     * 失败后剔除出错key重新提交的最多次数
+     */
+    private static final int MAX_RETRIES = 3;
+
+    private final int maxBatchBytes;
+    private final int maxBatchOps;
+    private final List<Batch<K>> batches = new ArrayList<>();
+    private Batch<K> current;
+
+    public TransactionBatcher() {
+        this(defaultMaxBatchBytes(), DEFAULT_MAX_BATCH_OPS);
+    }
+
+    public TransactionBatcher(int maxBatchBytes, int maxBatchOps) {
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchOps = maxBatchOps;
+    }
+
+    /**
+     * 默认每批字节上限：取jute.maxbuffer(默认1M)的一半，给请求头和序列化留足余量
+     * @return
+     */
+    public static int defaultMaxBatchBytes() {
+        return Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+    }
+
+    /**
+     * 估算一个操作在请求包中占用的字节数
+     * @param path 节点路径
+     * @param data 节点数据，可以为null
+     * @return
+     */
+    public static int estimate(String path, byte[] data) {
+        return path.getBytes(StandardCharsets.UTF_8).length + (data == null ? 0 : data.length) + OP_OVERHEAD_BYTES;
+    }
+
+    /**
+     * 添加一个key的操作，超过当前批次的字节或操作数上限时自动切分新批次
+     * @param key
+     * @param bytes 这些操作的估算字节数
+     * @param ops
+     */
+    public void add(K key, int bytes, CuratorOp... ops) {
+        if (current == null || current.ops.size() + ops.length > maxBatchOps
+                || (current.bytes + bytes > maxBatchBytes && !current.ops.isEmpty())) {
+            current = new Batch<>();
+            batches.add(current);
+        }
+        for (CuratorOp op : ops) {
+            current.ops.add(op);
+            current.owners.add(key);
+        }
+        current.bytes += bytes;
+    }
+
+    public List<Batch<K>> getBatches() {
+        return batches;
+    }
+
+    public boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    /**
+     * 依次提交所有批次
+     * @param client
+     * @param fallback 批次中出错的key的兜底处理，返回该key最终是否成功
+     * @return 每个key的处理结果
+     */
+    public Map<K, Boolean> commit(CuratorFramework client, Function<K, Boolean> fallback) {
+        Map<K, Boolean> result = new LinkedHashMap<>();
+        for (Batch<K> batch : batches) {
+            commit(client, batch, fallback, result);
+        }
+        return result;
+    }
+
+    /**
+     * 提交一个批次，失败时根据multi返回的结果剔除出错的key后重试
+     */
+    public static <K> void commit(CuratorFramework client, Batch<K> batch, Function<K, Boolean> fallback,
+                                  Map<K, Boolean> result) {
+        List<CuratorOp> ops = batch.ops;
+        List<K> owners = batch.owners;
+        for (int attempt = 0; !ops.isEmpty(); attempt++) {
+            try {
+                client.transaction().forOperations(ops);
+                for (K key : owners) {
+                    result.put(key, true);
+                }
+                return;
+            } catch (Exception e) {
+                Set<K> failed = failedKeys(e, owners);
+                if (failed == null || attempt >= MAX_RETRIES) {
+                    log.warn("multi事务提交失败，逐个兜底处理, size={}", ops.size(), e);
+                    failed = new LinkedHashSet<>(owners);
+                } else {
+                    log.debug("multi事务部分操作失败，剔除后重试: {}", failed);
+                }
+                for (K key : failed) {
+                    result.put(key, fallback.apply(key));
+                }
+                List<CuratorOp> retryOps = new ArrayList<>();
+                List<K> retryOwners = new ArrayList<>();
+                for (int i = 0; i < ops.size(); i++) {
+                    if (!failed.contains(owners.get(i))) {
+                        retryOps.add(ops.get(i));
+                        retryOwners.add(owners.get(i));
+                    }
+                }
+                ops = retryOps;
+                owners = retryOwners;
+            }
+        }
+    }
+
+    /**
+     * 从multi失败结果中找出真正出错的操作对应的key，无法判断时返回null
+     */
+    private static <K> Set<K> failedKeys(Exception e, List<K> owners) {
+        if (!(e instanceof KeeperException)) {
+            return null;
+        }
+        List<OpResult> results = ((KeeperException) e).getResults();
+        if (results == null || results.size() != owners.size()) {
+            return null;
+        }
+        Set<K> failed = new LinkedHashSet<>();
+        for (int i = 0; i < results.size(); i++) {
+            OpResult opResult = results.get(i);
+            if (opResult instanceof OpResult.ErrorResult) {
+                int err = ((OpResult.ErrorResult) opResult).getErr();
+                if (err != KeeperException.Code.OK.intValue()
+                        && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                    failed.add(owners.get(i));
+                }
+            }
+        }
+        return failed.isEmpty() ? null : failed;
+    }
+
+    /**
+     * 一个multi事务批次
+     */
+    public static class Batch<K> {
+        private final List<CuratorOp> ops = new ArrayList<>();
+        private final List<K> owners = new ArrayList<>();
+        private int bytes;
+
+        public List<CuratorOp> getOps() {
+            return ops;
+        }
+
+        public List<K> getOwners() {
+            return owners;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+    }
+}
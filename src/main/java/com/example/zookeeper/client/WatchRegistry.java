@@ -0,0 +1,208 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按路径共享的监听注册表
+ * 同一路径只创建一个TreeCache，所有监听器共用并按引用计数，最后一个监听器取消订阅时关闭TreeCache。
+ * 每个TreeCache只注册一个内部监听器，由它把事件分发给该路径的所有订阅者
+ */
+@Slf4j
+public class WatchRegistry implements Closeable {
+
+    private final CuratorFramework client;
+    private final OrderedEventDispatcher dispatcher;
+    private final Map<String, SharedWatch> watches = new HashMap<>();
+
+    /**
+     * @param client
+     * @param dispatcher 执行监听回调的分发器，同一监听路径的事件有序，排队中的同一节点更新会被合并
+     */
+    public WatchRegistry(CuratorFramework client, OrderedEventDispatcher dispatcher) {
+        this.client = client;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 订阅路径下整棵树的变化，路径已被监听时复用已有的TreeCache
+     * @param path
+     * @param listener
+     * @return 订阅，close()取消订阅
+     * @throws Exception TreeCache启动失败
+     */
+    public synchronized Subscription subscribe(String path, TreeCacheListener listener) throws Exception {
+        SharedWatch watch = watches.get(path);
+        if (watch == null) {
+            watch = new SharedWatch(path);
+            try {
+                watch.start();
+            } catch (Exception e) {
+                // 启动失败的TreeCache不会放入注册表，必须在这里关闭
+                watch.close();
+                throw e;
+            }
+            watches.put(path, watch);
+        }
+        watch.listeners.add(listener);
+        return new Subscription(path, listener);
+    }
+
+    private synchronized void unsubscribe(String path, TreeCacheListener listener) {
+        SharedWatch watch = watches.get(path);
+        if (watch == null) {
+            return;
+        }
+        watch.listeners.remove(listener);
+        if (watch.listeners.isEmpty()) {
+            watches.remove(path);
+            watch.close();
+        }
+    }
+
+    /**
+     * 取消路径上的所有订阅并关闭TreeCache
+     * @param path
+     */
+    public synchronized void unsubscribeAll(String path) {
+        SharedWatch watch = watches.remove(path);
+        if (watch != null) {
+            watch.close();
+        }
+    }
+
+    /**
+     * 正在监听的路径数，即存活的TreeCache数
+     * @return
+     */
+    public synchronized int getActiveWatchCount() {
+        return watches.size();
+    }
+
+    /**
+     * 所有路径上的订阅者总数
+     * @return
+     */
+    public synchronized int getListenerCount() {
+        int count = 0;
+        for (SharedWatch watch : watches.values()) {
+            count += watch.listeners.size();
+        }
+        return count;
+    }
+
+    /**
+     * 所有TreeCache中缓存的节点总数
+     * @return
+     */
+    public synchronized long getCachedNodeCount() {
+        long count = 0;
+        for (SharedWatch watch : watches.values()) {
+            count += watch.nodeCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * 正在监听的路径
+     * @return
+     */
+    public synchronized List<String> getWatchedPaths() {
+        return new ArrayList<>(watches.keySet());
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SharedWatch watch : watches.values()) {
+            watch.close();
+        }
+        watches.clear();
+    }
+
+    /**
+     * 一个路径上共享的TreeCache
+     * TreeCache事件线程只负责计数和投递，监听回调在分发器线程上执行
+     */
+    private class SharedWatch implements TreeCacheListener {
+        private final String path;
+        private final TreeCache cache;
+        private final List<TreeCacheListener> listeners = new CopyOnWriteArrayList<>();
+        private final AtomicLong nodeCount = new AtomicLong();
+
+        SharedWatch(String path) {
+            this.path = path;
+            this.cache = new TreeCache(client, path);
+        }
+
+        void start() throws Exception {
+            cache.getListenable().addListener(this);
+            cache.start();
+        }
+
+        @Override
+        public void childEvent(CuratorFramework client, TreeCacheEvent event) {
+            if (event.getType() == TreeCacheEvent.Type.NODE_ADDED) {
+                nodeCount.incrementAndGet();
+            } else if (event.getType() == TreeCacheEvent.Type.NODE_REMOVED) {
+                nodeCount.decrementAndGet();
+            }
+            // 同一监听路径的所有事件按投递顺序执行，INITIALIZED不会越过之前的NODE_ADDED；
+            // 组内只按节点路径合并NODE_UPDATED，初始化、连接状态、新增和删除事件不会被替换
+            boolean coalesce = event.getType() == TreeCacheEvent.Type.NODE_UPDATED && event.getData() != null;
+            String node = event.getData() == null ? "" : event.getData().getPath();
+            dispatcher.dispatch(path, node, coalesce, () -> deliver(client, event));
+        }
+
+        private void deliver(CuratorFramework client, TreeCacheEvent event) {
+            for (TreeCacheListener listener : listeners) {
+                try {
+                    listener.childEvent(client, event);
+                } catch (Exception e) {
+                    log.error("监听回调错误{}", e);
+                }
+            }
+        }
+
+        void close() {
+            listeners.clear();
+            cache.close();
+        }
+    }
+
+    /**
+     * 一次订阅，close()取消订阅，重复调用无副作用
+     */
+    public class Subscription implements Closeable {
+        private final String path;
+        private final TreeCacheListener listener;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(String path, TreeCacheListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                unsubscribe(path, listener);
+            }
+        }
+    }
+}
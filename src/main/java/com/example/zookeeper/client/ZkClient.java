@@ -1,6 +1,23 @@
 package com.example.zookeeper.client;
 
+import com.example.zookeeper.backup.SnapshotExporter;
+import com.example.zookeeper.backup.SnapshotImporter;
+import com.example.zookeeper.cache.CompactNamespaceCache;
+import com.example.zookeeper.cache.NamespaceCache;
+import com.example.zookeeper.cache.NamespaceSnapshot;
+import com.example.zookeeper.cache.ReadThroughCache;
+import com.example.zookeeper.cache.TreeNamespaceCache;
+import com.example.zookeeper.codec.ValueCodec;
 import com.example.zookeeper.config.ZookeeperProperties;
+import com.example.zookeeper.counter.BlockSequenceGenerator;
+import com.example.zookeeper.discovery.LoadBalancer;
+import com.example.zookeeper.discovery.ServiceDiscovery;
+import com.example.zookeeper.discovery.ServiceInstance;
+import com.example.zookeeper.lock.AsyncLock;
+import com.example.zookeeper.lock.CoalescingLock;
+import com.example.zookeeper.lock.DistributedLock;
+import com.example.zookeeper.lock.LeaseLock;
+import com.example.zookeeper.metrics.ZkMetrics;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
@@ -9,22 +26,25 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.CuratorFrameworkFactory.Builder;
 import org.apache.curator.framework.api.ACLProvider;
-import org.apache.curator.framework.recipes.cache.ChildData;
-import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.data.ACL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
 
 /**
@@ -36,7 +56,34 @@ public class ZkClient {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private CuratorFramework client;
-    public TreeCache cache;
+    /**
+     * 会话连接池，client为其中的主会话
+     */
+    private ZkSessionPool sessionPool;
+    /**
+     * 读会话：读取、缓存和监听使用，未开启读写分离时与主会话相同
+     */
+    private ReadSession readSession;
+    private BulkReader bulkReader;
+    /**
+     * 节点数据编解码，未开启时为null
+     */
+    private ValueCodec valueCodec;
+    private AsyncZkClient asyncClient;
+    private WatchRegistry watchRegistry;
+    /**
+     * 监听回调的分发器：按监听路径分片到固定线程，同一监听路径有序，有界队列，排队中的同一节点更新合并
+     */
+    private OrderedEventDispatcher eventDispatcher;
+    public NamespaceCache cache;
+    /**
+     * 命名空间缓存之外路径的读穿透缓存，未开启时为null
+     */
+    private ReadThroughCache readCache;
+    /**
+     * 服务发现，按服务路径维护预先解析好的实例列表
+     */
+    private ServiceDiscovery serviceDiscovery;
     private ZookeeperProperties zookeeperProperties;
 
     public ZkClient(ZookeeperProperties zookeeperProperties){
@@ -47,6 +94,13 @@ public class ZkClient {
      * 初始化zookeeper客户端
      */
     public void init() throws Exception{
+        if (zookeeperProperties.getMetricsPathPrefixDepth() != null) {
+            ZkMetrics.setPathPrefixDepth(zookeeperProperties.getMetricsPathPrefixDepth());
+        }
+        if (zookeeperProperties.getMetricsMaxPathTags() != null) {
+            ZkMetrics.setMaxPathTags(zookeeperProperties.getMetricsMaxPathTags());
+        }
+        ZkMetrics.setPercentileHistogram(Boolean.TRUE.equals(zookeeperProperties.getMetricsPercentileHistogram()));
         RetryPolicy retryPolicy = new ExponentialBackoffRetry(zookeeperProperties.getBaseSleepTimeMs(),
                 zookeeperProperties.getMaxRetries());
         Builder builder = CuratorFrameworkFactory.builder()
@@ -68,15 +122,44 @@ public class ZkClient {
                 }
             });
         }
-        client = builder.build();
-        client.start();
+        sessionPool = new ZkSessionPool(builder, zookeeperProperties.getPoolSize() == null ? 1 : zookeeperProperties.getPoolSize());
+        client = sessionPool.primary();
+        readSession = initReadSession(builder);
+        CuratorFramework reader = readSession.client();
+        asyncClient = new AsyncZkClient(sessionPool::forPath, this::afterAsyncWrite);
+        eventDispatcher = new OrderedEventDispatcher(zookeeperProperties.getDispatchThreads(),
+                zookeeperProperties.getDispatchQueueCapacity());
+        watchRegistry = new WatchRegistry(reader, eventDispatcher);
+        serviceDiscovery = new ServiceDiscovery(reader);
 
         initLocalCache("/"+zookeeperProperties.getNamespace());
+        Integer readCacheMaxEntries = zookeeperProperties.getReadCacheMaxEntries();
+        if (readCacheMaxEntries != null && readCacheMaxEntries > 0) {
+            //未开启读写分离时按路径在写入所用的会话上加载
+            readCache = readSession.isSeparate()
+                    ? new ReadThroughCache(reader, readCacheMaxEntries, zookeeperProperties.getReadCacheTtlMs())
+                    : new ReadThroughCache(sessionPool::forPath, sessionPool.getSessions(), readCacheMaxEntries,
+                    zookeeperProperties.getReadCacheTtlMs());
+            ZkMetrics.bindCacheCounters("read", readCache, ReadThroughCache::getHitCount, ReadThroughCache::getMissCount,
+                    ReadThroughCache::getEvictionCount, ReadThroughCache::size);
+        }
+        if (Boolean.TRUE.equals(zookeeperProperties.getValueCodecEnabled())) {
+            valueCodec = new ValueCodec(zookeeperProperties.getValueCompressThreshold(),
+                    zookeeperProperties.getValueChunkSize(), zookeeperProperties.getValueCacheMaxEntries(),
+                    zookeeperProperties.getValueChunkGraceMs());
+        }
+        bulkReader = new BulkReader(readSession.isSeparate() ? new AsyncZkClient(reader) : asyncClient,
+                cache, readCache, zookeeperProperties.getBulkReadConcurrency());
+        ZkMetrics.gauge("zk.watch.active", watchRegistry, WatchRegistry::getActiveWatchCount);
+        ZkMetrics.gauge("zk.watch.listeners", watchRegistry, WatchRegistry::getListenerCount);
+        ZkMetrics.gauge("zk.watch.cached.nodes", watchRegistry, WatchRegistry::getCachedNodeCount);
+        ZkMetrics.gauge("zk.dispatch.queue.size", eventDispatcher, OrderedEventDispatcher::getQueueSize);
         //   addConnectionStateListener();
 
 
-        client.getConnectionStateListenable().addListener(new ConnectionStateListener() {
+        ConnectionStateListener stateListener = new ConnectionStateListener() {
             public void stateChanged(CuratorFramework client, ConnectionState state) {
+                ZkMetrics.recordConnectionState("ZkClient", state.name());
                 if (state == ConnectionState.LOST) {
                     //连接丢失
                     logger.info("lost session with zookeeper");
@@ -87,7 +170,105 @@ public class ZkClient {
                     logger.info("reconnected with zookeeper");
                 }
             }
-        });
+        };
+        for (CuratorFramework session : sessionPool.getSessions()) {
+            session.getConnectionStateListenable().addListener(stateListener);
+        }
+        if (readSession.isSeparate()) {
+            reader.getConnectionStateListenable().addListener(stateListener);
+        }
+    }
+
+    /**
+     * 开启读写分离时创建独立的读会话，可以通过readServer连接到observer等其它集群节点
+     * @param builder 主会话的builder
+     * @return
+     */
+    private ReadSession initReadSession(Builder builder) {
+        if (!Boolean.TRUE.equals(zookeeperProperties.getReadSessionEnabled())) {
+            return ReadSession.shared(client);
+        }
+        String readServer = StringUtils.isNotEmpty(zookeeperProperties.getReadServer())
+                ? zookeeperProperties.getReadServer() : zookeeperProperties.getServer();
+        CuratorFramework reader = builder.connectString(readServer).build();
+        reader.start();
+        logger.info("读写分离已开启，读会话连接: {}", readServer);
+        return new ReadSession(reader, true, Boolean.TRUE.equals(zookeeperProperties.getReadYourWrites()),
+                zookeeperProperties.getConnectionTimeoutMs());
+    }
+
+    /**
+     * 写入或删除成功后：使读缓存、解码缓存失效，回收不再使用的分块，并标记读会话在下次读取前需要sync
+     * @param path
+     */
+    private void afterWrite(String path) {
+        if (readCache != null) {
+            readCache.invalidate(path);
+        }
+        if (valueCodec != null) {
+            valueCodec.afterWrite(getClient(path), path);
+        }
+        readSession.writeCompleted();
+    }
+
+    /**
+     * 删除子树成功后：与afterWrite相同，并回收子树中所有节点的分块
+     * 只发起后台请求，可以在事件线程中调用
+     * @param path 子树根节点
+     */
+    private void afterDeleteSubtree(String path) {
+        if (readCache != null) {
+            readCache.invalidate(path);
+        }
+        if (valueCodec != null) {
+            valueCodec.afterDeleteSubtree(getClient(path), path);
+        }
+        readSession.writeCompleted();
+    }
+
+    /**
+     * 异步写入成功后，在事件线程中调用：只使读缓存失效并标记读会话需要sync，不做需要访问zookeeper的处理
+     */
+    private void afterAsyncWrite(String path) {
+        if (readCache != null) {
+            readCache.invalidate(path);
+        }
+        readSession.writeCompleted();
+    }
+
+    /**
+     * 单点读取使用的会话：开启读写分离时为读会话(有未sync的写入时先sync)，
+     * 否则与写入一样按路径从会话池选择，同一会话上读取总能看到之前的写入
+     */
+    private CuratorFramework readerFor(String path) throws Exception {
+        return readSession.isSeparate() ? readSession.fenced(path) : sessionPool.forPath(path);
+    }
+
+    /**
+     * 编码要写入的数据，超大数据先写入分块
+     */
+    private byte[] encodeValue(String path, byte[] value) throws Exception {
+        return valueCodec == null ? value : valueCodec.encode(getClient(path), path, value);
+    }
+
+    /**
+     * 节点写入失败时删除encodeValue为这次写入创建的分块
+     */
+    private void abandonValue(String path, byte[] stored) {
+        if (valueCodec != null) {
+            valueCodec.abandon(getClient(path), path, stored);
+        }
+    }
+
+    /**
+     * 解码节点上保存的数据
+     */
+    private byte[] decodeValue(String path, byte[] stored) throws Exception {
+        if (valueCodec == null) {
+            return stored;
+        }
+        //分块与节点由同一个会话写入
+        return valueCodec.decode(readSession.isSeparate() ? readSession.client() : sessionPool.forPath(path), path, stored);
     }
 
     /**
@@ -96,30 +277,66 @@ public class ZkClient {
      * @throws Exception
      */
     private void initLocalCache(String watchRootPath) throws Exception {
-        cache = new TreeCache(client, watchRootPath);
-        TreeCacheListener listener = (client1, event) ->{
-            log.info("event:" + event.getType() +
-                    " |path:" + (null != event.getData() ? event.getData().getPath() : null));
-
-            if(event.getData()!=null && event.getData().getData()!=null){
-                log.info("发生变化的节点内容为：" + new String(event.getData().getData()));
-            }
-
-           // client1.getData().
-        };
-        cache.getListenable().addListener(listener);
+        if (Boolean.TRUE.equals(zookeeperProperties.getCompactCacheEnabled())) {
+            String pathFilter = zookeeperProperties.getCompactCachePathFilter();
+            Pattern pattern = StringUtils.isEmpty(pathFilter) ? null : Pattern.compile(pathFilter);
+            cache = new CompactNamespaceCache(readSession.client(), watchRootPath,
+                    zookeeperProperties.getCompactCacheMaxDepth(),
+                    pattern == null ? null : p -> pattern.matcher(p).matches(),
+                    zookeeperProperties.getCompactCacheMaxBytes(),
+                    zookeeperProperties.getCompactCacheCompressThreshold());
+        } else {
+            cache = new TreeNamespaceCache(readSession.client(), watchRootPath,
+                    Boolean.TRUE.equals(zookeeperProperties.getSnapshotEnabled()));
+        }
         cache.start();
     }
 
 
     public void stop() {
-        client.close();
+        cache.close();
+        if (readCache != null) {
+            readCache.close();
+        }
+        serviceDiscovery.close();
+        watchRegistry.close();
+        eventDispatcher.close();
+        coalescingLocks.values().forEach(CoalescingLock::close);
+        leaseLocks.values().forEach(LeaseLock::close);
+        readSession.close();
+        sessionPool.close();
     }
 
     public CuratorFramework getClient() {
         return client;
     }
 
+    /**
+     * 路径所属的会话，未开启连接池(poolSize=1)时就是主会话
+     * @param path
+     * @return
+     */
+    public CuratorFramework getClient(String path) {
+        return sessionPool.forPath(path);
+    }
+
+    /**
+     * 获取本地缓存的当前快照，需要一致地读取多个节点时先取快照再在快照上读取
+     * @return 未开启snapshotEnabled时返回null
+     */
+    public NamespaceSnapshot snapshot() {
+        return cache == null ? null : cache.snapshot();
+    }
+
+    /**
+     * 获取异步客户端，与同步方法一样按路径选择会话，请求通过回调完成不阻塞调用线程
+     * 异步客户端不经过数据编解码，读写的是节点上保存的原始字节
+     * @return
+     */
+    public AsyncZkClient async() {
+        return asyncClient;
+    }
+
 
     /**
      * 创建节点
@@ -133,8 +350,17 @@ public class ZkClient {
      */
     public void createNode(CreateMode mode, String path , String nodeData) {
         try {
+            byte[] datas = nodeData.getBytes("UTF-8");
+            //临时节点、顺序节点不分块
+            byte[] stored = valueCodec == null || mode == CreateMode.PERSISTENT ? encodeValue(path, datas) : valueCodec.encodeInline(datas);
             //使用creatingParentContainersIfNeeded()之后Curator能够自动递归创建所有所需的父节点
-            client.create().creatingParentsIfNeeded().withMode(mode).forPath(path,nodeData.getBytes("UTF-8"));
+            try {
+                ZkMetrics.record("create", path, () -> getClient(path).create().creatingParentsIfNeeded().withMode(mode).forPath(path, stored));
+            } catch (Exception e) {
+                abandonValue(path, stored);
+                throw e;
+            }
+            afterWrite(path);
         } catch (Exception e) {
             logger.error("注册出错", e);
         }
@@ -152,7 +378,8 @@ public class ZkClient {
     public void createNode(CreateMode mode,String path ) {
         try {
             //使用creatingParentContainersIfNeeded()之后Curator能够自动递归创建所有所需的父节点
-            client.create().creatingParentsIfNeeded().withMode(mode).forPath(path);
+            ZkMetrics.record("create", path, () -> getClient(path).create().creatingParentsIfNeeded().withMode(mode).forPath(path));
+            afterWrite(path);
         } catch (Exception e) {
             logger.error("注册出错", e);
         }
@@ -174,17 +401,31 @@ public class ZkClient {
 
     /**
      * 删除节点数据
+     * 删除子节点时使用流水线并行删除；在事件线程中调用或并行删除失败时退回到guaranteed删除，
+     * 只要会话有效，Curator会在后台持续重试直到删除成功
      * @param path
      * @param deleteChildre   是否删除子节点
      */
     public void deleteNode(final String path,Boolean deleteChildre){
         try {
-            if(deleteChildre){
-                //guaranteed()删除一个节点，强制保证删除,
-                // 只要客户端会话有效，那么Curator会在后台持续进行删除操作，直到删除节点成功
-                client.delete().guaranteed().deletingChildrenIfNeeded().forPath(path);
+            if(deleteChildre && AsyncZkClient.isEventThread()){
+                //事件线程中不能等待并行删除完成，交给Curator后台删除
+                getClient(path).delete().guaranteed().deletingChildrenIfNeeded().inBackground((client1, event) -> {
+                    if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                        afterDeleteSubtree(path);
+                    }
+                }).forPath(path);
+            }else if(deleteChildre){
+                try {
+                    deleteSubtree(path, null);
+                } catch (Exception e) {
+                    log.warn("并行删除子树失败，改为guaranteed删除: {}", path, e);
+                    ZkMetrics.record("delete", path, () -> getClient(path).delete().guaranteed().deletingChildrenIfNeeded().forPath(path));
+                    afterDeleteSubtree(path);
+                }
             }else{
-                client.delete().guaranteed().forPath(path);
+                ZkMetrics.record("delete", path, () -> getClient(path).delete().guaranteed().forPath(path));
+                afterWrite(path);
             }
         } catch (Exception e) {
             log.error("删除节点错误{}",e);
@@ -192,6 +433,21 @@ public class ZkClient {
     }
 
 
+    /**
+     * 并行删除节点及其整个子树
+     * 流水线遍历子树后自底向上按批用multi事务删除，并发数和批大小见deleteConcurrency、deleteBatchSize配置
+     * @param path
+     * @param listener 进度回调，可以为null
+     * @return 删除的节点数
+     */
+    public long deleteSubtree(final String path, SubtreeDeleter.ProgressListener listener) throws Exception {
+        SubtreeDeleter deleter = new SubtreeDeleter(getClient(path), zookeeperProperties.getDeleteConcurrency(),
+                zookeeperProperties.getDeleteBatchSize());
+        long deleted = ZkMetrics.record("deleteSubtree", path, () -> deleter.delete(path, listener));
+        afterDeleteSubtree(path);
+        return deleted;
+    }
+
     /**
      * 设置指定节点的数据
      * @param path
@@ -199,28 +455,66 @@ public class ZkClient {
      */
     public void setNodeData(String path, byte[] datas){
         try {
-            client.setData().forPath(path, datas);
+            byte[] stored = encodeValue(path, datas);
+            try {
+                ZkMetrics.record("setData", path, () -> getClient(path).setData().forPath(path, stored));
+            } catch (Exception e) {
+                abandonValue(path, stored);
+                throw e;
+            }
+            afterWrite(path);
         }catch (Exception ex) {
             log.error("修改节点数据{}",ex);
         }
     }
 
+    /**
+     * 写入节点数据，节点不存在时自动创建，节点已存在时只需一次往返
+     * @param path
+     * @param datas
+     * @return
+     */
+    public boolean upsertNode(String path, byte[] datas){
+        return upsertNode(path, datas, ZkUpsert.ANY_VERSION);
+    }
+
+    /**
+     * 按版本写入节点数据(CAS)，节点不存在时自动创建
+     * @param path
+     * @param datas
+     * @param expectedVersion 期望版本，-1表示不校验；指定版本时节点必须已存在
+     * @return 版本不匹配返回false
+     */
+    public boolean upsertNode(String path, byte[] datas, int expectedVersion){
+        try {
+            byte[] stored = encodeValue(path, datas);
+            boolean written;
+            try {
+                written = ZkMetrics.record("upsert", path, () -> ZkUpsert.upsert(getClient(path), path, stored, expectedVersion));
+            } catch (Exception e) {
+                abandonValue(path, stored);
+                throw e;
+            }
+            if (written) {
+                afterWrite(path);
+            } else {
+                abandonValue(path, stored);
+            }
+            return written;
+        }catch (Exception ex) {
+            log.error("写入节点数据错误{}",ex);
+        }
+        return false;
+    }
+
     /**
      * 获取指定节点的数据
      * @param path
      * @return
      */
     public byte[] getNodeData(String path){
-        Byte[] bytes = null;
         try {
-            if(cache != null){
-                ChildData data = cache.getCurrentData(path);
-                if(data != null){
-                    return data.getData();
-                }
-            }
-            client.getData().forPath(path);
-            return client.getData().forPath(path);
+            return decodeValue(path, readNodeData(path));
         }catch (Exception ex) {
             log.error("获取节点数据错误{}",ex);
         }
@@ -228,13 +522,39 @@ public class ZkClient {
     }
 
     /**
-     * 获取数据时先同步
+     * 读取节点上保存的数据：本地缓存、读穿透缓存、zookeeper
+     * 命名空间缓存由watch异步更新，命中时不保证读己之写；读穿透缓存中写过的路径已失效，
+     * 加载前先sync读会话，与直接读取一样保证读己之写
+     */
+    private byte[] readNodeData(String path) throws Exception {
+        if(cache != null){
+            byte[] data = cache.getData(path);
+            ZkMetrics.recordCacheAccess("namespace", data != null);
+            if(data != null){
+                return data;
+            }
+        }
+        CuratorFramework reader = readerFor(path);
+        if(readCache != null){
+            return ZkMetrics.record("getData.cached", path, () -> readCache.get(path));
+        }
+        return ZkMetrics.record("getData", path, () -> reader.getData().forPath(path));
+    }
+
+    /**
+     * 获取数据时先同步：读会话执行sync后直接从zookeeper读取，不经过本地缓存
      * @param path
      * @return
      */
     public byte[] synNodeData(String path){
-        client.sync();
-        return getNodeData( path);
+        try {
+            CuratorFramework reader = readSession.isSeparate() ? readSession.client() : sessionPool.forPath(path);
+            ReadSession.sync(reader, path, zookeeperProperties.getConnectionTimeoutMs());
+            return decodeValue(path, ZkMetrics.record("getData", path, () -> reader.getData().forPath(path)));
+        }catch (Exception ex) {
+            log.error("获取节点数据错误{}",ex);
+        }
+        return null;
     }
 
     /**
@@ -244,9 +564,9 @@ public class ZkClient {
      * @return
      */
     public boolean isExistNode(final String path) {
-        client.sync();
         try {
-            return null != client.checkExists().forPath(path);
+            CuratorFramework reader = readerFor(path);
+            return null != ZkMetrics.record("checkExists", path, () -> reader.checkExists().forPath(path));
         } catch (Exception ex) {
             return false;
         }
@@ -261,13 +581,95 @@ public class ZkClient {
     public List<String> getChildren(String path) {
         List<String> childrenList = new ArrayList<>();
         try {
-            childrenList = client.getChildren().forPath(path);
+            CuratorFramework reader = readerFor(path);
+            childrenList = ZkMetrics.record("getChildren", path, () -> reader.getChildren().forPath(path));
         } catch (Exception e) {
             logger.error("获取子节点出错", e);
         }
         return childrenList;
     }
 
+    /**
+     * 获取所有子节点及其数据
+     * 缓存中没有的子节点一次性异步发出getData，总耗时约为一次往返
+     * 命名空间缓存命中的子节点不保证读己之写
+     * @param path
+     * @return 子节点名称 -> 数据，按名称排序；节点不存在或出错返回空map
+     */
+    public Map<String, byte[]> getChildrenWithData(String path) {
+        try {
+            readSession.fenced(path);
+            Map<String, byte[]> datas = ZkMetrics.record("getChildrenWithData", path, () -> bulkReader.getChildrenWithData(path));
+            String prefix = "/".equals(path) ? path : path + "/";
+            for (Map.Entry<String, byte[]> entry : datas.entrySet()) {
+                entry.setValue(decodeValue(prefix + entry.getKey(), entry.getValue()));
+            }
+            return datas;
+        } catch (Exception e) {
+            logger.error("批量获取子节点数据出错", e);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 获取子树所有节点的数据，按层流水线读取，总耗时约为层数次往返
+     * 命名空间缓存命中的节点不保证读己之写
+     * @param path 子树根节点
+     * @param depth 读取的层数，0只读取根节点，1读取根节点和子节点，小于0不限
+     * @return 节点完整路径 -> 数据，按路径排序；节点不存在或出错返回空map
+     */
+    public Map<String, byte[]> getSubtree(String path, int depth) {
+        try {
+            readSession.fenced(path);
+            Map<String, byte[]> datas = ZkMetrics.record("getSubtree", path, () -> bulkReader.getSubtree(path, depth));
+            for (Map.Entry<String, byte[]> entry : datas.entrySet()) {
+                entry.setValue(decodeValue(entry.getKey(), entry.getValue()));
+            }
+            return datas;
+        } catch (Exception e) {
+            logger.error("批量获取子树数据出错", e);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 流式导出子树快照(压缩的二进制流)，内存占用与子树大小无关
+     * 开启数据编解码时导出解码后的原始数据，导入时重新编码
+     * 在途请求数见bulkReadConcurrency配置；未开启读写分离时每个节点按路径从会话池选择会话读取
+     * @param path 子树根节点
+     * @param out 目标流，不会关闭
+     * @return 导出的节点数
+     * @throws Exception
+     */
+    public long exportSnapshot(String path, OutputStream out) throws Exception {
+        SnapshotExporter exporter;
+        if (readSession.isSeparate()) {
+            CuratorFramework reader = readSession.fenced(path);
+            exporter = new SnapshotExporter(p -> reader, zookeeperProperties.getBulkReadConcurrency(), valueCodec);
+        } else {
+            exporter = new SnapshotExporter(sessionPool::forPath, zookeeperProperties.getBulkReadConcurrency(), valueCodec);
+        }
+        return ZkMetrics.record("exportSnapshot", path, () -> exporter.export(path, out));
+    }
+
+    /**
+     * 流式导入快照，按批用multi事务创建节点，已存在的节点覆盖数据；开启数据编解码时重新编码、写入分块
+     * 每批节点数见importBatchSize配置；multi事务不能跨会话，整个导入使用导入根节点所属的会话
+     * @param in 快照流，不会关闭
+     * @param path 导入到的节点，快照的根节点对应该节点
+     * @return 写入成功的节点数
+     * @throws Exception
+     */
+    public long importSnapshot(InputStream in, String path) throws Exception {
+        SnapshotImporter importer = new SnapshotImporter(getClient(path), zookeeperProperties.getImportBatchSize(), valueCodec);
+        long imported = ZkMetrics.record("importSnapshot", path, () -> importer.importFrom(in, path));
+        if (readCache != null) {
+            readCache.invalidateAll();
+        }
+        readSession.writeCompleted();
+        return imported;
+    }
+
     /**
 	 * 随机读取一个path子路径, "/"为根节点对应该namespace
 	 * 先从cache中读取，如果没有，再从zookeeper中查询
@@ -277,29 +679,34 @@ public class ZkClient {
 	 */
 	public String getRandomData(String path)  {
 		try{
-			Map<String,ChildData> cacheMap = cache.getCurrentChildren(path);
-			if(cacheMap != null && cacheMap.size() > 0) {
+			//子节点列表和数据从同一个快照读取，不会读到已被删除的子节点
+			NamespaceSnapshot snapshot = snapshot();
+			List<String> cacheChildren = snapshot != null ? snapshot.getChildren(path) : cache.getChildren(path);
+			ZkMetrics.recordCacheAccess("namespace", cacheChildren != null && cacheChildren.size() > 0);
+			if(cacheChildren != null && cacheChildren.size() > 0) {
 				logger.debug("get random value from cache,path="+path);
-				Collection<ChildData> values = cacheMap.values();
-				List<ChildData> list = new ArrayList<>(values);
-				Random rand = new Random();
-				byte[] b = list.get(rand.nextInt(list.size())).getData();
-				return new String(b,"utf-8");
+				String child = path + "/" + cacheChildren.get(ThreadLocalRandom.current().nextInt(cacheChildren.size()));
+				byte[] b = snapshot != null ? snapshot.getData(child) : cache.getData(child);
+				if(b != null) {
+					b = decodeValue(child, b);
+					return new String(b,"utf-8");
+				}
 			}
-			if(isExistNode(path)) {
+			if(!isExistNode(path)) {
 				logger.debug("path [{}] is not exists,return null",path);
 				return null;
 			} else {
 				logger.debug("read random from zookeeper,path="+path);
-				List<String> list = client.getChildren().forPath(path);
+				String parent = path;
+				CuratorFramework reader = readerFor(parent);
+				List<String> list = ZkMetrics.record("getChildren", parent, () -> reader.getChildren().forPath(parent));
 				if(list == null || list.size() == 0) {
 					logger.debug("path [{}] has no children return null",path);
 					return null;
 				}
-				Random rand = new Random();
-				String child = list.get(rand.nextInt(list.size()));
-				path = path + "/" + child;
-				byte[] b = client.getData().forPath(path);
+				String child = list.get(ThreadLocalRandom.current().nextInt(list.size()));
+				String childPath = path + "/" + child;
+				byte[] b = decodeValue(childPath, ZkMetrics.record("getData", childPath, () -> reader.getData().forPath(childPath)));
 				String value = new String(b,"utf-8");
 				return value;
 			}
@@ -310,6 +717,18 @@ public class ZkClient {
 
 	}
 
+	/**
+	 * 按负载均衡策略选择服务实例
+	 * 实例列表在子节点变化时预先构建，选择时不访问zookeeper、不分配对象，适合每次调用前都选择一次
+	 * @param servicePath 服务路径，子节点为实例
+	 * @param balancer 策略，见LoadBalancer中的RANDOM、ROUND_ROBIN、WEIGHTED、CONSISTENT_HASH
+	 * @param key 一致性哈希的路由key，其它策略传null
+	 * @return 没有实例时返回null
+	 */
+	public ServiceInstance selectInstance(String servicePath, LoadBalancer balancer, Object key) {
+		return serviceDiscovery.select(servicePath, balancer, key);
+	}
+
 	/**
 	 * 可重入共享锁  -- Shared Reentrant Lock
 	 * @param lockPath
@@ -345,29 +764,119 @@ public class ZkClient {
      * @return
      */
 	public InterProcessReadWriteLock getReadWriteLock(String path){
-        InterProcessReadWriteLock readWriteLock = new InterProcessReadWriteLock(client, path);
+        InterProcessReadWriteLock readWriteLock = new InterProcessReadWriteLock(sessionPool.forLock(path), path);
         return readWriteLock;
     }
 
     /**
-     * 在注册监听器的时候，如果传入此参数，当事件触发时，逻辑由线程池处理
+     * 获取分布式可重入锁，与客户端共用一个会话
+     * @param lockRoot 锁节点的父节点
+     * @return
+     */
+    public DistributedLock getDistributedLock(String lockRoot){
+        return new DistributedLock(sessionPool.forLock(lockRoot), lockRoot);
+    }
+
+    /**
+     * 带租约的锁，同一锁根节点共用一个实例，避免重复注册连接状态监听
+     */
+    private final Map<String, LeaseLock> leaseLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 获取带租约和fencing token的分布式锁
+     * 持有期间可以只读本地时钟判断锁是否仍然有效
+     * @param lockRoot 锁节点的父节点
+     * @return
+     */
+    public LeaseLock getLeaseLock(String lockRoot){
+        return leaseLocks.computeIfAbsent(lockRoot, root -> new LeaseLock(sessionPool.forLock(root), root));
+    }
+
+    /**
+     * 进程内合并的互斥锁，同一锁路径共用一个实例
+     */
+    private final Map<String, CoalescingLock> coalescingLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 获取进程内合并的互斥锁
+     * 同一JVM内的线程先在本地排队，只有队首线程持有zookeeper锁节点，本地有等待者时直接交接锁
+     * @param lockPath 锁路径
+     * @return
+     */
+    public CoalescingLock getCoalescingLock(String lockPath){
+        return coalescingLocks.computeIfAbsent(lockPath, path -> {
+            CuratorFramework session = sessionPool.forLock(path);
+            CoalescingLock lock = new CoalescingLock(new InterProcessMutex(session, path), true,
+                    CoalescingLock.DEFAULT_MAX_HANDOFFS, path);
+            session.getConnectionStateListenable().addListener(lock);
+            return lock;
+        });
+    }
+
+    /**
+     * 已创建的号段ID生成器，同一个计数节点共用一个实例
+     */
+    private final Map<String, BlockSequenceGenerator> sequenceGenerators = new ConcurrentHashMap<>();
+
+    /**
+     * 获取号段式ID生成器，同一个计数节点在进程内共用一个实例
+     * @param counterPath 计数节点
+     * @return
+     */
+    public BlockSequenceGenerator getSequenceGenerator(String counterPath) {
+        return sequenceGenerators.computeIfAbsent(counterPath, path -> new BlockSequenceGenerator(sessionPool.forPath(path), path));
+    }
+
+    /**
+     * 获取异步读锁，与getReadWriteLock(path).readLock()互相兼容
+     * acquireAsync()返回CompletableFuture，等待期间不占用线程
+     * @param path
+     * @return
+     */
+    public AsyncLock getAsyncReadLock(String path){
+        return AsyncLock.readLock(sessionPool.forLock(path), path);
+    }
+
+    /**
+     * 获取异步写锁，与getReadWriteLock(path).writeLock()互相兼容
+     * @param path
+     * @return
+     */
+    public AsyncLock getAsyncWriteLock(String path){
+        return AsyncLock.writeLock(sessionPool.forLock(path), path);
+    }
+
+    /**
+     * 获取异步互斥锁，与InterProcessMutex互相兼容
+     * @param path
+     * @return
      */
-    ExecutorService pool = Executors.newFixedThreadPool(2);
+    public AsyncLock getAsyncMutex(String path){
+        return AsyncLock.mutex(sessionPool.forLock(path), path);
+    }
 
     /**
      * 监听数据节点的变化情况
+     * 同一路径共用一个TreeCache，引用计数，最后一个订阅取消时关闭
      * @param watchPath
      * @param listener
+     * @return 订阅，close()取消监听；监听失败返回null
      */
-    public void watchPath(String watchPath,TreeCacheListener listener){
-     //   NodeCache nodeCache = new NodeCache(client, watchPath, false);
-        TreeCache cache = new TreeCache(client, watchPath);
-        cache.getListenable().addListener(listener,pool);
+    public WatchRegistry.Subscription watchPath(String watchPath,TreeCacheListener listener){
         try {
-            cache.start();
+            return watchRegistry.subscribe(watchPath, listener);
         } catch (Exception e) {
             log.error("监听数据节点错误{}",e);
         }
+        return null;
+    }
+
+    /**
+     * 取消路径上的所有监听
+     * @param watchPath
+     */
+    public void unwatchPath(String watchPath){
+        watchRegistry.unsubscribeAll(watchPath);
     }
 
 }
\ No newline at end of file
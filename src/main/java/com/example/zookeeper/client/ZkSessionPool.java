@@ -0,0 +1,108 @@
+package com.example.zookeeper.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多会话连接池
+ * 一个会话的所有请求经过同一个socket和同一个事件线程串行处理，写入密集时会成为瓶颈。
+ * 连接池建立N个会话，按路径哈希路由：
+ * 1. 同一路径的操作总是落在同一个会话上，保持该路径上请求的顺序
+ * 2. 临时节点由创建它的会话拥有，创建、修改、删除同一路径都走同一个会话，会话过期只影响该会话拥有的节点
+ * 3. 锁等recipe按锁路径路由，同一把锁的所有锁节点、watch都在一个会话上
+ * 第0个会话为主会话，命名空间缓存、监听等不区分路径的功能使用主会话
+ */
+@Slf4j
+public class ZkSessionPool implements Closeable {
+
+    private final List<CuratorFramework> sessions;
+
+    /**
+     * 用同一个builder创建size个会话并启动
+     * @param builder 已配置好连接串、重试策略、命名空间、acl的builder
+     * @param size 会话数，至少为1
+     */
+    public ZkSessionPool(CuratorFrameworkFactory.Builder builder, int size) {
+        List<CuratorFramework> list = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, size); i++) {
+            CuratorFramework session = builder.build();
+            session.start();
+            list.add(session);
+        }
+        this.sessions = Collections.unmodifiableList(list);
+        log.info("zookeeper连接池已启动，会话数: {}", sessions.size());
+    }
+
+    /**
+     * 主会话
+     * @return
+     */
+    public CuratorFramework primary() {
+        return sessions.get(0);
+    }
+
+    /**
+     * 路径所属的会话，同一路径总是返回同一个会话
+     * @param path 节点路径；顺序节点传入创建时的路径前缀
+     * @return
+     */
+    public CuratorFramework forPath(String path) {
+        if (sessions.size() == 1 || path == null) {
+            return primary();
+        }
+        return sessions.get(Math.floorMod(path.hashCode(), sessions.size()));
+    }
+
+    /**
+     * 锁、信号量等recipe使用的会话：按锁路径路由，锁节点作为锁路径的子节点创建，因此都由同一个会话拥有
+     * @param lockPath 锁路径
+     * @return
+     */
+    public CuratorFramework forLock(String lockPath) {
+        return forPath(lockPath);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 所有会话，不可修改
+     * @return
+     */
+    public List<CuratorFramework> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * 等待所有会话连接成功
+     * @param time
+     * @param unit
+     * @return 超时仍有会话未连接返回false
+     * @throws InterruptedException
+     */
+    public boolean blockUntilConnected(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        for (CuratorFramework session : sessions) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !session.blockUntilConnected((int) TimeUnit.NANOSECONDS.toMillis(remaining), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (CuratorFramework session : sessions) {
+            session.close();
+        }
+    }
+}
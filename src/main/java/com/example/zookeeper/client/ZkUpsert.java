@@ -0,0 +1,49 @@
+package com.example.zookeeper.client;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * 乐观upsert：先setData，节点不存在时create，create遇到并发创建(NodeExists)时再setData一次。
+ * 节点已存在的常见情况只需一次往返，且不存在先检查后写入的竞态
+ */
+public final class ZkUpsert {
+
+    /**
+     * 不校验版本
+     */
+    public static final int ANY_VERSION = -1;
+
+    private ZkUpsert() {
+    }
+
+    /**
+     * 写入节点数据，节点不存在时自动创建(包括父节点)
+     * @param client
+     * @param path 节点路径
+     * @param datas 节点数据
+     * @param expectedVersion 期望版本(CAS)，ANY_VERSION表示不校验；指定版本时节点必须已存在
+     * @return 写入成功返回true，版本不匹配或指定版本的节点不存在返回false
+     * @throws Exception 其它zookeeper错误
+     */
+    public static boolean upsert(CuratorFramework client, String path, byte[] datas, int expectedVersion) throws Exception {
+        try {
+            client.setData().withVersion(expectedVersion).forPath(path, datas);
+            return true;
+        } catch (KeeperException.BadVersionException e) {
+            return false;
+        } catch (KeeperException.NoNodeException e) {
+            if (expectedVersion != ANY_VERSION) {
+                return false;
+            }
+        }
+        try {
+            client.create().creatingParentsIfNeeded().forPath(path, datas);
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            //其它客户端抢先创建，重试一次setData
+            client.setData().forPath(path, datas);
+            return true;
+        }
+    }
+}
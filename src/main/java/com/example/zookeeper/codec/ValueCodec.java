@@ -0,0 +1,601 @@
+package com.example.zookeeper.codec;
+
+import com.example.zookeeper.client.AsyncZkClient;
+import com.example.zookeeper.client.TransactionBatcher;
+import com.example.zookeeper.utils.CompressUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.zookeeper.KeeperException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * 节点数据编解码
+ * 存储格式由第一个字节区分：
+ * 0x00 原始数据，第一个字节恰好是0x00~0x02的数据加上该头转义
+ * 0x01 deflate压缩：原始长度 int、压缩数据；超过compressThreshold且压缩后更小时使用
+ * 0x02 分块清单：数据长度 int、块数 int、块所在的代路径 UTF；编码后仍超过chunkSize时
+ *      数据按chunkSize切块写到新的代目录CHUNK_ROOT/{转义后的节点路径}/{代}中，节点本身只保存清单
+ * 其它 未编码的旧数据(以及不需要压缩的文本)，原样返回，因此开启编解码前写入的数据仍可读取
+ * 分块写入：所有块用multi事务写到新的代目录(超过jute包大小时分多个事务)，随后调用方写入清单，
+ * 清单的一次写入就是发布点，读取方只会看到旧值或完整的新值。
+ * 分块回收：代目录名以创建时间(16位十六进制毫秒)开头，可以排序、可以算出年龄。每次写入或删除节点后，
+ * 后台读取节点当前的清单，删除分块目录下既不是当前清单所指、创建时间又早于graceMs的代目录；
+ * 较新的代目录可能属于另一个已写完分块、尚未发布清单的写入方(本进程或其它进程)，暂时保留，
+ * 到期后再回收一次。因此单次分块写入(写块到发布清单)加上各进程的时钟偏差必须小于graceMs，
+ * 超过时清单可能指向已被回收的分块。回收只依据zookeeper中的数据，重启后仍能清理之前的分块。
+ * 读取方拿到旧清单后旧的代目录可能已被删除，读块遇到NoNode时重新读取清单再读一次。
+ * 节点写入失败时调用方调用abandon删除这次写入的代目录。
+ * 压缩和分块的数据解码后按路径缓存，存储内容不变时不再重复解压、拼接。
+ * AsyncZkClient不经过编解码，按节点上保存的原始字节读写
+ */
+@Slf4j
+public class ValueCodec {
+
+    public static final byte RAW = 0x00;
+    public static final byte DEFLATE = 0x01;
+    public static final byte MANIFEST = 0x02;
+
+    /**
+     * 分块数据的根节点，与业务节点分开，不影响业务节点的子节点列表
+     */
+    public static final String CHUNK_ROOT = "/_chunks";
+
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 4096;
+    /**
+     * 默认块大小，远小于jute.maxbuffer(1M)
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
+    /**
+     * 默认保留未发布代目录的时间
+     */
+    public static final long DEFAULT_GENERATION_GRACE_MS = 5 * 60 * 1000L;
+
+    /**
+     * 解码后的长度上限，防止损坏的数据申请超大数组
+     */
+    private static final int MAX_DECODED_BYTES = 256 * 1024 * 1024;
+    /**
+     * 读块遇到NoNode时重新读取清单的次数
+     */
+    private static final int MAX_MANIFEST_RETRIES = 3;
+    /**
+     * 代目录名中创建时间的十六进制位数
+     */
+    private static final int GENERATION_TIME_DIGITS = 16;
+
+    /**
+     * 延迟回收仍在保留期内的代目录
+     */
+    private static final ScheduledExecutorService COLLECTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "zk-chunk-collector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int compressThreshold;
+    private final int chunkSize;
+    private final long graceMs;
+    private final Map<String, Decoded> cache;
+    /**
+     * 已安排延迟回收的分块目录，同一目录只保留一个待执行的回收
+     */
+    private final Set<String> scheduledDirs = ConcurrentHashMap.newKeySet();
+
+    public ValueCodec() {
+        this(DEFAULT_COMPRESS_THRESHOLD, DEFAULT_CHUNK_SIZE, DEFAULT_CACHE_MAX_ENTRIES);
+    }
+
+    /**
+     * @param compressThreshold 数据达到该长度时尝试压缩
+     * @param chunkSize 编码后超过该长度时分块，同时也是每块的大小
+     * @param cacheMaxEntries 解码结果缓存的最大条目数，0表示不缓存
+     */
+    public ValueCodec(int compressThreshold, int chunkSize, int cacheMaxEntries) {
+        this(compressThreshold, chunkSize, cacheMaxEntries, DEFAULT_GENERATION_GRACE_MS);
+    }
+
+    /**
+     * @param compressThreshold 数据达到该长度时尝试压缩
+     * @param chunkSize 编码后超过该长度时分块，同时也是每块的大小
+     * @param cacheMaxEntries 解码结果缓存的最大条目数，0表示不缓存
+     * @param graceMs 未被当前清单引用的代目录至少保留的时间，毫秒，需大于单次分块写入的耗时加上时钟偏差
+     */
+    public ValueCodec(int compressThreshold, int chunkSize, int cacheMaxEntries, long graceMs) {
+        this.compressThreshold = Math.max(1, compressThreshold);
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.graceMs = Math.max(0, graceMs);
+        int maxEntries = Math.max(0, cacheMaxEntries);
+        this.cache = new LinkedHashMap<String, Decoded>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decoded> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 编码，需要分块时先把块写到zookeeper
+     * @param client 写入块使用的会话
+     * @param path 节点路径
+     * @param value 原始数据
+     * @return 节点上应该保存的数据；写入节点后调用afterWrite
+     * @throws Exception 写入块失败
+     */
+    public byte[] encode(CuratorFramework client, String path, byte[] value) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        byte[] encoded = encodeInline(value);
+        if (encoded.length <= chunkSize) {
+            return encoded;
+        }
+        return writeChunks(client, path, encoded);
+    }
+
+    /**
+     * 解码节点上保存的数据
+     * @param client 读取块使用的会话
+     * @param path 节点路径
+     * @param stored 节点上保存的数据
+     * @return 原始数据
+     * @throws Exception 数据损坏或块读取失败
+     */
+    public byte[] decode(CuratorFramework client, String path, byte[] stored) throws Exception {
+        if (stored == null || stored.length == 0 || stored[0] > MANIFEST || stored[0] < RAW) {
+            return stored;
+        }
+        if (stored[0] == RAW) {
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+        synchronized (cache) {
+            Decoded decoded = cache.get(path);
+            if (decoded != null && (decoded.stored == stored || Arrays.equals(decoded.stored, stored))) {
+                return decoded.value;
+            }
+        }
+        byte[] value;
+        if (stored[0] == DEFLATE) {
+            value = inflate(stored);
+        } else {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    value = decodeChunked(readChunks(client, stored));
+                    break;
+                } catch (KeeperException.NoNodeException e) {
+                    // 读到清单之后有新的写入发布并删除了这一代，重新读取清单
+                    if (attempt >= MAX_MANIFEST_RETRIES) {
+                        throw e;
+                    }
+                    byte[] latest = client.getData().forPath(path);
+                    if (latest == null || latest.length == 0 || latest[0] != MANIFEST) {
+                        return decode(client, path, latest);
+                    }
+                    stored = latest;
+                }
+            }
+        }
+        synchronized (cache) {
+            cache.put(path, new Decoded(stored, value));
+        }
+        return value;
+    }
+
+    /**
+     * 节点写入或删除成功后调用：清除解码缓存，后台回收该节点不再使用的分块
+     * 写入的是否为分块数据都要调用，覆盖或删除分块数据的节点后旧的分块由此回收
+     * @param client
+     * @param path 节点路径
+     */
+    public void afterWrite(CuratorFramework client, String path) {
+        synchronized (cache) {
+            cache.remove(path);
+        }
+        collect(client, path);
+    }
+
+    /**
+     * 删除子树成功后调用：清除子树的解码缓存，后台回收子树中所有节点的分块目录
+     * 分块目录平铺在CHUNK_ROOT下，按转义后的路径前缀找出子树中节点的分块目录
+     * @param client
+     * @param path 子树根节点路径
+     */
+    public void afterDeleteSubtree(CuratorFramework client, String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (cache) {
+            cache.keySet().removeIf(cached -> cached.equals(path) || cached.startsWith(prefix));
+        }
+        String root = escape(path);
+        String escapedPrefix = escape(prefix);
+        try {
+            client.getChildren().inBackground((client1, event) -> {
+                int code = event.getResultCode();
+                if (code != KeeperException.Code.OK.intValue()) {
+                    if (code != KeeperException.Code.NONODE.intValue()) {
+                        log.warn("读取分块根目录失败: {}, code={}", CHUNK_ROOT, KeeperException.Code.get(code));
+                    }
+                    return;
+                }
+                for (String dir : event.getChildren()) {
+                    if (dir.equals(root) || dir.startsWith(escapedPrefix)) {
+                        collect(client, unescape(dir));
+                    }
+                }
+            }).forPath(CHUNK_ROOT);
+        } catch (Exception e) {
+            log.warn("回收子树分块失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 节点写入失败后调用(写入异常、版本不匹配、节点不存在等)：后台删除encode为这次写入创建的代目录
+     * @param client
+     * @param path 节点路径
+     * @param stored encode的返回值
+     */
+    public void abandon(CuratorFramework client, String path, byte[] stored) {
+        if (stored == null || stored.length == 0 || stored[0] != MANIFEST) {
+            return;
+        }
+        try {
+            deleteInBackground(client, readManifest(stored).generationPath);
+        } catch (IOException e) {
+            log.warn("分块清单格式错误: {}", path, e);
+        }
+    }
+
+    /**
+     * 不分块的编码：超过阈值且压缩有收益时压缩，第一个字节与格式头冲突时转义
+     * 临时节点、顺序节点的数据不能分块(分块不随会话删除，顺序节点创建前不知道实际路径)，只使用该编码
+     * @param value 原始数据
+     * @return
+     */
+    public byte[] encodeInline(byte[] value) {
+        if (value.length >= compressThreshold) {
+            byte[] deflated = CompressUtil.deflate(value);
+            if (deflated.length + 5 < value.length) {
+                byte[] encoded = new byte[deflated.length + 5];
+                encoded[0] = DEFLATE;
+                encoded[1] = (byte) (value.length >>> 24);
+                encoded[2] = (byte) (value.length >>> 16);
+                encoded[3] = (byte) (value.length >>> 8);
+                encoded[4] = (byte) value.length;
+                System.arraycopy(deflated, 0, encoded, 5, deflated.length);
+                return encoded;
+            }
+        }
+        if (value.length > 0 && value[0] >= RAW && value[0] <= MANIFEST) {
+            byte[] escaped = new byte[value.length + 1];
+            escaped[0] = RAW;
+            System.arraycopy(value, 0, escaped, 1, value.length);
+            return escaped;
+        }
+        return value;
+    }
+
+    /**
+     * 分块拼接后的数据只可能是转义或压缩格式
+     */
+    private static byte[] decodeChunked(byte[] encoded) throws IOException {
+        if (encoded.length > 0 && encoded[0] == DEFLATE) {
+            return inflate(encoded);
+        }
+        if (encoded.length > 0 && encoded[0] == MANIFEST) {
+            throw new IOException("分块数据中不能嵌套分块清单");
+        }
+        if (encoded.length > 0 && encoded[0] == RAW) {
+            return Arrays.copyOfRange(encoded, 1, encoded.length);
+        }
+        return encoded;
+    }
+
+    private static byte[] inflate(byte[] stored) throws IOException {
+        if (stored.length < 5) {
+            throw new IOException("压缩数据头不完整");
+        }
+        int length = ((stored[1] & 0xff) << 24) | ((stored[2] & 0xff) << 16) | ((stored[3] & 0xff) << 8) | (stored[4] & 0xff);
+        if (length < 0 || length > MAX_DECODED_BYTES) {
+            throw new IOException("压缩数据长度非法: " + length);
+        }
+        try {
+            return CompressUtil.inflate(stored, 5, stored.length - 5, length);
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败", e);
+        }
+    }
+
+    /**
+     * 把编码后的数据切块写到新的代目录，返回清单
+     */
+    private byte[] writeChunks(CuratorFramework client, String path, byte[] encoded) throws Exception {
+        String generationPath = chunkDir(path) + "/" + newGeneration();
+        try {
+            client.create().creatingParentsIfNeeded().forPath(generationPath, new byte[0]);
+        } catch (KeeperException.NoNodeException e) {
+            // 空的分块目录恰好在创建父节点之后被回收，再创建一次
+            client.create().creatingParentsIfNeeded().forPath(generationPath, new byte[0]);
+        }
+        int count = (encoded.length + chunkSize - 1) / chunkSize;
+        try {
+            TransactionBatcher<Integer> batcher = new TransactionBatcher<>();
+            for (int i = 0; i < count; i++) {
+                byte[] chunk = Arrays.copyOfRange(encoded, i * chunkSize, Math.min(encoded.length, (i + 1) * chunkSize));
+                String chunkPath = generationPath + "/" + i;
+                batcher.add(i, TransactionBatcher.estimate(chunkPath, chunk), client.transactionOp().create().forPath(chunkPath, chunk));
+            }
+            for (TransactionBatcher.Batch<Integer> batch : batcher.getBatches()) {
+                client.transaction().forOperations(batch.getOps());
+            }
+        } catch (Exception e) {
+            // 前面的批次可能已经提交
+            deleteInBackground(client, generationPath);
+            throw e;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + generationPath.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MANIFEST);
+        out.writeInt(encoded.length);
+        out.writeInt(count);
+        out.writeUTF(generationPath);
+        out.flush();
+        log.debug("节点 {} 数据 {} 字节，分为 {} 块写入 {}", path, encoded.length, count, generationPath);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 按清单并行读取所有块并拼接
+     */
+    private static byte[] readChunks(CuratorFramework client, byte[] stored) throws Exception {
+        Manifest manifest = readManifest(stored);
+        AsyncZkClient asyncClient = new AsyncZkClient(client);
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(manifest.count);
+        for (int i = 0; i < manifest.count; i++) {
+            futures.add(asyncClient.getNodeData(manifest.generationPath + "/" + i));
+        }
+        byte[] encoded = new byte[manifest.length];
+        int offset = 0;
+        for (CompletableFuture<byte[]> future : futures) {
+            byte[] chunk;
+            try {
+                chunk = future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            if (chunk == null || offset + chunk.length > encoded.length) {
+                throw new IOException("分块数据不完整: " + manifest.generationPath);
+            }
+            System.arraycopy(chunk, 0, encoded, offset, chunk.length);
+            offset += chunk.length;
+        }
+        if (offset != encoded.length) {
+            throw new IOException("分块数据不完整: " + manifest.generationPath);
+        }
+        return encoded;
+    }
+
+    private static Manifest readManifest(byte[] stored) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored, 1, stored.length - 1));
+        int length = in.readInt();
+        int count = in.readInt();
+        if (length < 0 || length > MAX_DECODED_BYTES || count < 0) {
+            throw new IOException("分块清单非法, length=" + length + " count=" + count);
+        }
+        return new Manifest(length, count, in.readUTF());
+    }
+
+    /**
+     * 回收一个节点的分块目录：读取节点当前清单，删除未被引用且超过保留期的代目录，
+     * 还有未到期的代目录时安排到期后再回收一次，全部删除后删除空的分块目录。
+     * 全程使用后台请求，可以在事件线程中调用
+     */
+    private void collect(CuratorFramework client, String path) {
+        String chunkDir = chunkDir(path);
+        try {
+            client.getChildren().inBackground((client1, event) -> {
+                int code = event.getResultCode();
+                if (code != KeeperException.Code.OK.intValue()) {
+                    if (code != KeeperException.Code.NONODE.intValue()) {
+                        log.warn("读取分块目录失败: {}, code={}", chunkDir, KeeperException.Code.get(code));
+                    }
+                    return;
+                }
+                List<String> generations = event.getChildren();
+                if (generations.isEmpty()) {
+                    deleteInBackground(client, chunkDir, false);
+                    return;
+                }
+                client.getData().inBackground((client2, dataEvent) -> {
+                    int dataCode = dataEvent.getResultCode();
+                    if (dataCode != KeeperException.Code.OK.intValue() && dataCode != KeeperException.Code.NONODE.intValue()) {
+                        log.warn("读取节点清单失败，跳过分块回收: {}, code={}", path, KeeperException.Code.get(dataCode));
+                        return;
+                    }
+                    sweep(client, path, chunkDir, generations, liveGeneration(path, dataEvent.getData()));
+                }).forPath(path);
+            }).forPath(chunkDir);
+        } catch (Exception e) {
+            log.warn("回收分块失败: {}", chunkDir, e);
+        }
+    }
+
+    private void sweep(CuratorFramework client, String path, String chunkDir, List<String> generations, String live) {
+        long now = System.currentTimeMillis();
+        long retryAt = 0;
+        boolean kept = false;
+        List<CompletableFuture<Void>> deletions = new ArrayList<>();
+        for (String generation : generations) {
+            String generationPath = chunkDir + "/" + generation;
+            if (generationPath.equals(live)) {
+                kept = true;
+                continue;
+            }
+            long expiresAt = generationTime(generation) + graceMs;
+            if (expiresAt > now) {
+                // 可能是尚未发布清单的写入
+                kept = true;
+                retryAt = Math.max(retryAt, expiresAt);
+            } else {
+                deletions.add(deleteInBackground(client, generationPath, true));
+            }
+        }
+        if (retryAt > 0) {
+            schedule(client, path, chunkDir, retryAt - now);
+        } else if (!kept) {
+            // 分块目录非空时删除失败，不影响同时开始的分块写入
+            CompletableFuture.allOf(deletions.toArray(new CompletableFuture[0]))
+                    .whenComplete((v, e) -> deleteInBackground(client, chunkDir, false));
+        }
+    }
+
+    private void schedule(CuratorFramework client, String path, String chunkDir, long delayMs) {
+        if (!scheduledDirs.add(chunkDir)) {
+            return;
+        }
+        COLLECTOR.schedule(() -> {
+            scheduledDirs.remove(chunkDir);
+            collect(client, path);
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 节点当前数据引用的代路径，不是分块清单时返回null
+     */
+    private static String liveGeneration(String path, byte[] stored) {
+        if (stored == null || stored.length == 0 || stored[0] != MANIFEST) {
+            return null;
+        }
+        try {
+            return readManifest(stored).generationPath;
+        } catch (IOException e) {
+            log.warn("分块清单格式错误: {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * 新的代目录名：创建时间(定长十六进制毫秒)-随机数，按名称排序即按创建时间排序
+     */
+    private static String newGeneration() {
+        return String.format("%0" + GENERATION_TIME_DIGITS + "x-%08x",
+                System.currentTimeMillis(), ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * 代目录的创建时间，无法解析的旧格式名称返回0，视为早已过期
+     */
+    static long generationTime(String generation) {
+        if (generation.length() <= GENERATION_TIME_DIGITS || generation.charAt(GENERATION_TIME_DIGITS) != '-') {
+            return 0;
+        }
+        try {
+            return Long.parseLong(generation.substring(0, GENERATION_TIME_DIGITS), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 节点的分块目录，路径中的"/"转义后作为CHUNK_ROOT下的一级节点，不同节点的分块目录互不嵌套
+     */
+    private static String chunkDir(String path) {
+        return CHUNK_ROOT + "/" + escape(path);
+    }
+
+    private static String escape(String path) {
+        return path.replace("%", "%25").replace("/", "%2F");
+    }
+
+    /**
+     * escape的逆操作
+     */
+    static String unescape(String name) {
+        StringBuilder path = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '%' && name.startsWith("2F", i + 1)) {
+                path.append('/');
+                i += 2;
+            } else if (c == '%' && name.startsWith("25", i + 1)) {
+                path.append('%');
+                i += 2;
+            } else {
+                path.append(c);
+            }
+        }
+        return path.toString();
+    }
+
+    private static void deleteInBackground(CuratorFramework client, String path) {
+        deleteInBackground(client, path, true);
+    }
+
+    /**
+     * 后台删除，节点不存在或(非递归删除时)节点非空不算失败
+     * @return 删除请求完成时完成，不会异常完成
+     */
+    private static CompletableFuture<Void> deleteInBackground(CuratorFramework client, String path, boolean recursive) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        BackgroundCallback callback = (client1, event) -> {
+            int code = event.getResultCode();
+            if (code != KeeperException.Code.OK.intValue() && code != KeeperException.Code.NONODE.intValue()
+                    && code != KeeperException.Code.NOTEMPTY.intValue()) {
+                log.warn("删除分块失败: {}, code={}", path, KeeperException.Code.get(code));
+            }
+            done.complete(null);
+        };
+        try {
+            if (recursive) {
+                client.delete().deletingChildrenIfNeeded().inBackground(callback).forPath(path);
+            } else {
+                client.delete().inBackground(callback).forPath(path);
+            }
+        } catch (Exception e) {
+            log.warn("删除分块失败: {}", path, e);
+            done.complete(null);
+        }
+        return done;
+    }
+
+    private static class Manifest {
+        private final int length;
+        private final int count;
+        private final String generationPath;
+
+        Manifest(int length, int count, String generationPath) {
+            this.length = length;
+            this.count = count;
+            this.generationPath = generationPath;
+        }
+    }
+
+    private static class Decoded {
+        private final byte[] stored;
+        private final byte[] value;
+
+        Decoded(byte[] stored, byte[] value) {
+            this.stored = stored;
+            this.value = value;
+        }
+    }
+}
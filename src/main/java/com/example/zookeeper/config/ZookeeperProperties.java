@@ -29,4 +29,56 @@ public class ZookeeperProperties {
     private Integer maxRetries;
     //初始sleep时间 ,毫秒
     private Integer baseSleepTimeMs;
+    //删除子树时在途请求的最大并发数
+    private Integer deleteConcurrency = 64;
+    //删除子树时每个multi事务包含的最大节点数
+    private Integer deleteBatchSize = 500;
+    //批量读取子节点数据时在途请求的最大并发数
+    private Integer bulkReadConcurrency = 1000;
+    //导入快照时每个multi事务包含的最大节点数
+    private Integer importBatchSize = 500;
+    //节点数据编解码：大数据压缩、超大数据分块，开启前写入的数据仍可读取
+    private Boolean valueCodecEnabled = false;
+    //数据达到该长度(字节)时尝试压缩
+    private Integer valueCompressThreshold = 4096;
+    //编码后超过该长度(字节)时分块写入，同时也是每块的大小，需小于jute.maxbuffer
+    private Integer valueChunkSize = 262144;
+    //压缩、分块数据解码结果的缓存条目数
+    private Integer valueCacheMaxEntries = 1000;
+    //未被当前清单引用的分块至少保留的时间，毫秒，需大于单次分块写入的耗时加上各进程间的时钟偏差
+    private Long valueChunkGraceMs = 300000L;
+    //监听事件分发线程数，同一监听路径的事件总是由同一个线程按顺序处理
+    private Integer dispatchThreads = 2;
+    //每个分发线程的事件队列容量，队列满时阻塞TreeCache事件线程，事件暂存在TreeCache自己的线程池中
+    private Integer dispatchQueueCapacity = 10000;
+    //使用紧凑缓存(前缀树+堆外内存)代替TreeCache缓存整个命名空间
+    private Boolean compactCacheEnabled = false;
+    //紧凑缓存节点数据占用堆外内存的上限，超过后按近似LRU淘汰数据
+    private Long compactCacheMaxBytes = 256L * 1024 * 1024;
+    //紧凑缓存的最大深度，根节点为0，-1不限制
+    private Integer compactCacheMaxDepth = -1;
+    //紧凑缓存的路径过滤正则，未匹配的节点及其子树不缓存，为空时全部缓存
+    private String compactCachePathFilter;
+    //紧凑缓存中超过该大小(字节)的数据压缩保存，0不压缩
+    private Integer compactCacheCompressThreshold = 1024;
+    //TreeCache缓存同时维护不可变快照，缓存读取无锁且同一快照内的多次读取互相一致
+    private Boolean snapshotEnabled = false;
+    //命名空间缓存之外的单节点读缓存最大条目数，0不开启
+    private Integer readCacheMaxEntries = 10000;
+    //单节点读缓存条目的最长存活时间，毫秒，0不过期
+    private Long readCacheTtlMs = 60000L;
+    //ZkClient的会话数，大于1时按路径哈希把写操作和锁分散到多个会话，同一路径总在同一会话上
+    private Integer poolSize = 1;
+    //读写分离：读取、缓存和监听使用独立的会话，写入和锁使用主会话
+    private Boolean readSessionEnabled = false;
+    //读会话的连接串，例如只包含observer节点，为空时与server相同
+    private String readServer;
+    //读写分离时保证读己之写：本进程写入后，读会话下一次读取前先sync
+    private Boolean readYourWrites = false;
+    //指标中路径标签保留的层数
+    private Integer metricsPathPrefixDepth = 2;
+    //指标中路径标签不同取值的上限，超过后新的路径记为other
+    private Integer metricsMaxPathTags = 100;
+    //操作和锁的计时器是否发布百分位直方图，开启后每个计时器多出几十个桶
+    private Boolean metricsPercentileHistogram = false;
 }
@@ -1,6 +1,14 @@
 package com.example.zookeeper.controller;
 
+import com.example.zookeeper.cache.ReadThroughCache;
+import com.example.zookeeper.client.WatchRegistry;
 import com.example.zookeeper.client.ZkClient;
+import com.example.zookeeper.counter.BlockSequenceGenerator;
+import com.example.zookeeper.counter.ShardedCounter;
+import com.example.zookeeper.discovery.LoadBalancer;
+import com.example.zookeeper.discovery.ServiceInstance;
+import com.example.zookeeper.lock.AsyncLock;
+import com.example.zookeeper.lock.CoalescingLock;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
@@ -8,8 +16,6 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.recipes.atomic.AtomicValue;
 import org.apache.curator.framework.recipes.atomic.DistributedAtomicLong;
-import org.apache.curator.framework.recipes.locks.InterProcessMutex;
-import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
 import org.apache.curator.framework.recipes.shared.SharedCount;
 import org.apache.curator.framework.recipes.shared.VersionedValue;
 import org.apache.curator.retry.RetryNTimes;
@@ -17,9 +23,15 @@ import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
@@ -33,6 +45,11 @@ public class ZookeeperController {
     @Autowired
     private ZkClient zkClient;
 
+    /**
+     * 读写锁演示中定时释放锁
+     */
+    private final ScheduledExecutorService lockReleaseTimer = Executors.newSingleThreadScheduledExecutor();
+
     /**
      * 创建节点
      * @param type
@@ -70,7 +87,9 @@ public class ZookeeperController {
     @RequestMapping(value = "/update",method=RequestMethod.POST)
     public String update(@RequestParam String znode,@RequestParam String nodeData){
         znode = "/" + znode;
-        zkClient.setNodeData(znode,nodeData.getBytes());
+        if(!zkClient.upsertNode(znode,nodeData.getBytes())){
+            return "fail";
+        }
         return "sucess";
     }
 
@@ -96,6 +115,44 @@ public class ZookeeperController {
         return new String(b);
     }
 
+    @ApiOperation(value = "查找子节点及其内容",notes = "所有子节点的数据一次性异步读取")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="znode",value = "节点名称",paramType = "query",required = true,dataType = "String"),
+            @ApiImplicitParam(name ="depth",value = "读取的层数,小于0不限",paramType = "query",defaultValue = "1",dataType = "Integer")
+    })
+    @RequestMapping(value = "/findChildren",method=RequestMethod.GET)
+    public Map<String, String> findChildren(@RequestParam String znode,@RequestParam(defaultValue = "1") Integer depth){
+        znode = "/" + znode;
+        Map<String, byte[]> datas = depth == 1 ? zkClient.getChildrenWithData(znode) : zkClient.getSubtree(znode, depth);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : datas.entrySet()) {
+            result.put(entry.getKey(), new String(entry.getValue(), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    @ApiOperation(value = "导出子树快照",notes = "下载压缩的二进制快照,不包含临时节点")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="znode",value = "子树根节点,为空表示整个命名空间",paramType = "query",dataType = "String")
+    })
+    @RequestMapping(value = "/export",method=RequestMethod.GET)
+    public void exportSnapshot(@RequestParam(defaultValue = "") String znode, HttpServletResponse response) throws Exception {
+        response.setContentType("application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment; filename=\"snapshot.zks\"");
+        zkClient.exportSnapshot("/" + znode, response.getOutputStream());
+    }
+
+    @ApiOperation(value = "导入子树快照",notes = "快照的根节点导入到znode,已存在的节点覆盖数据")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="znode",value = "导入到的节点,为空表示命名空间根节点",paramType = "query",dataType = "String")
+    })
+    @RequestMapping(value = "/import",method=RequestMethod.POST)
+    public String importSnapshot(@RequestParam(defaultValue = "") String znode, @RequestParam MultipartFile file) throws Exception {
+        try (InputStream in = file.getInputStream()) {
+            return "success, nodes=" + zkClient.importSnapshot(in, "/" + znode);
+        }
+    }
+
     /**
      * 给节点添加读写锁
      * @param znode
@@ -110,43 +167,65 @@ public class ZookeeperController {
     @RequestMapping(value = "/writeLock",method=RequestMethod.GET)
     public String readLock(@RequestParam Integer lockType,@RequestParam String znode){
         znode = "/" + znode;
-        InterProcessReadWriteLock readWriteLock = zkClient.getReadWriteLock(znode);
-        InterProcessMutex writeLock = readWriteLock.writeLock();
-        InterProcessMutex readLock = readWriteLock.readLock();
-        Runnable writeRunnable = ()->{
-            try {
-                System.out.println("------write lock-----------");
-                writeLock.acquire();
-                System.out.println("write acquire");
-                Thread.sleep(10_000);
-                System.out.println("write release");
-                writeLock.release();
+        AsyncLock lock;
+        long holdMillis;
+        if(lockType == 0 ){
+            System.out.println("------write lock-----------");
+            lock = zkClient.getAsyncWriteLock(znode);
+            holdMillis = 10_000;
+        }else if(lockType == 1){
+            System.out.println("-------read lock----------");
+            lock = zkClient.getAsyncReadLock(znode);
+            holdMillis = 20_000;
+        }else{
+            return "success";
+        }
+        //等待中的请求只占用一个watcher，不占用线程；持有一段时间后由定时器释放
+        for (int i = 0; i < 10; i++) {
+            lock.acquireAsync().whenComplete((handle, e) -> {
+                if (e != null) {
+                    e.printStackTrace();
+                    return;
+                }
+                System.out.println((lockType == 0 ? "write" : "read") + " acquire");
+                lockReleaseTimer.schedule(() -> {
+                    System.out.println((lockType == 0 ? "write" : "read") + " release");
+                    handle.releaseAsync();
+                }, holdMillis, TimeUnit.MILLISECONDS);
+            });
+        }
+        return "success";
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        };
-        Runnable readRunnable = ()->{
+    /**
+     * 进程内合并的互斥锁
+     * 50个线程竞争同一把锁，本地排队，只有队首线程持有zookeeper锁节点
+     * @param znode
+     * @return
+     */
+    @ApiOperation(value = "进程内合并的互斥锁",notes = "同一进程的线程本地排队，只占用一个zookeeper锁节点")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="znode",value = "节点名称",paramType = "query",required = true,dataType = "String")
+    })
+    @RequestMapping(value = "/coalescingLock",method=RequestMethod.GET)
+    public String coalescingLock(@RequestParam String znode){
+        znode = "/" + znode;
+        CoalescingLock lock = zkClient.getCoalescingLock(znode);
+        Runnable runnable = ()->{
             try {
-                System.out.println("-------read lock----------");
-                readLock.acquire();
-                System.out.println("read acquire");
-                Thread.sleep(20_000);
-                System.out.println("read release");
-                readLock.release();
+                lock.acquire();
+                try {
+                    System.out.println(Thread.currentThread().getName() + " acquire, waiting:" + lock.getQueueLength());
+                    Thread.sleep(100);
+                } finally {
+                    lock.release();
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         };
-
-        if(lockType == 0 ){
-            for (int i = 0; i < 10; i++) {
-                new Thread(writeRunnable).start();
-            }
-        }else if(lockType == 1){
-            for (int i = 0; i < 10; i++) {
-                new Thread(readRunnable).start();
-            }
+        for (int i = 0; i < 50; i++) {
+            new Thread(runnable).start();
         }
         return "success";
     }
@@ -174,6 +253,59 @@ public class ZookeeperController {
         return "success";
     }
 
+    /**
+     * 取消监听节点
+     * @param znode
+     * @return
+     */
+    @ApiOperation(value = "取消监听节点",notes = "取消节点上的所有监听并关闭缓存")
+    @ApiImplicitParams(
+            @ApiImplicitParam(name ="znode",value = "节点名称",paramType = "body",required = true,dataType = "String")
+    )
+    @RequestMapping(value="/unwatchPath",method=RequestMethod.POST)
+    public String unwatchPath(@RequestParam  String znode){
+        znode = "/" + znode;
+        zkClient.unwatchPath(znode);
+        return "success";
+    }
+
+    /**
+     * 监听统计
+     * @return
+     */
+    @ApiOperation(value = "监听统计",notes = "正在监听的路径数、监听器数、缓存的节点数")
+    @RequestMapping(value="/watchStats",method=RequestMethod.GET)
+    public Map<String, Object> watchStats(){
+        WatchRegistry registry = zkClient.getWatchRegistry();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("watchedPaths", registry.getWatchedPaths());
+        stats.put("activeWatches", registry.getActiveWatchCount());
+        stats.put("listeners", registry.getListenerCount());
+        stats.put("cachedNodes", registry.getCachedNodeCount());
+        return stats;
+    }
+
+    /**
+     * 读缓存统计
+     * @return
+     */
+    @ApiOperation(value = "读缓存统计",notes = "命名空间缓存之外路径的单节点读缓存命中、未命中、淘汰次数")
+    @RequestMapping(value="/readCacheStats",method=RequestMethod.GET)
+    public Map<String, Object> readCacheStats(){
+        ReadThroughCache readCache = zkClient.getReadCache();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if (readCache == null) {
+            return stats;
+        }
+        stats.put("size", readCache.size());
+        stats.put("hits", readCache.getHitCount());
+        stats.put("misses", readCache.getMissCount());
+        stats.put("evictions", readCache.getEvictionCount());
+        stats.put("invalidations", readCache.getInvalidationCount());
+        stats.put("expirations", readCache.getExpirationCount());
+        return stats;
+    }
+
     /**
      * 测试计算器
      * 并发越高耗时越长
@@ -265,6 +397,57 @@ public class ZookeeperController {
         return "success："+distributedAtomicLong.get().postValue();
     }
 
+    /**
+     * 分片计数器，递增分散到多个分片节点，读取时求和
+     * flushIntervalMs大于0时开启本地累积，按间隔批量刷新
+     */
+    @ApiOperation(value = "模拟分片分布式计数器",notes = "递增分散到多个分片节点，高并发下不再竞争同一个节点版本")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="shards",value = "分片数",defaultValue="16",paramType = "query",dataType = "Long"),
+            @ApiImplicitParam(name ="flushIntervalMs",value = "本地累积刷新间隔(ms)，0表示不累积",defaultValue="0",paramType = "query",dataType = "Long")
+    })
+    @RequestMapping(value="/counter3",method=RequestMethod.POST)
+    public String shardedCount(@RequestBody String znode,
+                               @RequestParam(defaultValue = "16") Integer shards,
+                               @RequestParam(defaultValue = "0") Long flushIntervalMs) throws Exception {
+        ShardedCounter counter = new ShardedCounter(zkClient.getClient(), znode, shards, flushIntervalMs);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            counter.start();
+            List<Callable<Boolean>> callList = new ArrayList<>();
+            Callable<Boolean> call = () -> {
+                counter.increment();
+                return true;
+            };
+            for (int i = 0; i < 500; i++) {
+                callList.add(call);
+            }
+            executor.invokeAll(callList);
+            counter.flush();
+            return "success："+counter.getFromServer();
+        } finally {
+            executor.shutdown();
+            counter.close();
+        }
+    }
+
+    /**
+     * 号段式ID生成器，id从本地号段分配，号段快用完时异步预取
+     */
+    @ApiOperation(value = "号段式分布式ID生成",notes = "从计数节点批量租用号段，本地无锁分配")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="count",value = "生成个数",defaultValue="10",paramType = "query",dataType = "Long")
+    })
+    @RequestMapping(value="/nextId",method=RequestMethod.POST)
+    public List<Long> nextId(@RequestBody String znode, @RequestParam(defaultValue = "10") Integer count) throws Exception {
+        BlockSequenceGenerator generator = zkClient.getSequenceGenerator(znode);
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(generator.nextId());
+        }
+        return ids;
+    }
+
      /**
      *
      * @return
@@ -280,4 +463,36 @@ public class ZookeeperController {
         return zkClient.getRandomData("/test");
     }
 
-}
\ No newline at end of file
+    /**
+     * 按策略选择服务实例
+     * @param strategy
+     * @param key
+     * @return
+     */
+    @ApiOperation(value = "按负载均衡策略获取服务",notes = "从/test下的服务实例中按策略选择一个")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name ="strategy",value = "策略:random、roundRobin、weighted、consistentHash",
+                    allowableValues = "random,roundRobin,weighted,consistentHash",defaultValue="random",paramType = "query",dataType = "String"),
+            @ApiImplicitParam(name ="key",value = "一致性哈希的路由key",paramType = "query",dataType = "String")
+    })
+    @RequestMapping(value="/discover",method=RequestMethod.GET)
+    public String discover(@RequestParam(defaultValue = "random") String strategy, @RequestParam(required = false) String key){
+        LoadBalancer balancer;
+        switch (strategy) {
+            case "roundRobin":
+                balancer = LoadBalancer.ROUND_ROBIN;
+                break;
+            case "weighted":
+                balancer = LoadBalancer.WEIGHTED;
+                break;
+            case "consistentHash":
+                balancer = LoadBalancer.CONSISTENT_HASH;
+                break;
+            default:
+                balancer = LoadBalancer.RANDOM;
+        }
+        ServiceInstance instance = zkClient.selectInstance("/test", balancer, key);
+        return instance == null ? null : instance.getAddress();
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.example.zookeeper.counter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.atomic.AtomicValue;
+import org.apache.curator.framework.recipes.atomic.DistributedAtomicLong;
+import org.apache.curator.retry.RetryNTimes;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 号段式分布式ID生成器
+ * 每次从zookeeper计数节点(DistributedAtomicLong)租用一段连续的id(blockSize个)，在本地用AtomicLong无锁分配，
+ * 热路径上只有一次getAndIncrement；当前号段剩余prefetchThreshold个时在后台异步预取下一段，切换号段时通常无需等待。
+ * 生成的id全局唯一、单调递增(单个实例内)，进程重启时未用完的号段会被丢弃，id会出现空洞
+ */
+@Slf4j
+public class BlockSequenceGenerator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private static final ExecutorService PREFETCH_POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "sequence-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DistributedAtomicLong counter;
+    private final String counterPath;
+    private final int blockSize;
+    private final long prefetchThreshold;
+    private final Executor executor;
+    private final AtomicReference<Block> current = new AtomicReference<>(Block.EMPTY);
+    private final AtomicReference<CompletableFuture<Block>> next = new AtomicReference<>();
+
+    public BlockSequenceGenerator(CuratorFramework client, String counterPath) {
+        this(client, counterPath, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockSequenceGenerator(CuratorFramework client, String counterPath, int blockSize) {
+        this(client, counterPath, blockSize, new RetryNTimes(10, 30), PREFETCH_POOL);
+    }
+
+    /**
+     * @param client
+     * @param counterPath 计数节点，与DistributedAtomicLong格式兼容
+     * @param blockSize 每次租用的id个数
+     * @param retryPolicy 租用号段时CAS冲突的重试策略
+     * @param executor 异步预取号段的线程池
+     */
+    public BlockSequenceGenerator(CuratorFramework client, String counterPath, int blockSize,
+                                  RetryPolicy retryPolicy, Executor executor) {
+        this.counter = new DistributedAtomicLong(client, counterPath, retryPolicy);
+        this.counterPath = counterPath;
+        this.blockSize = Math.max(1, blockSize);
+        this.prefetchThreshold = Math.max(1, this.blockSize / 5);
+        this.executor = executor;
+    }
+
+    /**
+     * 获取下一个id
+     * @return
+     * @throws Exception 租用号段失败
+     */
+    public long nextId() throws Exception {
+        while (true) {
+            Block block = current.get();
+            long id = block.cursor.getAndIncrement();
+            if (id <= block.end) {
+                //只有一个线程会拿到这个位置，恰好触发一次预取
+                if (block.end - id == prefetchThreshold) {
+                    prefetch();
+                }
+                return id;
+            }
+            switchBlock(block);
+        }
+    }
+
+    /**
+     * 异步预取下一个号段，已有预取在途时忽略
+     */
+    private void prefetch() {
+        CompletableFuture<Block> future = new CompletableFuture<>();
+        if (next.compareAndSet(null, future)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        future.complete(lease());
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 当前号段用完，切换到预取的号段；预取失败时同步再租用一次
+     */
+    private synchronized void switchBlock(Block exhausted) throws Exception {
+        if (current.get() != exhausted) {
+            //其它线程已经切换
+            return;
+        }
+        prefetch();
+        CompletableFuture<Block> future = next.get();
+        Block block;
+        try {
+            block = future.get();
+        } catch (ExecutionException e) {
+            log.warn("预取号段失败，重新租用: " + counterPath, e.getCause());
+            block = lease();
+        } finally {
+            next.compareAndSet(future, null);
+        }
+        current.set(block);
+    }
+
+    /**
+     * 从zookeeper租用一个号段
+     */
+    private Block lease() throws Exception {
+        AtomicValue<Long> value = counter.add((long) blockSize);
+        if (!value.succeeded()) {
+            throw new IllegalStateException("租用号段失败: " + counterPath);
+        }
+        log.debug("租用号段 [{}, {}] path={}", value.preValue() + 1, value.postValue(), counterPath);
+        return new Block(value.preValue() + 1, value.postValue());
+    }
+
+    /**
+     * 号段[start, end]，cursor为下一个待分配的id
+     */
+    private static final class Block {
+        static final Block EMPTY = new Block(1, 0);
+
+        final long end;
+        final AtomicLong cursor;
+
+        Block(long start, long end) {
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.zookeeper.counter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分片分布式计数器
+ * 计数分散到basePath下的N个分片节点(shard-0 ... shard-N-1)，每次递增只与同一分片上的写入竞争版本，
+ * 冲突时换到下一个分片重试；读取时对所有分片求和，优先读取PathChildrenCache，不产生网络往返。
+ * 可选本地累积模式：递增只累加到本地LongAdder，由后台线程按固定间隔把增量合并后刷到一个分片上。
+ * 分片的值与DistributedAtomicLong一致，用8字节大端long存储
+ */
+@Slf4j
+public class ShardedCounter implements Closeable {
+
+    private static final String SHARD_PREFIX = "shard-";
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final int shards;
+    private final long flushIntervalMs;
+    private final LongAdder pending = new LongAdder();
+    private PathChildrenCache cache;
+    private ScheduledExecutorService flusher;
+    private volatile boolean closed;
+
+    /**
+     * @param client
+     * @param basePath 计数器根节点
+     * @param shards 分片数
+     */
+    public ShardedCounter(CuratorFramework client, String basePath, int shards) {
+        this(client, basePath, shards, 0);
+    }
+
+    /**
+     * @param client
+     * @param basePath 计数器根节点
+     * @param shards 分片数
+     * @param flushIntervalMs 本地累积模式的刷新间隔，小于等于0表示每次递增直接写zookeeper
+     */
+    public ShardedCounter(CuratorFramework client, String basePath, int shards, long flushIntervalMs) {
+        this.client = client;
+        this.basePath = basePath;
+        this.shards = Math.max(1, shards);
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * 创建分片节点并启动本地缓存
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        for (int i = 0; i < shards; i++) {
+            try {
+                client.create().creatingParentsIfNeeded().forPath(shardPath(i), encode(0));
+            } catch (KeeperException.NodeExistsException e) {
+                //分片已存在
+            }
+        }
+        cache = new PathChildrenCache(client, basePath, true);
+        cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+        if (flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sharded-counter-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void increment() throws Exception {
+        add(1);
+    }
+
+    /**
+     * 累加计数
+     * @param delta
+     * @throws Exception
+     * @throws IllegalStateException 计数器已关闭
+     */
+    public void add(long delta) throws Exception {
+        if (closed) {
+            throw new IllegalStateException("分片计数器已关闭: " + basePath);
+        }
+        if (flusher != null) {
+            pending.add(delta);
+            //与close并发时，close的最后一次刷新可能已经结束，由本线程刷新
+            if (closed) {
+                flush();
+            }
+            return;
+        }
+        addToShard(pickShard(), delta);
+    }
+
+    /**
+     * 当前计数：所有分片之和，加上本地尚未刷新的增量
+     * 分片值来自本地缓存，可能略微滞后于服务端
+     * @return
+     */
+    public long get() throws Exception {
+        List<ChildData> shardData = cache == null ? null : cache.getCurrentData();
+        if (shardData == null || shardData.isEmpty()) {
+            return getFromServer();
+        }
+        long sum = pending.sum();
+        for (ChildData data : shardData) {
+            //只统计分片节点，忽略根节点下的其它子节点
+            if (ZKPaths.getNodeFromPath(data.getPath()).startsWith(SHARD_PREFIX)) {
+                sum += decode(data.getData());
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 直接从zookeeper读取所有分片求和
+     * @return
+     * @throws Exception
+     */
+    public long getFromServer() throws Exception {
+        long sum = pending.sum();
+        for (int i = 0; i < shards; i++) {
+            try {
+                sum += decode(client.getData().forPath(shardPath(i)));
+            } catch (KeeperException.NoNodeException e) {
+                //分片尚未创建
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 把本地累积的增量刷到zookeeper，失败时增量放回本地，下次继续刷新
+     * @throws Exception
+     */
+    public void flush() throws Exception {
+        long delta = pending.sumThenReset();
+        if (delta == 0) {
+            return;
+        }
+        try {
+            addToShard(pickShard(), delta);
+        } catch (Exception e) {
+            pending.add(delta);
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("刷新分片计数器错误: " + basePath, e);
+        }
+    }
+
+    /**
+     * CAS更新一个分片，版本冲突时换到下一个分片重试
+     */
+    private void addToShard(int shard, long delta) throws Exception {
+        while (true) {
+            String path = shardPath(shard);
+            Stat stat = new Stat();
+            try {
+                byte[] bytes = client.getData().storingStatIn(stat).forPath(path);
+                client.setData().withVersion(stat.getVersion()).forPath(path, encode(decode(bytes) + delta));
+                return;
+            } catch (KeeperException.BadVersionException e) {
+                shard = (shard + 1) % shards;
+            } catch (KeeperException.NoNodeException e) {
+                try {
+                    client.create().creatingParentsIfNeeded().forPath(path, encode(delta));
+                    return;
+                } catch (KeeperException.NodeExistsException ignore) {
+                    //并发创建，重新CAS
+                }
+            }
+        }
+    }
+
+    /**
+     * 按线程选择分片，同一线程的递增落在同一分片上
+     */
+    private int pickShard() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) % shards);
+    }
+
+    private String shardPath(int shard) {
+        return basePath + "/" + SHARD_PREFIX + shard;
+    }
+
+    private static byte[] encode(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+
+    private static long decode(byte[] bytes) {
+        if (bytes == null || bytes.length < Long.BYTES) {
+            return 0;
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * 关闭计数器，本地累积模式下同步刷新剩余的增量；关闭后add抛出IllegalStateException
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(flushIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flushQuietly();
+        }
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (Exception e) {
+                log.error("关闭分片计数器缓存错误", e);
+            }
+        }
+    }
+}
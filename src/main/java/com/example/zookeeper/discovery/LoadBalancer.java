@@ -0,0 +1,52 @@
+package com.example.zookeeper.discovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 负载均衡策略，从一个服务的实例视图中选出一个实例
+ * 实现必须是线程安全的，并且选择过程中不应分配对象
+ */
+public interface LoadBalancer {
+
+    /**
+     * 随机
+     */
+    LoadBalancer RANDOM = (instances, key) ->
+            instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+
+    /**
+     * 轮询，实例列表变化后从头开始
+     */
+    LoadBalancer ROUND_ROBIN = (instances, key) ->
+            instances.get(instances.nextCursor() % instances.size());
+
+    /**
+     * 按实例权重随机，权重都为0时退化为随机
+     */
+    LoadBalancer WEIGHTED = (instances, key) -> {
+        long total = instances.getTotalWeight();
+        if (total <= 0) {
+            return RANDOM.select(instances, key);
+        }
+        return instances.selectByWeight(ThreadLocalRandom.current().nextLong(total));
+    };
+
+    /**
+     * 一致性哈希，相同的key总是落到同一个实例，实例增减时只影响相邻区间的key；key为null时退化为随机
+     */
+    LoadBalancer CONSISTENT_HASH = (instances, key) -> {
+        if (key == null) {
+            return RANDOM.select(instances, null);
+        }
+        ServiceInstance instance = instances.selectByHash(ServiceInstances.hash(key.hashCode()));
+        return instance != null ? instance : RANDOM.select(instances, key);
+    };
+
+    /**
+     * 选择实例
+     * @param instances 非空的实例视图
+     * @param key 路由key，只有一致性哈希使用，可以为null
+     * @return
+     */
+    ServiceInstance select(ServiceInstances instances, Object key);
+}
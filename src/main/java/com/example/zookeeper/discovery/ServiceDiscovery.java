@@ -0,0 +1,163 @@
+package com.example.zookeeper.discovery;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.utils.ZKPaths;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 服务发现
+ * 每个服务路径用一个PathChildrenCache监听实例节点，子节点变化时重建不可变的实例视图(ServiceInstances)，
+ * 读取和选择实例只访问当前视图，不访问zookeeper也不加锁
+ */
+@Slf4j
+public class ServiceDiscovery implements Closeable {
+
+    private final CuratorFramework client;
+    private final Map<String, ServiceWatch> services = new ConcurrentHashMap<>();
+
+    public ServiceDiscovery(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * 获取服务的当前实例视图，第一次访问某个服务时开始监听并同步加载
+     * 加载在map的原子操作之外进行，并发的首次访问等待同一次加载；加载失败时移除监听，下次访问重试
+     * @param servicePath 服务路径，子节点为实例
+     * @return
+     */
+    public ServiceInstances getInstances(String servicePath) {
+        ServiceWatch watch = services.get(servicePath);
+        if (watch == null) {
+            ServiceWatch created = new ServiceWatch(servicePath);
+            watch = services.putIfAbsent(servicePath, created);
+            if (watch == null) {
+                watch = created;
+                if (!created.start()) {
+                    services.remove(servicePath, created);
+                    created.close();
+                }
+            }
+        }
+        watch.awaitStarted();
+        return watch.instances;
+    }
+
+    /**
+     * 按策略选择一个实例
+     * @param servicePath 服务路径
+     * @param balancer 负载均衡策略
+     * @param key 路由key，一致性哈希使用，可以为null
+     * @return 没有实例时返回null
+     */
+    public ServiceInstance select(String servicePath, LoadBalancer balancer, Object key) {
+        ServiceInstances instances = getInstances(servicePath);
+        return instances.isEmpty() ? null : balancer.select(instances, key);
+    }
+
+    /**
+     * 停止监听一个服务
+     * @param servicePath
+     */
+    public void unwatch(String servicePath) {
+        ServiceWatch watch = services.remove(servicePath);
+        if (watch != null) {
+            watch.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        services.values().forEach(ServiceWatch::close);
+        services.clear();
+    }
+
+    private final class ServiceWatch {
+        private final String path;
+        private final PathChildrenCache cache;
+        private volatile ServiceInstances instances = ServiceInstances.EMPTY;
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        ServiceWatch(String path) {
+            this.path = path;
+            this.cache = new PathChildrenCache(client, path, true);
+            cache.getListenable().addListener((client1, event) -> {
+                switch (event.getType()) {
+                    case CHILD_ADDED:
+                    case CHILD_UPDATED:
+                    case CHILD_REMOVED:
+                    case INITIALIZED:
+                        rebuild();
+                        break;
+                    default:
+                        break;
+                }
+            });
+        }
+
+        /**
+         * 启动监听并同步加载实例
+         * @return 启动失败返回false
+         */
+        boolean start() {
+            try {
+                cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+                rebuild();
+                return true;
+            } catch (Exception e) {
+                log.error("监听服务 {} 失败", path, e);
+                return false;
+            } finally {
+                started.countDown();
+            }
+        }
+
+        /**
+         * 等待首次加载结束，被中断时返回当前视图
+         */
+        void awaitStarted() {
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 根据缓存的子节点重建实例视图，数据未变化的实例沿用上一次的解析结果
+         */
+        private synchronized void rebuild() {
+            Map<String, ServiceInstance> previous = new HashMap<>();
+            for (int i = 0; i < instances.size(); i++) {
+                previous.put(instances.get(i).getId(), instances.get(i));
+            }
+            List<ChildData> children = cache.getCurrentData();
+            ServiceInstance[] rebuilt = new ServiceInstance[children.size()];
+            for (int i = 0; i < rebuilt.length; i++) {
+                ChildData child = children.get(i);
+                String id = ZKPaths.getNodeFromPath(child.getPath());
+                long mzxid = child.getStat() == null ? 0 : child.getStat().getMzxid();
+                ServiceInstance old = previous.get(id);
+                rebuilt[i] = old != null && old.getMzxid() == mzxid ? old : ServiceInstance.parse(id, child.getData(), mzxid);
+            }
+            instances = new ServiceInstances(rebuilt);
+            log.debug("服务 {} 实例列表更新，共 {} 个实例", path, rebuilt.length);
+        }
+
+        void close() {
+            try {
+                cache.close();
+            } catch (Exception e) {
+                log.warn("关闭服务监听 {} 失败", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.zookeeper.discovery;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 服务实例，由实例节点的数据解析而来，解析只在节点新增或修改时进行一次
+ * 节点数据是json对象时，address字段为实例地址，weight字段为权重，其它字段作为元数据；
+ * 否则整个数据作为实例地址，权重为1
+ */
+@Slf4j
+public final class ServiceInstance {
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String id;
+    private final String address;
+    private final int weight;
+    private final Map<String, String> metadata;
+    /**
+     * 节点数据版本，未变化时复用已解析的实例
+     */
+    private final long mzxid;
+
+    private ServiceInstance(String id, String address, int weight, Map<String, String> metadata, long mzxid) {
+        this.id = id;
+        this.address = address;
+        this.weight = weight;
+        this.metadata = metadata;
+        this.mzxid = mzxid;
+    }
+
+    /**
+     * 解析实例节点数据
+     * @param id 实例节点名称
+     * @param data 节点数据
+     * @param mzxid 节点最后修改的zxid
+     * @return
+     */
+    static ServiceInstance parse(String id, byte[] data, long mzxid) {
+        String value = data == null ? "" : new String(data, StandardCharsets.UTF_8);
+        String trimmed = value.trim();
+        if (trimmed.startsWith("{")) {
+            try {
+                JsonNode json = MAPPER.readTree(trimmed);
+                Map<String, String> metadata = new LinkedHashMap<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    metadata.put(field.getKey(), field.getValue().isTextual()
+                            ? field.getValue().textValue() : field.getValue().toString());
+                }
+                String address = metadata.containsKey("address") ? metadata.get("address") : value;
+                int weight = json.path("weight").asInt(DEFAULT_WEIGHT);
+                return new ServiceInstance(id, address, Math.max(0, weight),
+                        Collections.unmodifiableMap(metadata), mzxid);
+            } catch (Exception e) {
+                log.warn("服务实例 {} 的数据不是合法的json，按地址处理", id);
+            }
+        }
+        return new ServiceInstance(id, value, DEFAULT_WEIGHT, Collections.emptyMap(), mzxid);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    long getMzxid() {
+        return mzxid;
+    }
+
+    @Override
+    public String toString() {
+        return id + "=" + address;
+    }
+}
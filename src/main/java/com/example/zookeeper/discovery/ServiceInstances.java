@@ -0,0 +1,158 @@
+package com.example.zookeeper.discovery;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务路径下实例的不可变视图，只在子节点变化时重建
+ * 加权选择用的前缀和、一致性哈希环在重建时预先计算好，选择时只做数组查找，不分配对象
+ */
+public final class ServiceInstances {
+
+    /**
+     * 一致性哈希环上每个单位权重对应的虚拟节点数
+     */
+    static final int VIRTUAL_NODES = 160;
+
+    public static final ServiceInstances EMPTY = new ServiceInstances(new ServiceInstance[0]);
+
+    private final ServiceInstance[] instances;
+    private final List<String> ids;
+    /**
+     * 权重前缀和，cumulativeWeights[i]为前i+1个实例的权重之和
+     */
+    private final long[] cumulativeWeights;
+    private final long[] ringHashes;
+    private final int[] ringOwners;
+    /**
+     * 轮询游标，重建后从0开始
+     */
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    ServiceInstances(ServiceInstance[] instances) {
+        this.instances = instances;
+        String[] names = new String[instances.length];
+        this.cumulativeWeights = new long[instances.length];
+        long total = 0;
+        int points = 0;
+        for (int i = 0; i < instances.length; i++) {
+            names[i] = instances[i].getId();
+            total += instances[i].getWeight();
+            cumulativeWeights[i] = total;
+            points += instances[i].getWeight() * VIRTUAL_NODES;
+        }
+        this.ids = Collections.unmodifiableList(Arrays.asList(names));
+
+        long[] hashes = new long[points];
+        int[] owners = new int[points];
+        int n = 0;
+        for (int i = 0; i < instances.length; i++) {
+            int replicas = instances[i].getWeight() * VIRTUAL_NODES;
+            for (int r = 0; r < replicas; r++) {
+                hashes[n] = hash((instances[i].getId() + "#" + r).hashCode());
+                owners[n] = i;
+                n++;
+            }
+        }
+        sortRing(hashes, owners);
+        this.ringHashes = hashes;
+        this.ringOwners = owners;
+    }
+
+    public int size() {
+        return instances.length;
+    }
+
+    public boolean isEmpty() {
+        return instances.length == 0;
+    }
+
+    public ServiceInstance get(int index) {
+        return instances[index];
+    }
+
+    /**
+     * 实例节点名称，不可修改
+     * @return
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    long getTotalWeight() {
+        return cumulativeWeights.length == 0 ? 0 : cumulativeWeights[cumulativeWeights.length - 1];
+    }
+
+    int nextCursor() {
+        return cursor.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * 按权重定位实例：第一个前缀和大于point的实例
+     * @param point 取值范围[0, 总权重)
+     */
+    ServiceInstance selectByWeight(long point) {
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] > point) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return instances[low];
+    }
+
+    /**
+     * 在哈希环上顺时针找到第一个不小于该哈希值的虚拟节点
+     */
+    ServiceInstance selectByHash(long hash) {
+        if (ringHashes.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(ringHashes, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == ringHashes.length) {
+            index = 0;
+        }
+        return instances[ringOwners[index]];
+    }
+
+    /**
+     * 把32位哈希扩散到64位(murmur3 fmix64)，使虚拟节点在环上分布均匀
+     */
+    static long hash(int h) {
+        long k = h;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * 按哈希值排序，owners随之调整
+     */
+    private static void sortRing(long[] hashes, int[] owners) {
+        long[] packed = new long[hashes.length];
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        int[] sortedOwners = new int[owners.length];
+        for (int i = 0; i < order.length; i++) {
+            packed[i] = hashes[order[i]];
+            sortedOwners[i] = owners[order[i]];
+        }
+        System.arraycopy(packed, 0, hashes, 0, hashes.length);
+        System.arraycopy(sortedOwners, 0, owners, 0, owners.length);
+    }
+}
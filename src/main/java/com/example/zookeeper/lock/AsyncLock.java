@@ -0,0 +1,253 @@
+package com.example.zookeeper.lock;
+
+import com.example.zookeeper.metrics.ZkMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 异步分布式锁
+ * 与Curator的InterProcessMutex、InterProcessReadWriteLock使用相同的节点命名和排序规则，可以和它们互斥。
+ * 所有zookeeper操作都用inBackground()发出，等待期间只在阻塞自己的节点上注册一个watcher，
+ * 由watch回调继续检查并完成future，不阻塞任何线程：挂起的获取请求再多，线程数也保持不变。
+ * 每次获取都会创建一个新的锁节点，不支持重入
+ */
+@Slf4j
+public class AsyncLock {
+
+    /**
+     * 锁类型，对应Curator的锁节点名
+     */
+    public enum Type {
+        MUTEX("lock-"),
+        READ("__READ__"),
+        WRITE("__WRIT__");
+
+        private final String lockName;
+
+        Type(String lockName) {
+            this.lockName = lockName;
+        }
+    }
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "async-lock-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final Type type;
+
+    public AsyncLock(CuratorFramework client, String basePath, Type type) {
+        this.client = client;
+        this.basePath = basePath;
+        this.type = type;
+    }
+
+    /**
+     * 与InterProcessMutex互斥的异步锁
+     */
+    public static AsyncLock mutex(CuratorFramework client, String basePath) {
+        return new AsyncLock(client, basePath, Type.MUTEX);
+    }
+
+    /**
+     * 与InterProcessReadWriteLock.readLock()兼容的异步读锁
+     */
+    public static AsyncLock readLock(CuratorFramework client, String basePath) {
+        return new AsyncLock(client, basePath, Type.READ);
+    }
+
+    /**
+     * 与InterProcessReadWriteLock.writeLock()兼容的异步写锁
+     */
+    public static AsyncLock writeLock(CuratorFramework client, String basePath) {
+        return new AsyncLock(client, basePath, Type.WRITE);
+    }
+
+    /**
+     * 异步获取锁，一直等待直到获取成功
+     * @return 获取到锁时完成；取消future会放弃等待并删除锁节点
+     */
+    public CompletableFuture<LockHandle> acquireAsync() {
+        return acquireAsync(-1, null);
+    }
+
+    /**
+     * 异步获取锁
+     * @param time 等待时间，小于0表示一直等待
+     * @param unit
+     * @return 获取到锁时完成，超时以TimeoutException完成
+     */
+    public CompletableFuture<LockHandle> acquireAsync(long time, TimeUnit unit) {
+        CompletableFuture<LockHandle> future = new CompletableFuture<>();
+        long waitStart = System.nanoTime();
+        future.whenComplete((handle, e) -> ZkMetrics.recordLockWait(metricName(), basePath, System.nanoTime() - waitStart,
+                e == null ? "acquired" : e instanceof TimeoutException ? "timeout" : "error"));
+        Attempt attempt = new Attempt(future);
+        if (unit != null && time >= 0) {
+            ScheduledFuture<?> timeout = TIMER.schedule(
+                    () -> future.completeExceptionally(new TimeoutException("获取锁超时: " + basePath)), time, unit);
+            future.whenComplete((handle, e) -> timeout.cancel(false));
+        }
+        attempt.start();
+        return future;
+    }
+
+    /**
+     * 一次获取锁的过程：创建节点 -> 检查排序 -> 监听阻塞节点 -> 被唤醒后重新检查
+     */
+    private class Attempt {
+        private final CompletableFuture<LockHandle> future;
+        private final AtomicBoolean cleaned = new AtomicBoolean();
+        private final Watcher watcher = watchedEvent -> checkLock();
+        private volatile String ourPath;
+
+        Attempt(CompletableFuture<LockHandle> future) {
+            this.future = future;
+            // 超时或取消时删除已创建的锁节点
+            future.whenComplete((handle, e) -> {
+                if (e != null) {
+                    cleanup();
+                }
+            });
+        }
+
+        void start() {
+            try {
+                client.create().creatingParentContainersIfNeeded().withProtection()
+                        .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                        .inBackground((client1, event) -> {
+                            if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                                fail(KeeperException.create(KeeperException.Code.get(event.getResultCode()), basePath));
+                                return;
+                            }
+                            ourPath = event.getName();
+                            if (future.isDone()) {
+                                cleanup();
+                            } else {
+                                checkLock();
+                            }
+                        }).forPath(ZKPaths.makePath(basePath, type.lockName));
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        void checkLock() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                client.getChildren().inBackground((client1, event) -> {
+                    if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                        fail(KeeperException.create(KeeperException.Code.get(event.getResultCode()), basePath));
+                        return;
+                    }
+                    evaluate(event.getChildren());
+                }).forPath(basePath);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void evaluate(List<String> children) {
+            List<String> sorted = sortedLockNodes(children);
+            int ourIndex = sorted.indexOf(ZKPaths.getNodeFromPath(ourPath));
+            if (ourIndex < 0) {
+                // 会话过期等原因导致自己的节点已被删除
+                fail(new KeeperException.NoNodeException(ourPath));
+                return;
+            }
+            String blocker = blockerOf(sorted, ourIndex);
+            if (blocker == null) {
+                if (!future.complete(new LockHandle(client, ourPath, metricName(), basePath))) {
+                    cleanup();
+                }
+                return;
+            }
+            try {
+                client.getData().usingWatcher(watcher).inBackground((client1, event) -> {
+                    KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (code == KeeperException.Code.NONODE) {
+                        // 阻塞节点已经释放，立即重新检查
+                        checkLock();
+                    } else if (code != KeeperException.Code.OK) {
+                        fail(KeeperException.create(code, blocker));
+                    }
+                }).forPath(ZKPaths.makePath(basePath, blocker));
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (future.completeExceptionally(e)) {
+                log.debug("异步获取锁失败: " + basePath, e);
+            }
+        }
+
+        private void cleanup() {
+            String path = ourPath;
+            if (path != null && cleaned.compareAndSet(false, true)) {
+                LockHandle.deleteAsync(client, path);
+            }
+        }
+    }
+
+    private String metricName() {
+        return "async-" + type.name().toLowerCase();
+    }
+
+    /**
+     * 找出阻塞当前节点的节点：互斥锁、写锁为前一个节点；读锁为排在前面最近的写锁节点
+     * @return 可以获取锁时返回null
+     */
+    private String blockerOf(List<String> sorted, int ourIndex) {
+        if (type != Type.READ) {
+            return ourIndex == 0 ? null : sorted.get(ourIndex - 1);
+        }
+        for (int i = ourIndex - 1; i >= 0; i--) {
+            if (sorted.get(i).contains(Type.WRITE.lockName)) {
+                return sorted.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 过滤出同一把锁的节点并按序号排序，读写锁的读、写节点一起排序
+     */
+    private List<String> sortedLockNodes(List<String> children) {
+        List<String> nodes = new ArrayList<>();
+        for (String child : children) {
+            if (type == Type.MUTEX ? child.contains(Type.MUTEX.lockName)
+                    : child.contains(Type.READ.lockName) || child.contains(Type.WRITE.lockName)) {
+                nodes.add(child);
+            }
+        }
+        nodes.sort(Comparator.comparing(AsyncLock::sequenceOf));
+        return nodes;
+    }
+
+    private static String sequenceOf(String node) {
+        for (Type type : Type.values()) {
+            int index = node.lastIndexOf(type.lockName);
+            if (index >= 0) {
+                return node.substring(index + type.lockName.length());
+            }
+        }
+        return node;
+    }
+}
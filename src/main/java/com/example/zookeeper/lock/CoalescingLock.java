@@ -0,0 +1,299 @@
+package com.example.zookeeper.lock;
+
+import com.example.zookeeper.metrics.ZkMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessLock;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内合并的分布式锁
+ * 同一JVM内竞争同一把锁的线程先在本地公平锁上排队，只有本地队首线程去持有zookeeper锁节点，
+ * 不再每个线程各自创建临时顺序节点和watch。
+ * 开启handoff时，释放锁的线程发现本地还有等待者，就直接把zookeeper锁交给下一个本地等待者，
+ * 省去一次释放、重新获取的往返；连续交接maxHandoffs次后强制释放一次，让其它进程有机会拿到锁。
+ * 交接对象可能在拿到本地锁之前超时或被中断，交接后由专用线程延迟检查：本地锁无人持有也无人等待时释放zookeeper锁。
+ * 连接挂起或丢失后不再交接，下一个本地持有者重新获取zookeeper锁(需要通过ConnectionStateListener注册到会话)。
+ * zookeeper锁的获取和释放都在同一个专用线程中执行，因此可以包装InterProcessMutex这类与线程绑定的锁。
+ * close()时释放空闲的zookeeper锁；锁正被本地线程持有时，由持有者释放时归还
+ */
+@Slf4j
+public class CoalescingLock implements InterProcessLock, ConnectionStateListener, Closeable {
+
+    public static final int DEFAULT_MAX_HANDOFFS = 16;
+    private static final String METRIC_NAME = "coalescing";
+    /**
+     * 交接后检查是否有人接手的延迟
+     */
+    private static final long HANDOFF_CHECK_MS = 100;
+
+    private final InterProcessLock delegate;
+    private final boolean handoff;
+    private final int maxHandoffs;
+    private final ReentrantLock localLock = new ReentrantLock(true);
+    private final ScheduledExecutorService owner;
+    // 指标中的锁路径标签
+    private final String lockPath;
+    // 以下状态只在持有localLock时读写
+    private boolean zkHeld;
+    private int handoffs;
+    private long acquiredNanos;
+    // 连接挂起或丢失后置位，zookeeper锁节点可能已经不属于本进程
+    private volatile boolean connectionLost;
+    private volatile boolean closed;
+
+    public CoalescingLock(InterProcessLock delegate) {
+        this(delegate, true, DEFAULT_MAX_HANDOFFS);
+    }
+
+    /**
+     * @param delegate 被包装的zookeeper锁，例如InterProcessMutex、DistributedLock
+     * @param handoff 本地还有等待者时是否直接交接zookeeper锁
+     * @param maxHandoffs 连续交接的最大次数
+     */
+    public CoalescingLock(InterProcessLock delegate, boolean handoff, int maxHandoffs) {
+        this(delegate, handoff, maxHandoffs, null);
+    }
+
+    /**
+     * @param delegate 被包装的zookeeper锁
+     * @param handoff 本地还有等待者时是否直接交接zookeeper锁
+     * @param maxHandoffs 连续交接的最大次数
+     * @param lockPath 锁路径，只用于指标标签
+     */
+    public CoalescingLock(InterProcessLock delegate, boolean handoff, int maxHandoffs, String lockPath) {
+        this.delegate = delegate;
+        this.lockPath = lockPath;
+        this.handoff = handoff;
+        this.maxHandoffs = maxHandoffs;
+        this.owner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coalescing-lock-owner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void acquire() throws Exception {
+        checkNotClosed();
+        long waitStart = System.nanoTime();
+        localLock.lockInterruptibly();
+        if (localLock.getHoldCount() > 1) {
+            return;
+        }
+        boolean success = false;
+        try {
+            success = ensureZkHeld(-1);
+        } finally {
+            acquired(waitStart, success);
+        }
+        if (!success) {
+            throw new IllegalStateException("获取zookeeper锁失败");
+        }
+    }
+
+    @Override
+    public boolean acquire(long time, TimeUnit unit) throws Exception {
+        checkNotClosed();
+        long waitStart = System.nanoTime();
+        long deadline = waitStart + unit.toNanos(time);
+        if (!localLock.tryLock(time, unit)) {
+            ZkMetrics.recordLockWait(METRIC_NAME, lockPath, System.nanoTime() - waitStart, "timeout");
+            return false;
+        }
+        if (localLock.getHoldCount() > 1) {
+            return true;
+        }
+        boolean success = false;
+        try {
+            success = ensureZkHeld(Math.max(0, deadline - System.nanoTime()));
+        } finally {
+            acquired(waitStart, success);
+        }
+        return success;
+    }
+
+    /**
+     * 记录等锁耗时，失败时释放本地锁
+     */
+    private void acquired(long waitStart, boolean success) {
+        long now = System.nanoTime();
+        ZkMetrics.recordLockWait(METRIC_NAME, lockPath, now - waitStart, success ? "acquired" : "timeout");
+        if (success) {
+            acquiredNanos = now;
+        } else {
+            localLock.unlock();
+        }
+    }
+
+    @Override
+    public void release() throws Exception {
+        if (!localLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("当前线程未持有锁");
+        }
+        try {
+            if (localLock.getHoldCount() > 1) {
+                return;
+            }
+            ZkMetrics.recordLockHold(METRIC_NAME, lockPath, System.nanoTime() - acquiredNanos);
+            if (!zkHeld) {
+                return;
+            }
+            if (handoff && !closed && !connectionLost && handoffs < maxHandoffs && localLock.hasQueuedThreads()) {
+                // 直接交给本地下一个等待者，等待者放弃时由专用线程释放
+                handoffs++;
+                owner.schedule(this::releaseIfAbandoned, HANDOFF_CHECK_MS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            zkHeld = false;
+            runOnOwner(() -> {
+                delegate.release();
+                return true;
+            });
+        } finally {
+            // 已关闭时由最后释放zookeeper锁的持有者关闭专用线程
+            boolean shutdown = closed && !zkHeld;
+            localLock.unlock();
+            if (shutdown) {
+                owner.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 交接后的检查，在专用线程上执行：本地锁空闲且没有等待者，说明交接对象已经放弃，释放zookeeper锁
+     */
+    private void releaseIfAbandoned() {
+        if (!localLock.tryLock()) {
+            // 已有线程接手
+            return;
+        }
+        try {
+            if (zkHeld && !localLock.hasQueuedThreads()) {
+                zkHeld = false;
+                delegate.release();
+            }
+        } catch (Exception e) {
+            log.warn("释放无人接手的zookeeper锁失败: {}", lockPath, e);
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    /**
+     * 连接挂起或丢失时停止交接，之后的持有者重新获取zookeeper锁
+     */
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST) {
+            connectionLost = true;
+        }
+    }
+
+    @Override
+    public boolean isAcquiredInThisProcess() {
+        return delegate.isAcquiredInThisProcess();
+    }
+
+    /**
+     * 本地等待的线程数
+     * @return
+     */
+    public int getQueueLength() {
+        return localLock.getQueueLength();
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("锁已关闭");
+        }
+    }
+
+    /**
+     * 本地队首线程确保持有zookeeper锁
+     * @param nanos 等待时间，小于0表示一直等待
+     */
+    private boolean ensureZkHeld(long nanos) throws Exception {
+        if (zkHeld && connectionLost) {
+            // 交接来的锁节点可能随会话失效，先释放再重新获取
+            zkHeld = false;
+            try {
+                runOnOwner(() -> {
+                    delegate.release();
+                    return true;
+                });
+            } catch (Exception e) {
+                log.warn("连接中断后释放zookeeper锁失败: {}", lockPath, e);
+            }
+        }
+        if (zkHeld) {
+            return true;
+        }
+        connectionLost = false;
+        zkHeld = runOnOwner(() -> {
+            if (nanos < 0) {
+                delegate.acquire();
+                return true;
+            }
+            return delegate.acquire(nanos, TimeUnit.NANOSECONDS);
+        });
+        handoffs = 0;
+        return zkHeld;
+    }
+
+    /**
+     * 在专用线程上执行zookeeper锁操作并等待结果。
+     * 等待期间不响应中断，避免专用线程拿到锁后调用方已经放弃，中断标记在返回前恢复
+     */
+    private boolean runOnOwner(Callable<Boolean> action) throws Exception {
+        Future<Boolean> future = owner.submit(action);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 关闭后不能再获取锁。交接后空闲的zookeeper锁在这里释放；
+     * 锁正被本地线程持有时不等待，持有者release()时释放zookeeper锁并关闭专用线程
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (!localLock.tryLock()) {
+            return;
+        }
+        try {
+            if (zkHeld) {
+                zkHeld = false;
+                runOnOwner(() -> {
+                    delegate.release();
+                    return true;
+                });
+            }
+        } catch (Exception e) {
+            log.warn("关闭时释放zookeeper锁失败: {}", lockPath, e);
+        } finally {
+            localLock.unlock();
+            owner.shutdown();
+        }
+    }
+}
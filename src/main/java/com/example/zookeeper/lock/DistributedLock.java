@@ -1,104 +1,248 @@
 package com.example.zookeeper.lock;
 
-import lombok.SneakyThrows;
-import org.apache.zookeeper.*;
-import org.apache.zookeeper.data.Stat;
-
-import java.io.IOException;
-import java.util.Collections;
+import com.example.zookeeper.metrics.ZkMetrics;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.recipes.locks.InterProcessLock;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-
-public class DistributedLock {
-
-    private final ZooKeeper zk;
-    private final CountDownLatch connectLatch = new CountDownLatch(1);
-    private final CountDownLatch waitLatch = new CountDownLatch(1);
-
-    private String waitPath;
-    private String currentMode;
-
-    public DistributedLock() throws IOException, InterruptedException, KeeperException {
-        // 获取连接
-        String connectString = "localhost:2181";
-        int sessionTimeout = 2000;
-        zk = new ZooKeeper(connectString, sessionTimeout, new Watcher() {
-            @Override
-            public void process(WatchedEvent watchedEvent) {
-                // connectLatch  如果连接上zk  可以释放
-                if (watchedEvent.getState() == Event.KeeperState.SyncConnected){
-                    connectLatch.countDown();
-                }
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于临时顺序节点的分布式可重入锁
+ * 所有锁实例共用同一个zookeeper会话；每个等待者只监听排在自己前面的一个节点(无羊群效应)，
+ * 被监听的节点已经不存在时立即重新检查。同一线程可重入，实例可以反复加锁、解锁，
+ * 获取锁的延迟只取决于一次往返加上前一个持有者的释放时间
+ */
+public class DistributedLock implements InterProcessLock {
+
+    private static final String LOCK_NAME = "seq-";
+    private static final String METRIC_NAME = "distributed";
+
+    private final CuratorFramework client;
+    private final String lockRoot;
+    private final ConcurrentMap<Thread, LockData> threadData = new ConcurrentHashMap<>();
+
+    // 被监听的前一个节点发生变化(删除)时唤醒等待线程重新检查
+    private final Watcher watcher = watchedEvent -> notifyWaiters();
+
+    public DistributedLock(CuratorFramework client) {
+        this(client, "/locks");
+    }
 
-                // waitLatch  需要释放
-                if (watchedEvent.getType()== Event.EventType.NodeDeleted && watchedEvent.getPath().equals(waitPath)){
-                    waitLatch.countDown();
-                }
-            }
-        });
+    /**
+     * @param client 共用的zookeeper会话
+     * @param lockRoot 锁节点的父节点，不存在时自动创建
+     */
+    public DistributedLock(CuratorFramework client, String lockRoot) {
+        this.client = client;
+        this.lockRoot = lockRoot;
+    }
 
-        // 等待zk正常连接后，往下走程序
-        connectLatch.await();
+    // 对zk加锁
+    public void zklock() throws Exception {
+        acquire();
+    }
+
+    /**
+     * 在指定时间内尝试加锁
+     * @param time
+     * @param unit
+     * @return 超时返回false
+     * @throws Exception
+     */
+    public boolean tryLock(long time, TimeUnit unit) throws Exception {
+        return acquire(time, unit);
+    }
 
-        // 判断根节点/locks是否存在
-        Stat stat = zk.exists("/locks", false);
+    // 解锁
+    public void unZkLock() throws Exception {
+        release();
+    }
 
-        if (stat == null) {
-            // 创建一下根节点
-            zk.create("/locks", "locks".getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    @Override
+    public void acquire() throws Exception {
+        if (!internalLock(-1, null)) {
+            throw new IllegalStateException("获取锁失败，客户端已关闭: " + lockRoot);
         }
     }
 
-    // 对zk加锁
-    @SneakyThrows
-    public void zklock() {
-        // 创建对应的临时带序号节点
-        currentMode = zk.create("/locks/" + "seq-", null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+    @Override
+    public boolean acquire(long time, TimeUnit unit) throws Exception {
+        return internalLock(time, unit);
+    }
+
+    @Override
+    public void release() throws Exception {
+        Thread currentThread = Thread.currentThread();
+        LockData lockData = threadData.get(currentThread);
+        if (lockData == null) {
+            throw new IllegalMonitorStateException("当前线程未持有锁: " + lockRoot);
+        }
+        if (lockData.lockCount.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            // 删除节点
+            client.delete().guaranteed().forPath(lockData.lockPath);
+        } finally {
+            threadData.remove(currentThread);
+            ZkMetrics.recordLockHold(METRIC_NAME, lockRoot, System.nanoTime() - lockData.acquiredNanos);
+        }
+    }
 
-        // wait一小会, 让结果更清晰一些
-        Thread.sleep(10);
+    @Override
+    public boolean isAcquiredInThisProcess() {
+        return !threadData.isEmpty();
+    }
 
-        // 判断创建的节点是否是最小的序号节点，如果是获取到锁；如果不是，监听他序号前一个节点
+    /**
+     * 当前线程是否持有锁
+     * @return
+     */
+    public boolean isOwnedByCurrentThread() {
+        return threadData.containsKey(Thread.currentThread());
+    }
 
-        List<String> children = zk.getChildren("/locks", false);
+    /**
+     * 当前线程持有的锁节点路径
+     * @return 未持有锁返回null
+     */
+    public String getLockPath() {
+        LockData lockData = threadData.get(Thread.currentThread());
+        return lockData == null ? null : lockData.lockPath;
+    }
 
-        // 如果children 只有一个值，那就直接获取锁； 如果有多个节点，需要判断，谁最小
-        if (children.size() == 1) {
-            return;
-        } else {
-            Collections.sort(children);
-
-            // 获取节点名称 seq-00000000
-            String thisNode = currentMode.substring("/locks/".length());
-            // 通过seq-00000000获取该节点在children集合的位置
-            int index = children.indexOf(thisNode);
-
-            // 判断
-            if (index == -1) {
-                System.out.println("数据异常");
-            } else if (index == 0) {
-                // 就一个节点，可以获取锁了
-                return;
-            } else {
-                // 需要监听  他前一个节点变化
-                waitPath = "/locks/" + children.get(index - 1);
-                zk.getData(waitPath,true,new Stat());
-
-                // 等待监听
-                waitLatch.await();
-
-                return;
+    private boolean internalLock(long time, TimeUnit unit) throws Exception {
+        Thread currentThread = Thread.currentThread();
+        LockData lockData = threadData.get(currentThread);
+        if (lockData != null) {
+            // 重入
+            lockData.lockCount.incrementAndGet();
+            return true;
+        }
+        long waitStart = System.nanoTime();
+        String lockPath;
+        try {
+            lockPath = attemptLock(time, unit);
+        } catch (Exception e) {
+            ZkMetrics.recordLockWait(METRIC_NAME, lockRoot, System.nanoTime() - waitStart, "error");
+            throw e;
+        }
+        ZkMetrics.recordLockWait(METRIC_NAME, lockRoot, System.nanoTime() - waitStart, lockPath != null ? "acquired" : "timeout");
+        if (lockPath != null) {
+            threadData.put(currentThread, new LockData(lockPath));
+            return true;
+        }
+        return false;
+    }
+
+    private String attemptLock(long time, TimeUnit unit) throws Exception {
+        long startMillis = System.currentTimeMillis();
+        Long millisToWait = (unit != null) ? unit.toMillis(time) : null;
+        // 创建对应的临时带序号节点，withProtection保证创建时连接丢失也能找回自己的节点
+        String ourPath = client.create().creatingParentContainersIfNeeded().withProtection()
+                .withMode(CreateMode.EPHEMERAL_SEQUENTIAL).forPath(ZKPaths.makePath(lockRoot, LOCK_NAME));
+        boolean hasLock = false;
+        try {
+            hasLock = waitForLock(ourPath, startMillis, millisToWait);
+        } finally {
+            if (!hasLock) {
+                deleteQuietly(ourPath);
             }
         }
+        return hasLock ? ourPath : null;
+    }
 
+    /**
+     * 判断自己是否是最小的序号节点，如果是获取到锁；如果不是，监听前一个节点后等待，被唤醒后重新检查
+     */
+    private boolean waitForLock(String ourPath, long startMillis, Long millisToWait) throws Exception {
+        String ourNode = ZKPaths.getNodeFromPath(ourPath);
+        while (client.getState() == CuratorFrameworkState.STARTED) {
+            List<String> children = getSortedChildren();
+            int index = children.indexOf(ourNode);
+            if (index < 0) {
+                // 会话过期等原因导致自己的节点已被删除
+                throw new KeeperException.NoNodeException(ourPath);
+            }
+            if (index == 0) {
+                return true;
+            }
+            String waitPath = ZKPaths.makePath(lockRoot, children.get(index - 1));
+            synchronized (this) {
+                try {
+                    // 需要监听他前一个节点变化，节点不存在时getData不会留下watch，直接重新检查
+                    client.getData().usingWatcher(watcher).forPath(waitPath);
+                    if (millisToWait == null) {
+                        wait();
+                    } else {
+                        long remaining = millisToWait - (System.currentTimeMillis() - startMillis);
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        wait(remaining);
+                    }
+                } catch (KeeperException.NoNodeException e) {
+                    // 前一个节点已经释放，重新检查
+                }
+            }
+        }
+        return false;
     }
 
-    // 解锁
-    @SneakyThrows
-    public void unZkLock() {
-        // 删除节点
-        zk.delete(this.currentMode,-1);
+    /**
+     * 获取锁节点并按序号排序，忽略非锁节点
+     */
+    private List<String> getSortedChildren() throws Exception {
+        List<String> children = new ArrayList<>();
+        for (String child : client.getChildren().forPath(lockRoot)) {
+            if (child.contains(LOCK_NAME)) {
+                children.add(child);
+            }
+        }
+        children.sort(Comparator.comparing(DistributedLock::sequenceOf));
+        return children;
+    }
 
+    /**
+     * 节点名中的序号部分，withProtection会在节点名前加上_c_{uuid}-前缀
+     */
+    static String sequenceOf(String node) {
+        int index = node.lastIndexOf(LOCK_NAME);
+        return index < 0 ? node : node.substring(index + LOCK_NAME.length());
     }
 
-}
\ No newline at end of file
+    private synchronized void notifyWaiters() {
+        notifyAll();
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            client.delete().guaranteed().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            // 已删除
+        } catch (Exception e) {
+            // guaranteed()会在后台继续重试删除
+        }
+    }
+
+    private static class LockData {
+        final String lockPath;
+        final AtomicInteger lockCount = new AtomicInteger(1);
+        final long acquiredNanos = System.nanoTime();
+
+        LockData(String lockPath) {
+            this.lockPath = lockPath;
+        }
+    }
+}
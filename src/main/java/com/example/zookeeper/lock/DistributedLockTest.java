@@ -1,16 +1,23 @@
 package com.example.zookeeper.lock;
 
-import org.apache.zookeeper.KeeperException;
-import java.io.IOException;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+
+import java.util.concurrent.TimeUnit;
 
 public class DistributedLockTest {
 
-    public static void main(String[] args) throws InterruptedException, IOException, KeeperException {
+    public static void main(String[] args) throws InterruptedException {
+
+       // 两把锁共用一个会话
+       final CuratorFramework client = CuratorFrameworkFactory.newClient("localhost:2181", new ExponentialBackoffRetry(1000, 3));
+       client.start();
 
-       final  DistributedLock lock1 = new DistributedLock();
-       final  DistributedLock lock2 = new DistributedLock();
+       final  DistributedLock lock1 = new DistributedLock(client);
+       final  DistributedLock lock2 = new DistributedLock(client);
 
-       new Thread(new Runnable() {
+       Thread thread1 = new Thread(new Runnable() {
            @Override
            public void run() {
                try {
@@ -20,28 +27,36 @@ public class DistributedLockTest {
 
                    lock1.unZkLock();
                    System.out.println("线程1 释放锁");
-               } catch (InterruptedException e) {
+               } catch (Exception e) {
                    e.printStackTrace();
                }
            }
-       }).start();
+       });
 
-        new Thread(new Runnable() {
+        Thread thread2 = new Thread(new Runnable() {
             @Override
             public void run() {
 
                 try {
-                    lock2.zklock();
+                    if (!lock2.tryLock(10, TimeUnit.SECONDS)) {
+                        System.out.println("线程2 获取锁超时");
+                        return;
+                    }
                     System.out.println("线程2 启动，获取到锁");
                     Thread.sleep(5 * 1000);
 
                     lock2.unZkLock();
                     System.out.println("线程2 释放锁");
-                } catch (InterruptedException e) {
+                } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
-        }).start();
+        });
 
+        thread1.start();
+        thread2.start();
+        thread1.join();
+        thread2.join();
+        client.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+package com.example.zookeeper.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带租约和fencing token的分布式锁
+ * 获取锁后返回Lease：
+ * 1. fencingToken：锁节点的czxid，全局单调递增，不随锁根节点重建而回退，下游存储可以拒绝token比已见过的更小的写入，
+ *    防止GC停顿后会话已过期的旧持有者继续写入
+ * 2. 本地租约截止时间：获取锁后再确认一次锁节点存在，以这次请求发出的本地时间 + 会话超时 * leaseRatio。
+ *    会话在服务端至少要等超时后才会过期，因此截止时间之前，被保护的代码只需读一次本地时钟就能判断锁仍然有效，无需再访问zookeeper。
+ * 连接SUSPENDED或LOST时，本实例发出的所有租约立即失效。同一锁根节点共用一个实例，close时注销连接状态监听
+ */
+@Slf4j
+public class LeaseLock implements Closeable {
+
+    public static final double DEFAULT_LEASE_RATIO = 2.0 / 3;
+
+    private final CuratorFramework client;
+    private final DistributedLock lock;
+    private final double leaseRatio;
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final ConnectionStateListener connectionStateListener = (client1, state) -> {
+        if (state == ConnectionState.SUSPENDED || state == ConnectionState.LOST) {
+            log.warn("zookeeper连接状态{}，{}个锁租约失效", state, leases.size());
+            leases.forEach(Lease::revoke);
+        }
+    };
+
+    public LeaseLock(CuratorFramework client, String lockRoot) {
+        this(client, lockRoot, DEFAULT_LEASE_RATIO);
+    }
+
+    /**
+     * @param client 共用的zookeeper会话
+     * @param lockRoot 锁节点的父节点
+     * @param leaseRatio 租约时长占会话超时的比例，取值(0,1)，留出时钟误差和网络延迟的余量
+     */
+    public LeaseLock(CuratorFramework client, String lockRoot, double leaseRatio) {
+        this.client = client;
+        this.lock = new DistributedLock(client, lockRoot);
+        this.leaseRatio = leaseRatio;
+        client.getConnectionStateListenable().addListener(connectionStateListener);
+    }
+
+    /**
+     * 加锁，一直等待直到获取锁
+     * @return 租约
+     * @throws Exception
+     */
+    public Lease acquire() throws Exception {
+        lock.acquire();
+        return newLease();
+    }
+
+    /**
+     * 在指定时间内尝试加锁
+     * @param time
+     * @param unit
+     * @return 租约，超时返回null
+     * @throws Exception
+     */
+    public Lease tryAcquire(long time, TimeUnit unit) throws Exception {
+        if (!lock.acquire(time, unit)) {
+            return null;
+        }
+        return newLease();
+    }
+
+    /**
+     * 确认锁节点存在，从这次请求发出的时间计算截止时间，czxid作为fencing token
+     */
+    private Lease newLease() throws Exception {
+        String lockPath = lock.getLockPath();
+        try {
+            long startNanos = System.nanoTime();
+            Stat stat = client.checkExists().forPath(lockPath);
+            if (stat == null) {
+                throw new IllegalStateException("锁节点已不存在: " + lockPath);
+            }
+            Lease lease = new Lease(lockPath, stat.getCzxid(), startNanos + leaseNanos());
+            leases.add(lease);
+            return lease;
+        } catch (Exception e) {
+            lock.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 租约时长：协商后的会话超时 * leaseRatio
+     */
+    private long leaseNanos() throws Exception {
+        int sessionTimeoutMs = client.getZookeeperClient().getZooKeeper().getSessionTimeout();
+        return (long) (TimeUnit.MILLISECONDS.toNanos(sessionTimeoutMs) * leaseRatio);
+    }
+
+    @Override
+    public void close() {
+        client.getConnectionStateListenable().removeListener(connectionStateListener);
+        leases.forEach(Lease::revoke);
+    }
+
+    /**
+     * 锁租约
+     */
+    public class Lease implements Closeable {
+        private final String lockPath;
+        private final long fencingToken;
+        private volatile long deadlineNanos;
+        private volatile boolean revoked;
+
+        private Lease(String lockPath, long fencingToken, long deadlineNanos) {
+            this.lockPath = lockPath;
+            this.fencingToken = fencingToken;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * 本地判断租约是否仍然有效，只读一次本地时钟，不访问zookeeper
+         * @return
+         */
+        public boolean isValid() {
+            return !revoked && System.nanoTime() - deadlineNanos < 0;
+        }
+
+        /**
+         * 剩余有效时间(毫秒)，已失效返回0
+         * @return
+         */
+        public long remainingMillis() {
+            if (revoked) {
+                return 0;
+            }
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+        }
+
+        /**
+         * 续约：确认锁节点仍然存在后，从本次请求发出的时间重新计算截止时间
+         * @return 锁节点已不存在或租约已失效返回false
+         * @throws Exception
+         */
+        public boolean renew() throws Exception {
+            if (revoked) {
+                return false;
+            }
+            long startNanos = System.nanoTime();
+            if (client.checkExists().forPath(lockPath) == null) {
+                revoke();
+                return false;
+            }
+            deadlineNanos = startNanos + leaseNanos();
+            return !revoked;
+        }
+
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        public String getLockPath() {
+            return lockPath;
+        }
+
+        private void revoke() {
+            revoked = true;
+        }
+
+        /**
+         * 释放锁，必须由获取锁的线程调用
+         * @throws Exception
+         */
+        public void release() throws Exception {
+            revoke();
+            leases.remove(this);
+            lock.release();
+        }
+
+        @Override
+        public void close() {
+            try {
+                release();
+            } catch (Exception e) {
+                log.error("释放锁错误: " + lockPath, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.zookeeper.lock;
+
+import com.example.zookeeper.metrics.ZkMetrics;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 异步获取到的锁，持有一个锁节点，释放时异步删除该节点。
+ * 不与线程绑定，可以在任意线程释放
+ */
+public class LockHandle implements AutoCloseable {
+
+    private final CuratorFramework client;
+    private final String lockPath;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final CompletableFuture<Void> releaseFuture = new CompletableFuture<>();
+    // 指标标签
+    private final String metricName;
+    private final String basePath;
+    private final long acquiredNanos = System.nanoTime();
+
+    LockHandle(CuratorFramework client, String lockPath, String metricName, String basePath) {
+        this.client = client;
+        this.lockPath = lockPath;
+        this.metricName = metricName;
+        this.basePath = basePath;
+    }
+
+    /**
+     * 异步释放锁，重复调用返回同一个future
+     * @return 锁节点删除后完成
+     */
+    public CompletableFuture<Void> releaseAsync() {
+        if (released.compareAndSet(false, true)) {
+            ZkMetrics.recordLockHold(metricName, basePath, System.nanoTime() - acquiredNanos);
+            deleteAsync(client, lockPath).whenComplete((v, e) -> {
+                if (e == null) {
+                    releaseFuture.complete(null);
+                } else {
+                    releaseFuture.completeExceptionally(e);
+                }
+            });
+        }
+        return releaseFuture;
+    }
+
+    /**
+     * 释放锁，不等待节点删除完成；guaranteed删除会在会话有效期内持续重试
+     */
+    @Override
+    public void close() {
+        releaseAsync();
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    public String getLockPath() {
+        return lockPath;
+    }
+
+    /**
+     * 异步删除锁节点，节点不存在视为成功
+     */
+    static CompletableFuture<Void> deleteAsync(CuratorFramework client, String path) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            client.delete().guaranteed().inBackground((client1, event) -> {
+                KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (code == KeeperException.Code.OK || code == KeeperException.Code.NONODE) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
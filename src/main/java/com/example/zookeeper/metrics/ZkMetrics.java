@@ -0,0 +1,268 @@
+package com.example.zookeeper.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * zookeeper操作的Micrometer指标
+ * 默认注册到Metrics.globalRegistry(CompositeMeterRegistry)：没有Actuator等实现加入时不记录任何数据，
+ * Spring Boot Actuator会把自己的注册表(例如Prometheus)加入全局注册表，指标随之通过/actuator暴露。
+ * 路径只保留前pathPrefixDepth层作为标签，避免顺序节点、id等让标签基数无限增长；
+ * 不同的路径标签值最多maxPathTags个，之后新出现的前缀都记为other。
+ * 百分位直方图每个计时器会多出几十个桶，默认不发布，需要时通过setPercentileHistogram开启
+ *
+ * 指标：
+ * zk.operation            操作耗时，标签operation、path、outcome
+ * zk.operation.errors     操作失败次数，标签operation、path、exception
+ * zk.cache.requests       缓存访问次数，标签cache、result(hit/miss)
+ * zk.connection.state     连接状态变化次数，标签client、state
+ * zk.lock.wait            等锁耗时，标签lock、path、result(acquired/timeout/error)
+ * zk.lock.hold            持锁时长，标签lock、path
+ */
+public final class ZkMetrics {
+
+    private static volatile MeterRegistry registry = Metrics.globalRegistry;
+    private static volatile int pathPrefixDepth = 2;
+    private static volatile int maxPathTags = 100;
+    private static volatile boolean percentileHistogram = false;
+    /**
+     * 超过maxPathTags后新出现的路径前缀使用的标签值
+     */
+    public static final String OTHER_PATH = "other";
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Set<String> PATH_TAGS = ConcurrentHashMap.newKeySet();
+
+    private ZkMetrics() {
+    }
+
+    /**
+     * 替换注册表，例如基准测试中使用SimpleMeterRegistry
+     * @param meterRegistry
+     */
+    public static void setRegistry(MeterRegistry meterRegistry) {
+        registry = meterRegistry;
+        TIMERS.clear();
+        COUNTERS.clear();
+        PATH_TAGS.clear();
+    }
+
+    public static MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param depth 路径标签保留的层数
+     */
+    public static void setPathPrefixDepth(int depth) {
+        pathPrefixDepth = Math.max(0, depth);
+    }
+
+    /**
+     * @param max 路径标签不同取值的上限，只影响之后新出现的前缀
+     */
+    public static void setMaxPathTags(int max) {
+        maxPathTags = Math.max(1, max);
+    }
+
+    /**
+     * @param enabled 计时器是否发布百分位直方图，只影响之后创建的计时器
+     */
+    public static void setPercentileHistogram(boolean enabled) {
+        percentileHistogram = enabled;
+    }
+
+    /**
+     * 执行一个同步操作并记录耗时，失败时记录错误次数后原样抛出
+     * @param operation 操作名
+     * @param path 节点路径，可以为null
+     * @param call
+     * @return
+     * @throws Exception
+     */
+    public static <T> T record(String operation, String path, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            timer(operation, path, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Exception e) {
+            recordError(operation, path, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 记录一个同步操作，操作本身不抛出受检异常
+     */
+    public static <T> T recordSupplier(String operation, String path, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            timer(operation, path, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (RuntimeException e) {
+            recordError(operation, path, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 在future完成时记录异步操作的耗时和错误
+     * @return 原future
+     */
+    public static <T> CompletableFuture<T> recordAsync(String operation, String path, CompletableFuture<T> future) {
+        long start = System.nanoTime();
+        future.whenComplete((v, e) -> {
+            if (e == null) {
+                timer(operation, path, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } else {
+                recordError(operation, path, start, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 缓存命中或未命中
+     * @param cache 缓存名
+     * @param hit
+     */
+    public static void recordCacheAccess(String cache, boolean hit) {
+        counter("zk.cache.requests", "cache", cache, "result", hit ? "hit" : "miss").increment();
+    }
+
+    /**
+     * 把已有的命中、未命中计数绑定为指标，由Micrometer在采集时读取
+     */
+    public static <T> void bindCacheCounters(String cache, T source, ToDoubleFunction<T> hits, ToDoubleFunction<T> misses,
+                                             ToDoubleFunction<T> evictions, ToDoubleFunction<T> size) {
+        FunctionCounter.builder("zk.cache.requests", source, hits).tags("cache", cache, "result", "hit").register(registry);
+        FunctionCounter.builder("zk.cache.requests", source, misses).tags("cache", cache, "result", "miss").register(registry);
+        FunctionCounter.builder("zk.cache.evictions", source, evictions).tags("cache", cache).register(registry);
+        Gauge.builder("zk.cache.size", source, size).tags("cache", cache).register(registry);
+        Gauge.builder("zk.cache.hit.ratio", source, s -> {
+            double h = hits.applyAsDouble(s);
+            double total = h + misses.applyAsDouble(s);
+            return total == 0 ? 0 : h / total;
+        }).tags("cache", cache).register(registry);
+    }
+
+    /**
+     * 注册一个瞬时值指标，例如监听数、队列长度
+     */
+    public static <T> void gauge(String name, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value).tags(tags).register(registry);
+    }
+
+    /**
+     * 连接状态变化
+     * @param client 客户端名称
+     * @param state 新状态
+     */
+    public static void recordConnectionState(String client, String state) {
+        counter("zk.connection.state", "client", client, "state", state).increment();
+    }
+
+    /**
+     * 等锁耗时
+     * @param lock 锁类型
+     * @param path 锁路径
+     * @param waitNanos
+     * @param result acquired、timeout或error
+     */
+    public static void recordLockWait(String lock, String path, long waitNanos, String result) {
+        lockTimer("zk.lock.wait", lock, path, result).record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 持锁时长
+     */
+    public static void recordLockHold(String lock, String path, long holdNanos) {
+        lockTimer("zk.lock.hold", lock, path, null).record(holdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 截取路径的前几层作为标签，例如/a/b/c/d -> /a/b
+     * @param path
+     * @return
+     */
+    public static String pathPrefix(String path) {
+        if (path == null || path.isEmpty()) {
+            return "none";
+        }
+        int depth = pathPrefixDepth;
+        int index = 0;
+        for (int i = 0; i < depth; i++) {
+            int next = path.indexOf('/', index + 1);
+            if (next < 0) {
+                return path;
+            }
+            index = next;
+        }
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    private static void recordError(String operation, String path, long start, Throwable e) {
+        timer(operation, path, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        counter("zk.operation.errors", "operation", operation, "path", pathTag(path),
+                "exception", e.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * 路径前缀作为标签值，不同取值达到上限后新的前缀记为other
+     */
+    static String pathTag(String path) {
+        String prefix = pathPrefix(path);
+        if (PATH_TAGS.contains(prefix)) {
+            return prefix;
+        }
+        // 并发时可能略微超过上限，只需保证基数有界
+        if (PATH_TAGS.size() >= maxPathTags) {
+            return OTHER_PATH;
+        }
+        PATH_TAGS.add(prefix);
+        return prefix;
+    }
+
+    private static Timer timer(String operation, String path, String outcome) {
+        String prefix = pathTag(path);
+        return TIMERS.computeIfAbsent("zk.operation|" + operation + "|" + prefix + "|" + outcome,
+                k -> Timer.builder("zk.operation")
+                        .tags("operation", operation, "path", prefix, "outcome", outcome)
+                        .publishPercentileHistogram(percentileHistogram)
+                        .register(registry));
+    }
+
+    private static Timer lockTimer(String name, String lock, String path, String result) {
+        String prefix = pathTag(path);
+        return TIMERS.computeIfAbsent(name + "|" + lock + "|" + prefix + "|" + result, k -> {
+            Timer.Builder builder = Timer.builder(name).tags("lock", lock, "path", prefix)
+                    .publishPercentileHistogram(percentileHistogram);
+            if (result != null) {
+                builder.tag("result", result);
+            }
+            return builder.register(registry);
+        });
+    }
+
+    private static Counter counter(String name, String... tags) {
+        return COUNTERS.computeIfAbsent(name + "|" + String.join("|", tags),
+                k -> Counter.builder(name).tags(tags).register(registry));
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.zookeeper.two;
+
+import com.example.zookeeper.two.utils.SocketCheckUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.ensemble.EnsembleProvider;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按延迟排序的集群连接串
+ * 定时并行探测所有集群节点的tcp连接耗时(指数滑动平均)和连续失败次数,
+ * 交给Curator的连接串中健康节点按耗时从低到高排在前面,不健康的节点排在最后作为兜底。
+ * zookeeper 3.5+ 客户端支持updateServerList时,连接串变化由Curator在同一会话内切换服务器,不需要重建客户端和监听;
+ * 3.4 客户端不支持,连接串变化会让Curator重建会话,因此固定使用首次探测得到的连接串,
+ * 当前服务器不可用时由zookeeper客户端在同一会话内自动切换到连接串中的其它节点。
+ * 也就是说在3.4上延迟排序只影响首次连接使用的连接串(3.4客户端仍会打乱其中节点的顺序),之后的prefer不生效,
+ * 也不再定时探测;需要切换到指定节点时用固定节点的连接串重建客户端
+ */
+@Slf4j
+public class LatencyAwareEnsembleProvider implements EnsembleProvider {
+
+	//连续失败多少次判为不健康
+	private static final int MAX_FAILURES = 3;
+	//新的最优节点比当前首选节点快这个比例以上才切换,避免抖动
+	private static final double SWITCH_THRESHOLD = 0.8;
+	//滑动平均系数
+	private static final double EWMA_ALPHA = 0.3;
+
+	private static final boolean UPDATE_SERVER_LIST_SUPPORTED = isUpdateServerListSupported();
+
+	private final Map<String, Member> members = new LinkedHashMap<>();
+	private final int probeTimeoutMs;
+	private final long probeIntervalMs;
+	private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "zk-ensemble-probe");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile String connectionString;
+	//人为指定的首选节点
+	private volatile String preferred;
+	//固定使用的节点,不为null时连接串只包含这个节点
+	private final String pinned;
+
+	/**
+	 * @param servers         集群节点(ip:port)
+	 * @param probeTimeoutMs  探测超时时间(ms)
+	 * @param probeIntervalMs 探测间隔(ms)
+	 */
+	public LatencyAwareEnsembleProvider(List<String> servers, int probeTimeoutMs, long probeIntervalMs) {
+		this(servers, null, probeTimeoutMs, probeIntervalMs);
+	}
+
+	/**
+	 * @param servers         集群节点(ip:port)
+	 * @param pinned          固定连接的节点,连接串只包含这个节点,其它节点只做探测统计;null表示按延迟排序
+	 * @param probeTimeoutMs  探测超时时间(ms)
+	 * @param probeIntervalMs 探测间隔(ms)
+	 */
+	public LatencyAwareEnsembleProvider(List<String> servers, String pinned, int probeTimeoutMs, long probeIntervalMs) {
+		for (String server : servers) {
+			members.put(server, new Member(server));
+		}
+		this.pinned = pinned;
+		this.probeTimeoutMs = probeTimeoutMs;
+		this.probeIntervalMs = probeIntervalMs;
+		this.connectionString = pinned != null ? pinned : String.join(",", servers);
+	}
+
+	@Override
+	public void start() throws Exception {
+		if (getHealthyCount() == 0) {
+			probe();
+		}
+		if (!UPDATE_SERVER_LIST_SUPPORTED || pinned != null) {
+			//连接串不会再变化,定时探测没有意义
+			return;
+		}
+		prober.scheduleWithFixedDelay(() -> {
+			try {
+				probe();
+			} catch (Exception e) {
+				log.warn("探测ZK节点失败", e);
+			}
+		}, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 并行探测所有节点并更新连接串,可以在start之前调用以判断是否有可达节点
+	 */
+	public synchronized void probe() {
+		Map<String, Long> latencies = SocketCheckUtil.probeAll(new ArrayList<>(members.keySet()), probeTimeoutMs);
+		for (Map.Entry<String, Long> entry : latencies.entrySet()) {
+			members.get(entry.getKey()).record(entry.getValue());
+		}
+		if (pinned != null) {
+			return;
+		}
+		String ranked = rank();
+		if (!ranked.equals(connectionString) && (UPDATE_SERVER_LIST_SUPPORTED || isInitial())) {
+			log.info("ZK连接串更新: " + connectionString + " -> " + ranked);
+			connectionString = ranked;
+		}
+	}
+
+	/**
+	 * 指定首选节点,下次探测后排在连接串最前面(节点不健康时除外)
+	 *
+	 * @param server ip:port,null表示取消
+	 * @return 客户端不支持updateServerList或连接串固定时不生效,返回false,需要重建客户端才能切换节点
+	 */
+	public boolean prefer(String server) {
+		if (!UPDATE_SERVER_LIST_SUPPORTED || pinned != null) {
+			return false;
+		}
+		this.preferred = server;
+		probe();
+		return true;
+	}
+
+	@Override
+	public String getConnectionString() {
+		return connectionString;
+	}
+
+	@Override
+	public void setConnectionString(String connectionString) {
+		log.info("忽略外部设置的ZK连接串: " + connectionString);
+	}
+
+	@Override
+	public boolean updateServerListEnabled() {
+		return UPDATE_SERVER_LIST_SUPPORTED;
+	}
+
+	@Override
+	public void close() {
+		prober.shutdownNow();
+	}
+
+	public synchronized int getHealthyCount() {
+		int count = 0;
+		for (Member member : members.values()) {
+			if (member.isHealthy()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 各节点的统计,按配置顺序
+	 *
+	 * @return
+	 */
+	public synchronized List<Member> getMembers() {
+		List<Member> list = new ArrayList<>();
+		for (Member member : members.values()) {
+			list.add(member.copy());
+		}
+		return list;
+	}
+
+	/**
+	 * 首次探测之前连接串就是配置顺序,此时即使不支持updateServerList也可以更新
+	 */
+	private boolean isInitial() {
+		for (Member member : members.values()) {
+			if (member.probes > 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 健康节点按延迟排序在前,不健康节点在后;首选节点没有明显变慢时保持首位
+	 */
+	private String rank() {
+		List<Member> healthy = new ArrayList<>();
+		List<Member> unhealthy = new ArrayList<>();
+		for (Member member : members.values()) {
+			(member.isHealthy() ? healthy : unhealthy).add(member);
+		}
+		healthy.sort((a, b) -> Double.compare(a.rttMicros, b.rttMicros));
+		Member first = members.get(preferred != null ? preferred : connectionString.split(",")[0]);
+		if (first != null && first.isHealthy() && !healthy.isEmpty() && healthy.get(0) != first
+				&& (preferred != null || healthy.get(0).rttMicros > first.rttMicros * SWITCH_THRESHOLD)) {
+			healthy.remove(first);
+			healthy.add(0, first);
+		}
+		List<String> servers = new ArrayList<>();
+		for (Member member : healthy) {
+			servers.add(member.server);
+		}
+		for (Member member : unhealthy) {
+			servers.add(member.server);
+		}
+		return String.join(",", servers);
+	}
+
+	private static boolean isUpdateServerListSupported() {
+		try {
+			ZooKeeper.class.getMethod("updateServerList", String.class);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 集群节点的探测统计
+	 */
+	public static class Member {
+		private final String server;
+		//连接耗时的滑动平均(微秒)
+		private double rttMicros = Double.MAX_VALUE;
+		private int failures;
+		private long probes;
+
+		Member(String server) {
+			this.server = server;
+		}
+
+		void record(long latencyMicros) {
+			probes++;
+			if (latencyMicros < 0) {
+				failures++;
+				return;
+			}
+			failures = 0;
+			rttMicros = rttMicros == Double.MAX_VALUE ? latencyMicros
+					: EWMA_ALPHA * latencyMicros + (1 - EWMA_ALPHA) * rttMicros;
+		}
+
+		Member copy() {
+			Member copy = new Member(server);
+			copy.rttMicros = rttMicros;
+			copy.failures = failures;
+			copy.probes = probes;
+			return copy;
+		}
+
+		public String getServer() {
+			return server;
+		}
+
+		public long getRttMicros() {
+			return rttMicros == Double.MAX_VALUE ? -1 : (long) rttMicros;
+		}
+
+		public int getFailures() {
+			return failures;
+		}
+
+		public boolean isHealthy() {
+			return probes > 0 && failures < MAX_FAILURES && rttMicros != Double.MAX_VALUE;
+		}
+	}
+}
@@ -1,25 +1,40 @@
 package com.example.zookeeper.two;
 
+import com.example.zookeeper.client.SubtreeDeleter;
+import com.example.zookeeper.client.TransactionBatcher;
+import com.example.zookeeper.client.ZkUpsert;
+import com.example.zookeeper.codec.ValueCodec;
+import com.example.zookeeper.metrics.ZkMetrics;
 import com.example.zookeeper.two.utils.PropertiesUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.retry.ExponentialBackoffRetry;
-import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.zookeeper.two.utils.SocketCheckUtil.checkPort;
 
 
 /**
  * Zookeeper客户端
+ * 构造后在后台线程连接,不阻塞启动。连接成功之前调用CRUD方法时最多等待zkConnectTimeout,
+ * 仍未连接则抛出IllegalStateException,不会与节点不存在时的false/null混淆;
+ * 需要在启动时确认可用的调用方可以先调用awaitConnected
  */
 @Component
 @Scope//singleton 单实例
@@ -37,36 +52,154 @@ public class ZkClientService  {
 	private boolean zkAutoChangeServerNode = false;
 	//zk编码
 	private String zkCharset = "utf-8";
+	//节点数据编解码(大数据压缩、超大数据分块),未开启时为null
+	private ValueCodec valueCodec;
 	//连接成功标识
-	private boolean initFlag = false;
+	private volatile boolean initFlag = false;
 	//zk客户端
-	private CuratorFramework client;
+	private volatile CuratorFramework client;
+	//探测节点端口的超时时间(ms)
+	private static final int PROBE_TIMEOUT_MS = 500;
+	//所有节点不可用时重新连接的间隔(秒)
+	private static final int RECONNECT_DELAY_SECONDS = 15;
+	//集群节点延迟探测间隔(ms)
+	private static final long PROBE_INTERVAL_MS = 10000;
+	//按延迟排序的集群连接串,切换节点时不需要重建客户端
+	private volatile LatencyAwareEnsembleProvider ensembleProvider;
 	//已监听节点记录
 	private Map<String, Map> zkNodePathCachedMap = new HashMap<>();
 
+	//连接调度线程:节点探测、连接超时检查、失败重试都在这里执行,不阻塞Spring启动
+	private final ScheduledExecutorService connectExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "zk-client-connect");
+		thread.setDaemon(true);
+		return thread;
+	});
+	//首次连接成功
+	private final CountDownLatch connectedLatch = new CountDownLatch(1);
+
 	//初始化
 	private ZkClientService() {
 		if (loadProperties()) {
-			boolean connect = false;
-			while (!connect) {
-				for (int i = 0; i < this.zkServerList.size(); i++) {
-					this.zkServerNodeNum = i;
-					connect = connect(this.zkServerNodeNum);
-				}
-				if (!connect) {
-					log.error("所有ZK节点连接失败将在15秒后重新尝试连接.");
-					try {
-						Thread.sleep(15000);
-					} catch (InterruptedException e) {
-						log.error("线程暂停15秒错误!",e);
-					}
-				}
-			}
+			connectExecutor.execute(this::connectAsync);
 		} else {
 			log.error("ZK客户端启动失败,无法载入配置文件");
 		}
 	}
 
+	/**
+	 * 不读取zkClient.properties,直接指定集群和命名空间,用于基准测试、嵌入式场景
+	 *
+	 * @param zkServers   集群节点,ip:port,多个以逗号分隔
+	 * @param zkNamespace 命名空间
+	 */
+	public ZkClientService(String zkServers, String zkNamespace) {
+		for (String server : zkServers.split(",")) {
+			addZkServerList(server.trim());
+		}
+		setZkNamespace(zkNamespace);
+		connectExecutor.execute(this::connectAsync);
+	}
+
+	/**
+	 * 异步连接:并行探测所有节点的连接耗时,按耗时从低到高组成连接串启动客户端,
+	 * 连接成功由连接状态回调处理;所有节点不可达或在连接超时时间内未连上时,15秒后重新探测
+	 */
+	private void connectAsync() {
+		LatencyAwareEnsembleProvider provider = new LatencyAwareEnsembleProvider(zkServerList, PROBE_TIMEOUT_MS, PROBE_INTERVAL_MS);
+		provider.probe();
+		if (provider.getHealthyCount() == 0) {
+			log.error("所有ZK节点连接失败将在15秒后重新尝试连接.");
+			provider.close();
+			connectExecutor.schedule(this::connectAsync, RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+			return;
+		}
+		log.info("尝试连接到zk节点(按延迟排序):   " + provider.getConnectionString() + " 命名空间 : " + zkNamespace);
+		CuratorFramework newClient = startClient(provider);
+		connectExecutor.schedule(() -> {
+			if (!initFlag && client == newClient) {
+				log.error("连接ZK失败！连接超时：" + zkConnectTimeout + "ms,将在15秒后重新尝试连接.");
+				disConnect();
+				connectExecutor.schedule(this::connectAsync, RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+			}
+		}, zkConnectTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 用集群连接串启动客户端,连接成功由连接状态回调处理
+	 *
+	 * @param provider 已探测过的集群连接串,由客户端启动和关闭
+	 * @return 新客户端
+	 */
+	private CuratorFramework startClient(LatencyAwareEnsembleProvider provider) {
+		long begin = System.currentTimeMillis();
+		CuratorFramework newClient = newClientBuilder().ensembleProvider(provider).build();
+		newClient.getConnectionStateListenable().addListener((c, state) -> {
+			ZkMetrics.recordConnectionState("ZkClientService", state.name());
+			if (state.isConnected()) {
+				connectExecutor.execute(() -> onConnected(newClient, begin));
+			}
+		});
+		this.ensembleProvider = provider;
+		this.client = newClient;
+		newClient.start();
+		return newClient;
+	}
+
+	private synchronized void onConnected(CuratorFramework connected, long begin) {
+		if (initFlag || client != connected) {
+			return;
+		}
+		initFlag = true;
+		String currentConnectionString = connected.getZookeeperClient().getCurrentConnectionString();
+		//连接串只有一个节点时才能确定连接的节点编号,多个节点时由zookeeper客户端选择,保留原编号
+		int nodeNum = zkServerList.indexOf(currentConnectionString);
+		if (nodeNum >= 0) {
+			this.zkServerNodeNum = nodeNum;
+		}
+		log.info("已连接到ZK!" + currentConnectionString
+				+ " 用时:" + (System.currentTimeMillis() - begin));
+		connectedLatch.countDown();
+	}
+
+	/**
+	 * 等待首次连接成功
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return 超时仍未连接返回false
+	 * @throws InterruptedException
+	 */
+	public boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+		return connectedLatch.await(timeout, unit);
+	}
+
+	public boolean isConnected() {
+		return initFlag;
+	}
+
+	/**
+	 * 取得已连接的客户端,首次连接尚未完成时最多等待zkConnectTimeout
+	 *
+	 * @return 当前客户端
+	 * @throws IllegalStateException 等待后仍未连接,或客户端正在切换节点
+	 */
+	private CuratorFramework connectedClient() {
+		try {
+			if (!initFlag && !connectedLatch.await(zkConnectTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException("ZK客户端未连接,等待" + zkConnectTimeout + "ms超时");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("等待ZK客户端连接被中断", e);
+		}
+		CuratorFramework current = client;
+		if (current == null || !initFlag) {
+			throw new IllegalStateException("ZK客户端未连接");
+		}
+		return current;
+	}
+
 	//读取配置信息
 	private boolean loadProperties() {
 		//载入配置信息
@@ -101,6 +234,11 @@ public class ZkClientService  {
 			log.warn("Zookeeper client zkCharset is not support. zkCharset=" + charsetProp + " ,used default zkCharset : " + this.zkCharset);
 		}
 
+		//读取数据编解码开关
+		if ("true".equals(PropertiesUtil.getZkClient().getProperty("zkValueCodec"))) {
+			this.valueCodec = new ValueCodec();
+		}
+
 		//读取namespace
 		String namespaceProp = PropertiesUtil.getZkClient().getProperty("zkNamespace");
 		if (StringUtils.isBlank(namespaceProp)) {
@@ -190,6 +328,11 @@ public class ZkClientService  {
 					log.debug("未开启zk自动切换节点功能");
 					return false;
 				}
+				//客户端支持updateServerList时由连接串切换节点,保留会话、缓存和监听;不支持时(3.4)重建客户端
+				if (ensembleProvider != null && zkServerList.contains(connectionString)
+						&& ensembleProvider.prefer(connectionString)) {
+					return true;
+				}
 			}
 			if (checkConnectionString(connectionString) && zkServerList.contains(connectionString)) {
 				doConnect(connectionString);
@@ -224,6 +367,11 @@ public class ZkClientService  {
 		}
 	}
 
+	/**
+	 * 断开后重建固定连接到指定节点的客户端,与异步连接一样注册连接状态回调,集群统计仍包含所有节点
+	 *
+	 * @param connectionString 连接信息(ip:port)
+	 */
 	private void doConnect(String connectionString) {
 		try {
 			//断开连接
@@ -231,52 +379,35 @@ public class ZkClientService  {
 			initFlag = false;
 
 			//重新建立连接
-			this.client = CuratorFrameworkFactory.builder()
-					.connectString(connectionString)
-					.namespace(zkNamespace)
-					.retryPolicy(new ExponentialBackoffRetry(1000, 3))
-					.connectionTimeoutMs(1000)
-					.sessionTimeoutMs(1000)
-					// etc. etc.
-					.build();
-
-			//start
-			this.client.start();
+			long begin = System.currentTimeMillis();
+			LatencyAwareEnsembleProvider provider = new LatencyAwareEnsembleProvider(zkServerList, connectionString,
+					PROBE_TIMEOUT_MS, PROBE_INTERVAL_MS);
+			CuratorFramework newClient = startClient(provider);
 			if (log.isDebugEnabled()) {
-				log.debug("client__  " + client);
-			}
-			boolean connectState = false;
-			int connectTime = 0;
-			while (!connectState) {
-				//ZooKeeper.States connected = ZooKeeper.States.CONNECTED;
-				if (client != null) {
-					ZooKeeper.States state = null;
-					try {
-						state = client.getZookeeperClient().getZooKeeper().getState();
-					} catch (Exception e) {
-						//e.printStackTrace();
-						if (log.isDebugEnabled()) {
-							log.debug("获取状态失败: " + e.getMessage());
-						}
-					}
-					connectState = ZooKeeper.States.CONNECTED.equals(state);
-				}
-				Thread.sleep(10);
-				connectTime += 10;
-				if (connectTime > zkConnectTimeout) {
-					log.error("连接ZK失败！连接超时：" + zkConnectTimeout + "ms");
-					disConnect();
-					initFlag = false;
-					return;
-				}
+				log.debug("client__  " + newClient);
 			}
-			initFlag = true;
-			log.info("已连接到ZK!" + connectionString + " 用时:" + connectTime);
+			if (!newClient.blockUntilConnected(zkConnectTimeout, TimeUnit.MILLISECONDS)) {
+				log.error("连接ZK失败！连接超时：" + zkConnectTimeout + "ms");
+				disConnect();
+				initFlag = false;
+				return;
+			}
+			//可能在当前线程或连接线程上先完成,onConnected只生效一次
+			onConnected(newClient, begin);
 		} catch (Exception e) {
 			log.error("连接ZK异常!",e);
 		}
 	}
 
+	private CuratorFrameworkFactory.Builder newClientBuilder() {
+		return CuratorFrameworkFactory.builder()
+				.namespace(zkNamespace)
+				.retryPolicy(new ExponentialBackoffRetry(1000, 3))
+				.connectionTimeoutMs(1000)
+				.sessionTimeoutMs(1000);
+				// etc. etc.
+	}
+
 	private boolean checkConnectionString(String connectionString) {
 		try {
 			if (StringUtils.isBlank(connectionString)
@@ -310,6 +441,30 @@ public class ZkClientService  {
 			client.close();
 		}
 		client = null;
+		if (ensembleProvider != null) {
+			ensembleProvider.close();
+			ensembleProvider = null;
+		}
+	}
+
+	/**
+	 * 关闭客户端,停止连接重试
+	 */
+	@PreDestroy
+	public void close() {
+		connectExecutor.shutdownNow();
+		disConnect();
+		initFlag = false;
+	}
+
+	/**
+	 * 集群各节点的延迟和健康统计
+	 *
+	 * @return 尚未连接时返回空列表
+	 */
+	public List<LatencyAwareEnsembleProvider.Member> getEnsembleStats() {
+		LatencyAwareEnsembleProvider provider = ensembleProvider;
+		return provider == null ? new ArrayList<>() : provider.getMembers();
 	}
 
 	private void clearListener() {
@@ -327,13 +482,15 @@ public class ZkClientService  {
 	//-------------------CRUD----------------------
 	// 创建一个节点
 	public boolean createPath(String path) {
+		CuratorFramework current = connectedClient();
 		try {
 			boolean pathExist = checkExist(path);
 			path = startWith(path);
 			if (pathExist) {//节点已存在
 				return false;
 			}
-			String forPath = client.create().forPath(path, new byte[0]);
+			String createPath = path;
+			ZkMetrics.record("service.create", createPath, () -> current.create().forPath(createPath, new byte[0]));
 			return true;
 		} catch (Exception e) {
 			return false;
@@ -349,31 +506,24 @@ public class ZkClientService  {
 	// 强制删除一个节点
 	public boolean deletePathIncludeChildren(String path) {
 		path = startWith(path);
+		if ("/".equals(path)) {
+			return false;
+		}
+		CuratorFramework current = connectedClient();
 		try {
-			if (!checkExist(path)) {//节点不存在
+			String deletePath = path;
+			long deleted = ZkMetrics.record("service.deleteSubtree", deletePath, () -> new SubtreeDeleter(current).delete(deletePath, null));
+			if (deleted == 0) {//节点不存在
 				log.error("删除的zk节点不存在");
 				return false;
 			}
-			//client.delete().inBackground().forPath(path);
-			client.delete().forPath(path);
+			if (valueCodec != null) {
+				valueCodec.afterDeleteSubtree(current, deletePath);
+			}
 			return true;
 		} catch (Exception e) {
-			//尝试删除子节点
-			if (!"".equals(path) && !"/".equals(path) && null != path) {
-				List<String> pathList = getPathList(path);
-				boolean deleteChildren = false;
-				String fullPath;
-				for (String childrenPath : pathList) {
-					//递归删除子节点
-					fullPath = path + "/" + childrenPath;
-					deleteChildren = deletePathIncludeChildren(fullPath);
-				}
-				//删除父节点自身
-				deletePathIncludeChildren(path);
-				return deleteChildren;
-			} else {
-				return false;
-			}
+			log.error("删除zk节点错误: " + path, e);
+			return false;
 		}
 	}
 
@@ -387,28 +537,69 @@ public class ZkClientService  {
 	 */
 	// 存数据（自动创建节点）
 	public boolean setPathDataIfNoNode(String path, String data) {
+		CuratorFramework current = connectedClient();
 		try {
-			//Stat stat1 = client.setData().inBackground().forPath(path, data.getBytes());
-
-			path = startWith(path);
-			boolean pathExist = checkExist(path);
-			if (pathExist) {
-				Stat stat1 = client.setData().forPath(path, data.getBytes(zkCharset));//默认打开支持UTF-8格式中文数据
-				return stat1 != null;
+			String dataPath = startWith(path);
+			byte[] bytes = data.getBytes(zkCharset);//默认打开支持UTF-8格式中文数据
+			if (valueCodec == null) {
+				return upsert(current, dataPath, bytes, ZkUpsert.ANY_VERSION);
+			}
+			byte[] stored = valueCodec.encode(current, dataPath, bytes);
+			boolean written;
+			try {
+				written = upsert(current, dataPath, stored, ZkUpsert.ANY_VERSION);
+			} catch (Exception e) {
+				valueCodec.abandon(current, dataPath, stored);
+				throw e;
+			}
+			if (written) {
+				valueCodec.afterWrite(current, dataPath);
 			} else {
-				boolean createPath = createPath(path);
-				if (createPath) {
-					Stat stat1 = client.setData().forPath(path, data.getBytes(zkCharset));
-					return stat1 != null;
-				} else {
-					return false;
-				}
+				valueCodec.abandon(current, dataPath, stored);
 			}
+			return written;
 		} catch (Exception e) {
 			return false;
 		}
 	}
 
+	/**
+	 * 读取数据，开启编解码时自动解压、拼接分块
+	 *
+	 * @param path node
+	 * @return 节点不存在或读取失败返回null
+	 */
+	public String getPathData(String path) {
+		String dataPath = startWith(path);
+		CuratorFramework current = connectedClient();
+		try {
+			byte[] stored = ZkMetrics.record("service.getData", dataPath, () -> current.getData().forPath(dataPath));
+			byte[] data = valueCodec == null ? stored : valueCodec.decode(current, dataPath, stored);
+			return data == null ? null : new String(data, zkCharset);
+		} catch (Exception e) {
+			log.debug("读取zk节点数据错误: " + dataPath, e);
+			return null;
+		}
+	}
+
+	/**
+	 * 乐观upsert：先setData，节点不存在时create，并发创建时重试一次setData；节点已存在时只需一次往返
+	 *
+	 * @param path            node
+	 * @param data            content
+	 * @param expectedVersion 期望版本(CAS)，-1不校验
+	 * @return 版本不匹配返回false
+	 * @throws Exception 其它zookeeper错误
+	 */
+	public boolean upsert(String path, byte[] data, int expectedVersion) throws Exception {
+		return upsert(connectedClient(), path, data, expectedVersion);
+	}
+
+	private boolean upsert(CuratorFramework current, String path, byte[] data, int expectedVersion) throws Exception {
+		String upsertPath = startWith(path);
+		return ZkMetrics.record("service.upsert", upsertPath, () -> ZkUpsert.upsert(current, upsertPath, data, expectedVersion));
+	}
+
 	//----------------CRUD  FOR  GATEWAY MESSAGE----------------
 	//配置同步ADMIN端调用
 	// 编辑或创建
@@ -419,11 +610,76 @@ public class ZkClientService  {
 		return result;
 	}
 
-	// 批量添加
-	public void batchAdd(List<String> ids, String type) {
-		for (String id : ids) {
-			this.addOrUpdate(id, type);
+	/**
+	 * 批量添加或修改
+	 * 先用一次getChildren取出已存在的id，再把create/setData打包成multi事务按jute包大小分批提交，
+	 * 每批一次往返；批次中出错的id退回到upsert逐个写入同样的数据。
+	 * 开启编解码时与setPathDataIfNoNode一样先编码，写入成功后回收旧分块，失败时删除这次写入的分块
+	 *
+	 * @param ids  id列表
+	 * @param type 父节点
+	 * @return 每个id的处理结果
+	 */
+	public Map<String, Boolean> batchAdd(List<String> ids, String type) {
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		if (ids == null || ids.isEmpty()) {
+			return result;
+		}
+		String parent = startWith(type);
+		CuratorFramework current = connectedClient();
+		Map<String, byte[]> stored = new LinkedHashMap<>();
+		try {
+			Set<String> existIds = new HashSet<>();
+			if (checkExist(parent)) {
+				existIds.addAll(getPathList(parent));
+			} else {
+				createParents(parent);
+			}
+			TransactionBatcher<String> batcher = new TransactionBatcher<>();
+			for (String id : new LinkedHashSet<>(ids)) {
+				String path = parent + "/" + id;
+				byte[] bytes = UUID.randomUUID().toString().getBytes(zkCharset);
+				byte[] data = valueCodec == null ? bytes : valueCodec.encode(current, path, bytes);
+				stored.put(id, data);
+				CuratorOp op = existIds.contains(id)
+						? current.transactionOp().setData().forPath(path, data)
+						: current.transactionOp().create().forPath(path, data);
+				batcher.add(id, TransactionBatcher.estimate(path, data), op);
+			}
+			result.putAll(ZkMetrics.recordSupplier("service.batchAdd", parent, () -> batcher.commit(current, id -> {
+				try {
+					return ZkUpsert.upsert(current, parent + "/" + id, stored.get(id), ZkUpsert.ANY_VERSION);
+				} catch (Exception e) {
+					log.warn("添加zk节点错误: " + parent + "/" + id, e);
+					return false;
+				}
+			})));
+			if (valueCodec != null) {
+				for (Map.Entry<String, Boolean> entry : result.entrySet()) {
+					String path = parent + "/" + entry.getKey();
+					if (Boolean.TRUE.equals(entry.getValue())) {
+						valueCodec.afterWrite(current, path);
+					} else {
+						valueCodec.abandon(current, path, stored.get(entry.getKey()));
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.error("批量添加zk节点错误,改为逐个添加!", e);
+			if (valueCodec != null) {
+				for (Map.Entry<String, byte[]> entry : stored.entrySet()) {
+					if (!Boolean.TRUE.equals(result.get(entry.getKey()))) {
+						valueCodec.abandon(current, parent + "/" + entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			for (String id : ids) {
+				if (!Boolean.TRUE.equals(result.get(id))) {
+					result.put(id, addOrUpdate(id, type));
+				}
+			}
 		}
+		return result;
 	}
 
 	// 删除
@@ -433,31 +689,75 @@ public class ZkClientService  {
 		if(!result)log.error("删除zk节点错误!");
 		return result;
 	}
-	//批量删除
-	public void batchDel(List<String> ids,String type) {
-		boolean success = true;
-		for(String id:ids){
-			success=deletePathIncludeChildren(type + "/" + id);
+	/**
+	 * 批量删除
+	 * 叶子节点的delete打包成multi事务分批提交；有子节点或不存在的id退回到deletePathIncludeChildren逐个处理
+	 *
+	 * @param ids  id列表
+	 * @param type 父节点
+	 * @return 每个id的处理结果
+	 */
+	public Map<String, Boolean> batchDel(List<String> ids, String type) {
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		if (ids == null || ids.isEmpty()) {
+			return result;
 		}
-		if (!success){
+		String parent = startWith(type);
+		CuratorFramework current = connectedClient();
+		try {
+			TransactionBatcher<String> batcher = new TransactionBatcher<>();
+			for (String id : new LinkedHashSet<>(ids)) {
+				String path = parent + "/" + id;
+				batcher.add(id, TransactionBatcher.estimate(path, null), current.transactionOp().delete().forPath(path));
+			}
+			result.putAll(ZkMetrics.recordSupplier("service.batchDel", parent,
+					() -> batcher.commit(current, id -> deletePathIncludeChildren(parent + "/" + id))));
+			if (valueCodec != null) {
+				//事务中删除的都是叶子节点，逐个删除的子树已在deletePathIncludeChildren中回收
+				for (Map.Entry<String, Boolean> entry : result.entrySet()) {
+					if (Boolean.TRUE.equals(entry.getValue())) {
+						valueCodec.afterWrite(current, parent + "/" + entry.getKey());
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.error("批量删除zk节点错误,改为逐个删除!", e);
+			for (String id : ids) {
+				if (!Boolean.TRUE.equals(result.get(id))) {
+					result.put(id, deletePathIncludeChildren(parent + "/" + id));
+				}
+			}
+		}
+		if (result.containsValue(false)) {
 			log.error("删除zk节点错误!");
 		}
+		return result;
 	}
 
 	//--------------------FUNCTION-----------------
 	// 检查节点是否存在
 	public boolean checkExist(String path) {
 		//修复节点不以 / 开头
-		path = startWith(path);
+		String checkPath = startWith(path);
+		CuratorFramework current = connectedClient();
 		Stat stat;
 		try {
-			stat = client.checkExists().forPath(path);
+			stat = ZkMetrics.record("service.checkExists", checkPath, () -> current.checkExists().forPath(checkPath));
 			return stat != null;
 		} catch (Exception e) {
 			return false;
 		}
 	}
 
+	// 创建节点及其不存在的父节点，节点已存在时忽略
+	private void createParents(String path) throws Exception {
+		try {
+			connectedClient().create().creatingParentsIfNeeded().forPath(path, new byte[0]);
+		} catch (KeeperException.NodeExistsException e) {
+			//并发创建,已存在
+		}
+	}
+
 	//节点必须以/开头
 	private String startWith(String path) {
 		if (!path.startsWith("/")) {
@@ -469,8 +769,9 @@ public class ZkClientService  {
 	//获取节点列表
 	public List<String> getPathList(String path) {
 		List<String> childrenPath = new ArrayList<>();
+		CuratorFramework current = connectedClient();
 		try {
-			childrenPath = client.getChildren().forPath(path);
+			childrenPath = ZkMetrics.record("service.getChildren", path, () -> current.getChildren().forPath(path));
 			return childrenPath;
 		} catch (Exception e) {
 			return childrenPath;
@@ -512,4 +813,14 @@ public class ZkClientService  {
 	public void setZkNamespace(String zkNamespace) {
 		this.zkNamespace = zkNamespace;
 	}
+
+	//开关: 已连接时是否允许connect(int)切换节点
+	public void setZkAutoChangeServerNode(boolean zkAutoChangeServerNode) {
+		this.zkAutoChangeServerNode = zkAutoChangeServerNode;
+	}
+
+	//节点数据编解码,null为关闭
+	public void setValueCodec(ValueCodec valueCodec) {
+		this.valueCodec = valueCodec;
+	}
 }
\ No newline at end of file
@@ -3,12 +3,26 @@ package com.example.zookeeper.two.utils;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 预检查工具类
  */
 public class SocketCheckUtil {
 
+	//并行探测使用的线程池,线程空闲后自动回收
+	private static final ExecutorService PROBE_POOL = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "socket-probe");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 
 	/**
 	 * 开放true//未开发false
@@ -85,4 +99,63 @@ public class SocketCheckUtil {
 			return false;
 		}
 	}
+
+	/**
+	 * 测量建立tcp连接的耗时
+	 *
+	 * @param host    ip:port
+	 * @param timeout 超时时间(ms)
+	 * @return 连接耗时(微秒), 不可达返回-1
+	 */
+	public static long probeLatency(String host, int timeout) {
+		try {
+			String ip = host.split(":")[0];
+			int port = Integer.parseInt(host.split(":")[1]);
+			long begin = System.nanoTime();
+			if (!checkPort(ip, port, timeout)) {
+				return -1;
+			}
+			return (System.nanoTime() - begin) / 1000;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * 同时探测所有节点的连接耗时,总耗时不超过一个超时时间
+	 *
+	 * @param hosts   ip:port列表
+	 * @param timeout 超时时间(ms)
+	 * @return 节点 -> 连接耗时(微秒,不可达为-1),顺序与hosts相同
+	 */
+	public static Map<String, Long> probeAll(List<String> hosts, int timeout) {
+		List<CompletableFuture<Long>> futures = new ArrayList<>(hosts.size());
+		for (String host : hosts) {
+			futures.add(CompletableFuture.supplyAsync(() -> probeLatency(host, timeout), PROBE_POOL));
+		}
+		Map<String, Long> latencies = new LinkedHashMap<>();
+		for (int i = 0; i < hosts.size(); i++) {
+			latencies.put(hosts.get(i), futures.get(i).join());
+		}
+		return latencies;
+	}
+
+	/**
+	 * 并行探测所有节点,返回可达节点,按连接耗时从低到高排序
+	 *
+	 * @param hosts   ip:port列表
+	 * @param timeout 超时时间(ms)
+	 * @return
+	 */
+	public static List<String> rankByLatency(List<String> hosts, int timeout) {
+		Map<String, Long> latencies = probeAll(hosts, timeout);
+		List<String> reachable = new ArrayList<>();
+		for (Map.Entry<String, Long> entry : latencies.entrySet()) {
+			if (entry.getValue() >= 0) {
+				reachable.add(entry.getKey());
+			}
+		}
+		reachable.sort((a, b) -> Long.compare(latencies.get(a), latencies.get(b)));
+		return reachable;
+	}
 }
@@ -0,0 +1,70 @@
+package com.example.zookeeper.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate压缩工具类
+ */
+public class CompressUtil {
+
+	private CompressUtil() {
+	}
+
+	/**
+	 * 压缩，使用最快的压缩级别
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * 解压
+	 *
+	 * @param data           压缩数据
+	 * @param offset
+	 * @param length
+	 * @param originalLength 原始长度
+	 * @return
+	 * @throws DataFormatException 数据损坏或长度不符
+	 */
+	public static byte[] inflate(byte[] data, int offset, int length, int originalLength) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, offset, length);
+			byte[] out = new byte[originalLength];
+			int count = 0;
+			while (count < originalLength && !inflater.finished()) {
+				int inflated = inflater.inflate(out, count, originalLength - count);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				count += inflated;
+			}
+			if (count != originalLength) {
+				throw new DataFormatException("解压后长度不符, expect=" + originalLength + " actual=" + count);
+			}
+			return out;
+		} finally {
+			inflater.end();
+		}
+	}
+}
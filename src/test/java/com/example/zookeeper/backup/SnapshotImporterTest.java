@@ -0,0 +1,80 @@
+package com.example.zookeeper.backup;
+
+import com.example.zookeeper.codec.ValueCodec;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotImporterTest {
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void codecImportKeepsSnapshotOrderInOneTransaction() throws Exception {
+        List<String> paths = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.writeNode("/", null);
+        for (int i = 0; i < 5; i++) {
+            String parent = "/p" + i;
+            paths.add(parent);
+            writer.writeNode(parent, bytes(parent));
+            for (int j = 0; j < 5; j++) {
+                String child = parent + "/c" + j;
+                paths.add(child);
+                writer.writeNode(child, bytes(child));
+            }
+        }
+        writer.finish();
+
+        ValueCodec codec = new ValueCodec(64, 1024, 16);
+        long before = czxid(client.create().forPath("/before"));
+        long imported = new SnapshotImporter(client, 1000, codec)
+                .importFrom(new ByteArrayInputStream(out.toByteArray()), "/imported");
+        long after = czxid(client.create().forPath("/after"));
+
+        assertEquals(paths.size() + 1, imported);
+        // 父节点先于子节点进入事务，整批只有一个multi，不退回逐个写入
+        assertEquals(2, after - before);
+        for (String path : paths) {
+            String target = "/imported" + path;
+            assertArrayEquals(bytes(path), codec.decode(client, target, client.getData().forPath(target)));
+        }
+    }
+
+    private static long czxid(String path) throws Exception {
+        return client.checkExists().forPath(path).getCzxid();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.zookeeper.backup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotWriterReaderTest {
+
+    private static final int NODES = 200;
+
+    @Test
+    void roundTripKeepsOrderPathsAndData() throws Exception {
+        byte[] snapshot = write(NODES);
+        try (SnapshotReader reader = new SnapshotReader(new ByteArrayInputStream(snapshot))) {
+            SnapshotRecord root = reader.next();
+            assertEquals("/", root.getPath());
+            // null数据按空数组写入
+            assertArrayEquals(new byte[0], root.getData());
+            for (int i = 0; i < NODES; i++) {
+                SnapshotRecord record = reader.next();
+                assertEquals("/节点-" + i, record.getPath());
+                assertArrayEquals(data(i), record.getData());
+            }
+            assertNull(reader.next());
+            assertNull(reader.next());
+            assertEquals(NODES + 1, reader.getCount());
+        }
+    }
+
+    @Test
+    void emptySnapshotHasNoRecords() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.finish();
+        assertEquals(0, writer.getCount());
+        try (SnapshotReader reader = new SnapshotReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void truncatedSnapshotIsDetected() throws Exception {
+        byte[] snapshot = write(NODES);
+        for (int length : new int[]{6, snapshot.length / 4, snapshot.length / 2}) {
+            byte[] truncated = Arrays.copyOf(snapshot, length);
+            assertThrows(IOException.class, () -> readAll(truncated), "截断到 " + length + " 字节");
+        }
+    }
+
+    @Test
+    void rejectsForeignFiles() {
+        byte[] foreign = "not a snapshot".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> new SnapshotReader(new ByteArrayInputStream(foreign)));
+
+        byte[] futureVersion = new byte[]{0x5A, 0x4B, 0x53, 0x4E, 99};
+        assertThrows(IOException.class, () -> new SnapshotReader(new ByteArrayInputStream(futureVersion)));
+    }
+
+    private static void readAll(byte[] snapshot) throws IOException {
+        try (SnapshotReader reader = new SnapshotReader(new ByteArrayInputStream(snapshot))) {
+            while (reader.next() != null) {
+                // 读到结束记录为止
+            }
+        }
+    }
+
+    private static byte[] write(int nodes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(out);
+        writer.writeNode("/", null);
+        for (int i = 0; i < nodes; i++) {
+            writer.writeNode("/节点-" + i, data(i));
+        }
+        writer.finish();
+        assertEquals(nodes + 1, writer.getCount());
+        return out.toByteArray();
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[i * 7 % 300];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (byte) (i * 31 + j * j);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.zookeeper.cache;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NamespaceSnapshotTest {
+
+    @Test
+    void updatesDoNotChangePublishedSnapshots() {
+        NamespaceSnapshot first = NamespaceSnapshot.EMPTY.withNode("/a", bytes("1"), null);
+        NamespaceSnapshot second = first.withNode("/a", bytes("2"), null).withNode("/b", bytes("3"), null);
+
+        assertArrayEquals(bytes("1"), first.getData("/a"));
+        assertFalse(first.exists("/b"));
+        assertArrayEquals(bytes("2"), second.getData("/a"));
+        assertArrayEquals(bytes("3"), second.getData("/b"));
+        assertFalse(NamespaceSnapshot.EMPTY.exists("/a"));
+    }
+
+    @Test
+    void childrenAreSortedAndPlaceholdersAreHidden() {
+        NamespaceSnapshot snapshot = NamespaceSnapshot.EMPTY
+                .withNode("/app/c", bytes("c"), null)
+                .withNode("/app/a", bytes("a"), null)
+                .withNode("/app/b/deep", bytes("d"), null);
+
+        // /app和/app/b只是挂子节点的占位节点
+        assertFalse(snapshot.exists("/app"));
+        assertNull(snapshot.getData("/app/b"));
+        assertNull(snapshot.getChildren("/app"));
+
+        snapshot = snapshot.withNode("/app", null, null);
+        assertEquals(Arrays.asList("a", "c"), snapshot.getChildren("/app"));
+        snapshot = snapshot.withNode("/app/b", null, null);
+        assertEquals(Arrays.asList("a", "b", "c"), snapshot.getChildren("/app"));
+        assertArrayEquals(new byte[0], snapshot.getData("/app"));
+        assertEquals(Collections.singletonList("deep"), snapshot.getChildren("/app/b"));
+    }
+
+    @Test
+    void removeDropsTheWholeSubtreeOnlyInTheNewSnapshot() {
+        NamespaceSnapshot before = NamespaceSnapshot.EMPTY
+                .withNode("/app", null, null)
+                .withNode("/app/x", bytes("x"), null)
+                .withNode("/app/x/y", bytes("y"), null)
+                .withNode("/app/z", bytes("z"), null);
+        NamespaceSnapshot after = before.withoutNode("/app/x");
+
+        assertFalse(after.exists("/app/x"));
+        assertFalse(after.exists("/app/x/y"));
+        assertEquals(Collections.singletonList("z"), after.getChildren("/app"));
+        assertArrayEquals(bytes("y"), before.getData("/app/x/y"));
+        assertEquals(Arrays.asList("x", "z"), before.getChildren("/app"));
+        assertTrue(after.withoutNode("/missing").exists("/app/z"));
+        assertFalse(NamespaceSnapshot.EMPTY.withNode("/only", null, null).withoutNode("/only").exists("/only"));
+    }
+
+    @Test
+    void zxidTracksTheHighestAppliedChange() {
+        NamespaceSnapshot snapshot = NamespaceSnapshot.EMPTY
+                .withNode("/a", null, stat(5, 7))
+                .withNode("/b", null, stat(3, 3));
+        assertEquals(7, snapshot.getZxid());
+        assertEquals(7, snapshot.withoutNode("/a").getZxid());
+        assertEquals(5, snapshot.getStat("/a").getMzxid());
+    }
+
+    private static Stat stat(long mzxid, long pzxid) {
+        Stat stat = new Stat();
+        stat.setMzxid(mzxid);
+        stat.setPzxid(pzxid);
+        return stat;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}
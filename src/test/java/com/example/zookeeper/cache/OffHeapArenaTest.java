@@ -0,0 +1,85 @@
+package com.example.zookeeper.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapArenaTest {
+
+    @Test
+    void capacityRoundsUpToSizeClass() {
+        assertEquals(32, OffHeapArena.capacityOf(0));
+        assertEquals(32, OffHeapArena.capacityOf(32));
+        assertEquals(64, OffHeapArena.capacityOf(33));
+        assertEquals(1 << 16, OffHeapArena.capacityOf(1 << 16));
+        // 超过最大等级按实际大小单独分配
+        assertEquals((1 << 16) + 1, OffHeapArena.capacityOf((1 << 16) + 1));
+    }
+
+    @Test
+    void allocatedSlotsReadBackTheirData() {
+        OffHeapArena arena = new OffHeapArena();
+        byte[] source = "--payload--".getBytes();
+        OffHeapArena.Slot slot = arena.allocate(source, 2, 7);
+        assertEquals(7, slot.length());
+        assertArrayEquals("payload".getBytes(), slot.read());
+        assertEquals(32, arena.getUsedBytes());
+    }
+
+    @Test
+    void pageIsReservedOnceAndReleasedWhenEmpty() {
+        OffHeapArena arena = new OffHeapArena();
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.reserveFor(100));
+        OffHeapArena.Slot first = arena.allocate(new byte[100], 0, 100);
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.getReservedBytes());
+        assertEquals(0, arena.reserveFor(100));
+        // 其它大小等级还没有页
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.reserveFor(1000));
+
+        OffHeapArena.Slot second = arena.allocate(new byte[120], 0, 120);
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.getReservedBytes());
+        assertEquals(256, arena.getUsedBytes());
+
+        arena.free(first);
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.getReservedBytes());
+        arena.free(second);
+        assertEquals(0, arena.getUsedBytes());
+        assertEquals(0, arena.getReservedBytes());
+    }
+
+    @Test
+    void fullPageGetsNewPageAndFreedSlotIsReused() {
+        OffHeapArena arena = new OffHeapArena();
+        int size = 1 << 16;
+        int slotsPerPage = OffHeapArena.PAGE_SIZE / size;
+        List<OffHeapArena.Slot> slots = new ArrayList<>();
+        for (int i = 0; i < slotsPerPage; i++) {
+            slots.add(arena.allocate(new byte[size], 0, size));
+        }
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.reserveFor(size));
+
+        arena.free(slots.remove(0));
+        assertEquals(0, arena.reserveFor(size));
+        byte[] data = new byte[size];
+        data[size - 1] = 7;
+        OffHeapArena.Slot reused = arena.allocate(data, 0, size);
+        assertEquals(OffHeapArena.PAGE_SIZE, arena.getReservedBytes());
+        assertArrayEquals(data, reused.read());
+    }
+
+    @Test
+    void largeValuesAreAllocatedSeparately() {
+        OffHeapArena arena = new OffHeapArena();
+        int size = (1 << 16) + 10;
+        assertEquals(size, arena.reserveFor(size));
+        OffHeapArena.Slot slot = arena.allocate(new byte[size], 0, size);
+        assertEquals(size, arena.getReservedBytes());
+        assertEquals(size, arena.getUsedBytes());
+        arena.free(slot);
+        assertEquals(0, arena.getReservedBytes());
+        assertEquals(0, arena.getUsedBytes());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.zookeeper.cache;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadThroughCacheTest {
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void concurrentMissesShareOneRequest() throws Exception {
+        String path = "/rtc/coalesce";
+        client.create().creatingParentsIfNeeded().forPath(path, bytes("v1"));
+        AtomicInteger fetches = new AtomicInteger();
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ReadThroughCache cache = new ReadThroughCache(p -> {
+            fetches.incrementAndGet();
+            return client;
+        }, Collections.singletonList(client), 100, 0)) {
+            CountDownLatch ready = new CountDownLatch(1);
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    ready.await();
+                    return cache.get(path);
+                }));
+            }
+            ready.countDown();
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(bytes("v1"), result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, fetches.get());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(threads - 1, cache.getHitCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void watcherInvalidatesOnChangeAndDelete() throws Exception {
+        String path = "/rtc/watched";
+        client.create().creatingParentsIfNeeded().forPath(path, bytes("v1"));
+        try (ReadThroughCache cache = new ReadThroughCache(client, 100, 0)) {
+            assertArrayEquals(bytes("v1"), cache.get(path));
+            assertArrayEquals(bytes("v1"), cache.get(path));
+            assertEquals(1, cache.getMissCount());
+
+            client.setData().forPath(path, bytes("v2"));
+            await(() -> cache.size() == 0);
+            assertArrayEquals(bytes("v2"), cache.get(path));
+            assertEquals(2, cache.getMissCount());
+
+            client.delete().forPath(path);
+            await(() -> cache.size() == 0);
+            assertNull(cache.get(path));
+            // 不存在的节点不缓存
+            assertEquals(0, cache.size());
+            assertNull(cache.getIfPresent(path));
+        }
+    }
+
+    @Test
+    void explicitInvalidationReloads() throws Exception {
+        String path = "/rtc/explicit";
+        client.create().creatingParentsIfNeeded().forPath(path, bytes("v1"));
+        try (ReadThroughCache cache = new ReadThroughCache(client, 100, 0)) {
+            cache.get(path);
+            assertArrayEquals(bytes("v1"), cache.getIfPresent(path).get());
+            cache.invalidate(path);
+            assertNull(cache.getIfPresent(path));
+            assertEquals(1, cache.getInvalidationCount());
+            cache.get(path);
+            cache.invalidateAll();
+            assertEquals(0, cache.size());
+            assertEquals(2, cache.getInvalidationCount());
+        }
+    }
+
+    @Test
+    void evictsABatchWhenOverCapacity() throws Exception {
+        int maxEntries = 10;
+        try (ReadThroughCache cache = new ReadThroughCache(client, maxEntries, 0)) {
+            for (int i = 0; i <= maxEntries; i++) {
+                String path = "/rtc/evict/" + i;
+                client.create().creatingParentsIfNeeded().forPath(path, bytes("v" + i));
+                assertArrayEquals(bytes("v" + i), cache.get(path));
+            }
+            // 超出1个，再额外腾出上限的1/10
+            assertEquals(2, cache.getEvictionCount());
+            assertEquals(maxEntries - 1, cache.size());
+        }
+    }
+
+    @Test
+    void expiredEntriesAreReloaded() throws Exception {
+        String path = "/rtc/ttl";
+        client.create().creatingParentsIfNeeded().forPath(path, bytes("v1"));
+        try (ReadThroughCache cache = new ReadThroughCache(client, 100, 50)) {
+            cache.get(path);
+            Thread.sleep(100);
+            assertNull(cache.getIfPresent(path));
+            cache.get(path);
+            assertEquals(2, cache.getMissCount());
+            assertEquals(1, cache.getExpirationCount());
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待watcher通知超时");
+            Thread.sleep(20);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
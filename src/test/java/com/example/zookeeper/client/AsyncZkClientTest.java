@@ -0,0 +1,124 @@
+package com.example.zookeeper.client;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncZkClientTest {
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void createSetGetDeleteRoundTrip() throws Exception {
+        AsyncZkClient async = new AsyncZkClient(client);
+        String path = "/async/round/trip";
+
+        assertEquals(path, await(async.createNode(CreateMode.PERSISTENT, path, "v1")));
+        assertArrayEquals(bytes("v1"), await(async.getNodeData(path)));
+
+        Stat stat = await(async.setNodeData(path, bytes("v2")));
+        assertEquals(1, stat.getVersion());
+        assertArrayEquals(bytes("v2"), await(async.getNodeData(path)));
+        assertEquals(Collections.singletonList("trip"), await(async.getChildren("/async/round")));
+
+        await(async.deleteNode("/async/round"));
+        assertFalse(await(async.isExistNode(path)));
+        assertFalse(await(async.isExistNode("/async/round")));
+    }
+
+    @Test
+    void sequentialCreateReturnsActualPath() throws Exception {
+        AsyncZkClient async = new AsyncZkClient(client);
+        String created = await(async.createNode(CreateMode.PERSISTENT_SEQUENTIAL, "/async/seq/n-", "x"));
+        assertTrue(created.startsWith("/async/seq/n-") && created.length() > "/async/seq/n-".length(), created);
+    }
+
+    @Test
+    void missingPathCompletesWithNoNode() {
+        AsyncZkClient async = new AsyncZkClient(client);
+        assertKeeperError(KeeperException.Code.NONODE, async.getNodeData("/async/missing"));
+        assertKeeperError(KeeperException.Code.NONODE, async.setNodeData("/async/missing", bytes("x")));
+        assertKeeperError(KeeperException.Code.NONODE, async.deleteNode("/async/missing", false));
+    }
+
+    @Test
+    void versionMismatchCompletesWithBadVersion() throws Exception {
+        AsyncZkClient async = new AsyncZkClient(client);
+        String path = "/async/cas";
+        await(async.createNode(CreateMode.PERSISTENT, path, "v1"));
+        assertKeeperError(KeeperException.Code.BADVERSION, async.setNodeData(path, bytes("v2"), 5));
+        assertEquals(1, await(async.setNodeData(path, bytes("v2"), 0)).getVersion());
+    }
+
+    @Test
+    void writeListenerRunsBeforeFutureCompletes() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        AsyncZkClient async = new AsyncZkClient(path -> client, path -> events.add("listener " + path));
+        String path = "/async/listener";
+
+        CompletableFuture<String> created = async.createNode(CreateMode.PERSISTENT, path, "v1");
+        // 依赖的动作在future完成时同步执行，能看到之前登记的监听记录
+        CompletableFuture<Void> observed = created.thenAccept(p -> events.add("completed " + p));
+        await(observed);
+        await(async.setNodeData(path, bytes("v2")).thenAccept(stat -> events.add("completed set")));
+
+        assertEquals(Arrays.asList("listener " + path, "completed " + path, "listener " + path, "completed set"), events);
+    }
+
+    @Test
+    void writeListenerIsNotCalledForReadsOrFailures() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        AsyncZkClient async = new AsyncZkClient(path -> client, events::add);
+        assertKeeperError(KeeperException.Code.NONODE, async.setNodeData("/async/nowhere", bytes("x")));
+        await(async.isExistNode("/async/nowhere"));
+        assertKeeperError(KeeperException.Code.NONODE, async.getNodeData("/async/nowhere"));
+        assertTrue(events.isEmpty(), events.toString());
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertKeeperError(KeeperException.Code expected, CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof KeeperException, String.valueOf(e.getCause()));
+        assertEquals(expected, ((KeeperException) e.getCause()).code());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.zookeeper.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedEventDispatcherTest {
+
+    @Test
+    void queuedUpdatesOfOneKeyAreCoalesced() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        try (OrderedEventDispatcher dispatcher = new OrderedEventDispatcher(4, 100)) {
+            CountDownLatch release = block(dispatcher, "/watch");
+            dispatcher.dispatch("/watch", "/watch/a", true, () -> events.add("a1"));
+            dispatcher.dispatch("/watch", "/watch/b", true, () -> events.add("b1"));
+            dispatcher.dispatch("/watch", "/watch/a", true, () -> events.add("a2"));
+            release.countDown();
+            drain(dispatcher, "/watch", events);
+
+            assertEquals(Arrays.asList("a2", "b1", "done"), events);
+            assertEquals(1, dispatcher.getCoalescedCount());
+        }
+    }
+
+    @Test
+    void laterUpdatesNeverOvertakeAnEventOfTheSameGroup() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        try (OrderedEventDispatcher dispatcher = new OrderedEventDispatcher(4, 100)) {
+            CountDownLatch release = block(dispatcher, "/watch");
+            dispatcher.dispatch("/watch", "/watch/a", true, () -> events.add("updated a1"));
+            dispatcher.dispatch("/watch", "/watch/b", false, () -> events.add("added b"));
+            // 与之前排队的更新不同key，也不能越过INITIALIZED
+            dispatcher.dispatch("/watch", "", false, () -> events.add("initialized"));
+            dispatcher.dispatch("/watch", "/watch/a", true, () -> events.add("updated a2"));
+            release.countDown();
+            drain(dispatcher, "/watch", events);
+
+            assertEquals(Arrays.asList("updated a1", "added b", "initialized", "updated a2", "done"), events);
+            assertEquals(0, dispatcher.getCoalescedCount());
+        }
+    }
+
+    @Test
+    void eventsOfOneGroupRunInDispatchOrderAcrossManyKeys() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        List<String> expected = new ArrayList<>();
+        try (OrderedEventDispatcher dispatcher = new OrderedEventDispatcher(8, 1000)) {
+            for (int i = 0; i < 200; i++) {
+                String event = "added /watch/" + i;
+                expected.add(event);
+                dispatcher.dispatch("/watch", "/watch/" + i, false, () -> events.add(event));
+            }
+            dispatcher.dispatch("/watch", "", false, () -> events.add("initialized"));
+            expected.add("initialized");
+            drain(dispatcher, "/watch", events);
+            expected.add("done");
+
+            assertEquals(expected, events);
+        }
+    }
+
+    /**
+     * 占住分组所在的工作线程，让之后投递的事件留在队列中
+     */
+    private static CountDownLatch block(OrderedEventDispatcher dispatcher, String group) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(group, "", false, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static void drain(OrderedEventDispatcher dispatcher, String group, List<String> events) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(group, "", false, () -> {
+            events.add("done");
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.zookeeper.client;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionBatcherTest {
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void splitsByOpCount() throws Exception {
+        TransactionBatcher<Integer> batcher = new TransactionBatcher<>(Integer.MAX_VALUE, 3);
+        for (int i = 0; i < 7; i++) {
+            batcher.add(i, 10, client.transactionOp().create().forPath("/ops/" + i));
+        }
+        assertEquals(Arrays.asList(3, 3, 1), opCounts(batcher));
+        assertEquals(Arrays.asList(0, 1, 2), batcher.getBatches().get(0).getOwners());
+    }
+
+    @Test
+    void splitsByBytes() throws Exception {
+        TransactionBatcher<Integer> batcher = new TransactionBatcher<>(1000, 100);
+        for (int i = 0; i < 5; i++) {
+            batcher.add(i, 400, client.transactionOp().create().forPath("/bytes/" + i));
+        }
+        assertEquals(Arrays.asList(2, 2, 1), opCounts(batcher));
+        assertEquals(800, batcher.getBatches().get(0).getBytes());
+    }
+
+    @Test
+    void oversizedOpGetsItsOwnBatch() throws Exception {
+        TransactionBatcher<Integer> batcher = new TransactionBatcher<>(1000, 100);
+        batcher.add(0, 100, client.transactionOp().create().forPath("/big/0"));
+        batcher.add(1, 5000, client.transactionOp().create().forPath("/big/1"));
+        batcher.add(2, 100, client.transactionOp().create().forPath("/big/2"));
+        assertEquals(Arrays.asList(1, 1, 1), opCounts(batcher));
+    }
+
+    @Test
+    void keepsOpsOfOneKeyInOneBatch() throws Exception {
+        TransactionBatcher<String> batcher = new TransactionBatcher<>(Integer.MAX_VALUE, 3);
+        batcher.add("a", 10, client.transactionOp().create().forPath("/key/a"));
+        batcher.add("b", 10, client.transactionOp().create().forPath("/key/b"));
+        batcher.add("c", 20, client.transactionOp().create().forPath("/key/c"),
+                client.transactionOp().setData().forPath("/key/c", new byte[]{1}));
+        assertEquals(Arrays.asList(2, 2), opCounts(batcher));
+        assertEquals(Arrays.asList("c", "c"), batcher.getBatches().get(1).getOwners());
+    }
+
+    @Test
+    void estimateCountsPathDataAndOverhead() {
+        int empty = TransactionBatcher.estimate("/a", null);
+        assertEquals(empty + 10, TransactionBatcher.estimate("/a", new byte[10]));
+        assertTrue(empty > "/a".length());
+    }
+
+    @Test
+    void commitsBatchesAndFallsBackForFailedKeys() throws Exception {
+        client.create().creatingParentsIfNeeded().forPath("/commit/exists", new byte[]{0});
+        TransactionBatcher<String> batcher = new TransactionBatcher<>(Integer.MAX_VALUE, 2);
+        for (String name : Arrays.asList("a", "exists", "b")) {
+            String path = "/commit/" + name;
+            batcher.add(path, TransactionBatcher.estimate(path, null),
+                    client.transactionOp().create().forPath(path, new byte[]{1}));
+        }
+        List<String> fallbacks = new ArrayList<>();
+        Map<String, Boolean> result = batcher.commit(client, path -> {
+            fallbacks.add(path);
+            return false;
+        });
+        assertEquals(Arrays.asList("/commit/exists"), fallbacks);
+        assertEquals(Boolean.TRUE, result.get("/commit/a"));
+        assertEquals(Boolean.FALSE, result.get("/commit/exists"));
+        assertEquals(Boolean.TRUE, result.get("/commit/b"));
+        assertNotNull(client.checkExists().forPath("/commit/a"));
+        assertNotNull(client.checkExists().forPath("/commit/b"));
+        assertArrayEquals(new byte[]{0}, client.getData().forPath("/commit/exists"));
+    }
+
+    private static List<Integer> opCounts(TransactionBatcher<?> batcher) {
+        List<Integer> counts = new ArrayList<>();
+        for (TransactionBatcher.Batch<?> batch : batcher.getBatches()) {
+            counts.add(batch.getOps().size());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.zookeeper.codec;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCodecTest {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final long GRACE_MS = 1000;
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    private final ValueCodec codec = new ValueCodec(64, CHUNK_SIZE, 16, GRACE_MS);
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void smallTextIsStoredAsIs() throws Exception {
+        byte[] value = "hello".getBytes(StandardCharsets.UTF_8);
+        byte[] stored = codec.encodeInline(value);
+        assertArrayEquals(value, stored);
+        assertArrayEquals(value, codec.decode(null, "/plain", stored));
+    }
+
+    @Test
+    void legacyValuesPassThrough() throws Exception {
+        byte[] legacy = "{\"address\":\"127.0.0.1\"}".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(legacy, codec.decode(null, "/legacy", legacy));
+        assertArrayEquals(new byte[0], codec.decode(null, "/legacy", new byte[0]));
+        assertNull(codec.decode(null, "/legacy", null));
+    }
+
+    @Test
+    void valuesStartingWithFormatHeaderAreEscaped() throws Exception {
+        for (byte header : new byte[]{ValueCodec.RAW, ValueCodec.DEFLATE, ValueCodec.MANIFEST}) {
+            byte[] value = {header, 'x', 'y'};
+            byte[] stored = codec.encodeInline(value);
+            assertEquals(ValueCodec.RAW, stored[0]);
+            assertEquals(value.length + 1, stored.length);
+            assertArrayEquals(value, codec.decode(null, "/escaped", stored));
+        }
+    }
+
+    @Test
+    void compressibleValuesAreDeflated() throws Exception {
+        byte[] value = new byte[10000];
+        Arrays.fill(value, (byte) 'a');
+        byte[] stored = codec.encodeInline(value);
+        assertEquals(ValueCodec.DEFLATE, stored[0]);
+        assertTrue(stored.length < value.length);
+        assertArrayEquals(value, codec.decode(null, "/deflated", stored));
+        // 解码缓存命中时结果不变
+        assertArrayEquals(value, codec.decode(null, "/deflated", stored));
+    }
+
+    @Test
+    void incompressibleValuesAreNotDeflated() throws Exception {
+        byte[] value = new byte[500];
+        new Random(1).nextBytes(value);
+        value[0] = 'x';
+        assertArrayEquals(value, codec.encodeInline(value));
+    }
+
+    @Test
+    void largeValuesAreChunked() throws Exception {
+        String path = "/chunked/value";
+        byte[] value = randomText(5 * CHUNK_SIZE);
+        byte[] stored = codec.encode(client, path, value);
+        assertEquals(ValueCodec.MANIFEST, stored[0]);
+        assertTrue(stored.length < CHUNK_SIZE);
+        client.create().creatingParentsIfNeeded().forPath(path, stored);
+        codec.afterWrite(client, path);
+        assertArrayEquals(value, new ValueCodec(64, CHUNK_SIZE, 0).decode(client, path, stored));
+    }
+
+    @Test
+    void readerWithStaleManifestRetriesAfterGenerationIsDeleted() throws Exception {
+        String path = "/chunked/replaced";
+        byte[] first = randomText(3 * CHUNK_SIZE);
+        byte[] firstStored = codec.encode(client, path, first);
+        client.create().creatingParentsIfNeeded().forPath(path, firstStored);
+        codec.afterWrite(client, path);
+
+        byte[] second = randomText(4 * CHUNK_SIZE);
+        byte[] secondStored = codec.encode(client, path, second);
+        client.setData().forPath(path, secondStored);
+        codec.afterWrite(client, path);
+        // 被替换的代目录在保留期过后回收
+        String chunkDir = chunkDir(path);
+        awaitChildren(chunkDir, 1);
+
+        assertArrayEquals(second, new ValueCodec(64, CHUNK_SIZE, 0).decode(client, path, firstStored));
+    }
+
+    @Test
+    void abandonDeletesChunksOfFailedWrite() throws Exception {
+        String path = "/chunked/abandoned";
+        byte[] stored = codec.encode(client, path, randomText(3 * CHUNK_SIZE));
+        String chunkDir = chunkDir(path);
+        assertEquals(1, client.getChildren().forPath(chunkDir).size());
+        codec.abandon(client, path, stored);
+        awaitChildren(chunkDir, 0);
+    }
+
+    @Test
+    void publishingDoesNotCollectAnotherWritersUnpublishedChunks() throws Exception {
+        String path = "/chunked/two/writers";
+        String chunkDir = chunkDir(path);
+        // 两个实例模拟两个进程，各自的回收互不知情
+        ValueCodec other = new ValueCodec(64, CHUNK_SIZE, 16, GRACE_MS);
+        byte[] first = randomText(3 * CHUNK_SIZE);
+        byte[] second = randomText(4 * CHUNK_SIZE);
+
+        byte[] secondStored = other.encode(client, path, second);
+        byte[] firstStored = codec.encode(client, path, first);
+        client.create().creatingParentsIfNeeded().forPath(path, firstStored);
+        codec.afterWrite(client, path);
+        Thread.sleep(GRACE_MS / 4);
+        assertEquals(2, client.getChildren().forPath(chunkDir).size());
+
+        // 第二个写入方此时才发布清单，分块必须还在
+        client.setData().forPath(path, secondStored);
+        other.afterWrite(client, path);
+        assertArrayEquals(second, new ValueCodec(64, CHUNK_SIZE, 0).decode(client, path, secondStored));
+
+        awaitChildren(chunkDir, 1);
+        assertArrayEquals(second, new ValueCodec(64, CHUNK_SIZE, 0).decode(client, path, client.getData().forPath(path)));
+    }
+
+    @Test
+    void concurrentWritersAlwaysLeaveReadableValue() throws Exception {
+        String path = "/chunked/concurrent";
+        client.create().creatingParentsIfNeeded().forPath(path);
+        int writers = 4;
+        int rounds = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                ValueCodec writer = new ValueCodec(64, CHUNK_SIZE, 0, GRACE_MS);
+                int seed = w;
+                results.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; round++) {
+                        byte[] value = randomText((2 + seed) * CHUNK_SIZE + round);
+                        byte[] stored = writer.encode(client, path, value);
+                        client.setData().forPath(path, stored);
+                        writer.afterWrite(client, path);
+                        // 无论此刻是谁的清单，都必须能完整读出
+                        byte[] current = client.getData().forPath(path);
+                        assertNotNull(writer.decode(client, path, current));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // 保留期过后只剩当前清单引用的一代
+        awaitChildren(chunkDir(path), 1);
+        assertNotNull(codec.decode(client, path, client.getData().forPath(path)));
+    }
+
+    @Test
+    void overwriteAfterRestartCollectsChunks() throws Exception {
+        String path = "/chunked/restart";
+        byte[] stored = codec.encode(client, path, randomText(3 * CHUNK_SIZE));
+        client.create().creatingParentsIfNeeded().forPath(path, stored);
+        codec.afterWrite(client, path);
+
+        // 新实例不知道该节点用过分块，只依据zookeeper中的数据回收
+        ValueCodec restarted = new ValueCodec(64, CHUNK_SIZE, 16, GRACE_MS);
+        byte[] small = restarted.encode(client, path, "small".getBytes(StandardCharsets.UTF_8));
+        client.setData().forPath(path, small);
+        restarted.afterWrite(client, path);
+        awaitDeleted(chunkDir(path));
+    }
+
+    @Test
+    void deletingSubtreeCollectsChunksOfDescendants() throws Exception {
+        List<String> paths = Arrays.asList("/tree", "/tree/a", "/tree/a/b", "/treehouse");
+        for (String path : paths) {
+            byte[] stored = codec.encode(client, path, randomText(2 * CHUNK_SIZE));
+            client.create().creatingParentsIfNeeded().forPath(path, stored);
+            codec.afterWrite(client, path);
+        }
+        client.delete().deletingChildrenIfNeeded().forPath("/tree");
+        codec.afterDeleteSubtree(client, "/tree");
+
+        awaitDeleted(chunkDir("/tree"));
+        awaitDeleted(chunkDir("/tree/a"));
+        awaitDeleted(chunkDir("/tree/a/b"));
+        // 名称前缀相同的兄弟节点不受影响
+        assertEquals(1, client.getChildren().forPath(chunkDir("/treehouse")).size());
+    }
+
+    @Test
+    void chunkDirNamesRoundTrip() {
+        for (String path : Arrays.asList("/a/b", "/a%2Fb", "/100%/x", "/%25/%")) {
+            String name = chunkDir(path).substring(ValueCodec.CHUNK_ROOT.length() + 1);
+            assertFalse(name.contains("/"), name);
+            assertEquals(path, ValueCodec.unescape(name));
+        }
+    }
+
+    @Test
+    void generationTimeIsParsedFromName() {
+        assertEquals(0x18f0000abcdL, ValueCodec.generationTime("0000018f0000abcd-1234abcd"));
+        // 旧格式的代目录名视为早已过期
+        assertEquals(0, ValueCodec.generationTime("lx3k9a1b2c"));
+    }
+
+    private static String chunkDir(String path) {
+        return ValueCodec.CHUNK_ROOT + "/" + path.replace("%", "%25").replace("/", "%2F");
+    }
+
+    private static void awaitDeleted(String path) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (client.checkExists().forPath(path) != null) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待回收分块目录超时: " + path);
+            Thread.sleep(20);
+        }
+    }
+
+    private static void awaitChildren(String path, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (client.getChildren().forPath(path).size() != expected) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待后台删除分块超时: " + path);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 随机的可见字符，压缩后仍远大于块大小，第一个字节不会与格式头冲突
+     */
+    private static byte[] randomText(int length) {
+        Random random = new Random(length);
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) (33 + random.nextInt(94));
+        }
+        return value;
+    }
+}
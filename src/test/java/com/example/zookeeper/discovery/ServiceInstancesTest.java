@@ -0,0 +1,98 @@
+package com.example.zookeeper.discovery;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServiceInstancesTest {
+
+    @Test
+    void parsesJsonAndPlainAddresses() {
+        ServiceInstance json = instance("a", "{\"address\":\"10.0.0.1:80\",\"weight\":3,\"zone\":\"sh\"}");
+        assertEquals("10.0.0.1:80", json.getAddress());
+        assertEquals(3, json.getWeight());
+        assertEquals("sh", json.getMetadata().get("zone"));
+
+        ServiceInstance plain = instance("b", "10.0.0.2:80");
+        assertEquals("10.0.0.2:80", plain.getAddress());
+        assertEquals(ServiceInstance.DEFAULT_WEIGHT, plain.getWeight());
+
+        // 不合法的json按地址处理
+        ServiceInstance broken = instance("c", "{broken");
+        assertEquals("{broken", broken.getAddress());
+        assertEquals(ServiceInstance.DEFAULT_WEIGHT, broken.getWeight());
+    }
+
+    @Test
+    void weightedSelectionFollowsPrefixSums() {
+        ServiceInstances instances = instances(
+                instance("a", "{\"address\":\"a\",\"weight\":2}"),
+                instance("z", "{\"address\":\"z\",\"weight\":0}"),
+                instance("b", "{\"address\":\"b\",\"weight\":3}"));
+        assertEquals(5, instances.getTotalWeight());
+        String[] expected = {"a", "a", "b", "b", "b"};
+        for (int point = 0; point < expected.length; point++) {
+            assertEquals(expected[point], instances.selectByWeight(point).getId());
+        }
+    }
+
+    @Test
+    void weightedBalancerNeverPicksZeroWeight() {
+        ServiceInstances instances = instances(
+                instance("a", "{\"address\":\"a\",\"weight\":1}"),
+                instance("z", "{\"address\":\"z\",\"weight\":0}"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("a", LoadBalancer.WEIGHTED.select(instances, null).getId());
+        }
+    }
+
+    @Test
+    void roundRobinCyclesThroughInstances() {
+        ServiceInstances instances = instances(instance("a", "a"), instance("b", "b"), instance("c", "c"));
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            order.append(LoadBalancer.ROUND_ROBIN.select(instances, null).getId());
+        }
+        assertEquals("abcabca", order.toString());
+    }
+
+    @Test
+    void consistentHashIsStableAndOnlyMovesKeysOfRemovedInstance() {
+        ServiceInstances full = instances(instance("a", "a"), instance("b", "b"), instance("c", "c"));
+        ServiceInstances reduced = instances(instance("a", "a"), instance("c", "c"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = "user-" + i;
+            String owner = LoadBalancer.CONSISTENT_HASH.select(full, key).getId();
+            assertEquals(owner, LoadBalancer.CONSISTENT_HASH.select(full, key).getId());
+            counts.merge(owner, 1, Integer::sum);
+            if (!"b".equals(owner)) {
+                assertEquals(owner, LoadBalancer.CONSISTENT_HASH.select(reduced, key).getId());
+            }
+        }
+        // 虚拟节点使key大致均匀分布
+        for (String id : Arrays.asList("a", "b", "c")) {
+            assertTrue(counts.getOrDefault(id, 0) > 700, "分布不均匀: " + counts);
+        }
+    }
+
+    @Test
+    void emptyRingSelectsNothing() {
+        assertNull(ServiceInstances.EMPTY.selectByHash(42));
+        assertTrue(ServiceInstances.EMPTY.isEmpty());
+        assertEquals(0, ServiceInstances.EMPTY.getTotalWeight());
+    }
+
+    private static ServiceInstances instances(ServiceInstance... instances) {
+        return new ServiceInstances(instances);
+    }
+
+    private static ServiceInstance instance(String id, String data) {
+        return ServiceInstance.parse(id, data.getBytes(StandardCharsets.UTF_8), 1);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.zookeeper.lock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingLockTest {
+
+    private static TestingServer server;
+    private static CuratorFramework client;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void closeReleasesAnIdleZookeeperLock() throws Exception {
+        String path = "/coalescing/idle";
+        CoalescingLock lock = new CoalescingLock(new InterProcessMutex(client, path));
+        lock.acquire();
+        assertEquals(1, lockNodes(path));
+
+        // 持有线程自己关闭，zookeeper锁立即归还
+        lock.close();
+        assertEquals(0, lockNodes(path));
+        lock.release();
+        assertThrows(IllegalStateException.class, lock::acquire);
+        assertOtherProcessCanAcquire(path);
+    }
+
+    @Test
+    void closeWhileHeldByAnotherThreadReleasesOnRelease() throws Exception {
+        String path = "/coalescing/held";
+        CoalescingLock lock = new CoalescingLock(new InterProcessMutex(client, path));
+        ExecutorService holder = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch acquired = new CountDownLatch(1);
+            CountDownLatch closed = new CountDownLatch(1);
+            Future<?> held = holder.submit(() -> {
+                lock.acquire();
+                acquired.countDown();
+                closed.await();
+                lock.release();
+                return null;
+            });
+            assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+            lock.close();
+            assertEquals(1, lockNodes(path));
+            closed.countDown();
+            held.get(10, TimeUnit.SECONDS);
+
+            assertEquals(0, lockNodes(path));
+            assertOtherProcessCanAcquire(path);
+        } finally {
+            holder.shutdownNow();
+        }
+    }
+
+    private static int lockNodes(String path) throws Exception {
+        return client.checkExists().forPath(path) == null ? 0 : client.getChildren().forPath(path).size();
+    }
+
+    private static void assertOtherProcessCanAcquire(String path) throws Exception {
+        InterProcessMutex other = new InterProcessMutex(client, path);
+        assertTrue(other.acquire(1, TimeUnit.SECONDS));
+        other.release();
+    }
+}
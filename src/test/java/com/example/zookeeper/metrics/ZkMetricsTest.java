@@ -0,0 +1,79 @@
+package com.example.zookeeper.metrics;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZkMetricsTest {
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        ZkMetrics.setRegistry(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ZkMetrics.setRegistry(Metrics.globalRegistry);
+        ZkMetrics.setPathPrefixDepth(2);
+        ZkMetrics.setMaxPathTags(100);
+        ZkMetrics.setPercentileHistogram(false);
+    }
+
+    @Test
+    void pathPrefixKeepsLeadingSegments() {
+        assertEquals("/a/b", ZkMetrics.pathPrefix("/a/b/c/d"));
+        assertEquals("/a", ZkMetrics.pathPrefix("/a"));
+        assertEquals("none", ZkMetrics.pathPrefix(null));
+        ZkMetrics.setPathPrefixDepth(0);
+        assertEquals("/", ZkMetrics.pathPrefix("/a/b"));
+    }
+
+    @Test
+    void pathTagsAreCappedAndNewPrefixesBecomeOther() {
+        ZkMetrics.setMaxPathTags(3);
+        for (int i = 0; i < 10; i++) {
+            ZkMetrics.recordSupplier("get", "/app/" + i + "/leaf", () -> null);
+        }
+        // 已有的前缀继续使用自己的标签
+        ZkMetrics.recordSupplier("get", "/app/0/other-leaf", () -> null);
+
+        Set<String> tags = new TreeSet<>();
+        for (Timer timer : registry.find("zk.operation").timers()) {
+            tags.add(timer.getId().getTag("path"));
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("/app/0", "/app/1", "/app/2", ZkMetrics.OTHER_PATH)), tags);
+        assertEquals(2, registry.get("zk.operation").tag("path", "/app/0").timer().count());
+        assertEquals(7, registry.get("zk.operation").tag("path", ZkMetrics.OTHER_PATH).timer().count());
+    }
+
+    @Test
+    void percentileHistogramIsOptIn() {
+        // SimpleMeterRegistry不支持百分位直方图
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        ZkMetrics.setRegistry(registry);
+        ZkMetrics.recordSupplier("get", "/plain", () -> null);
+        ZkMetrics.recordLockWait("test", "/plain", 1000, "acquired");
+        assertEquals(0, registry.get("zk.operation").timer().takeSnapshot().histogramCounts().length);
+        assertEquals(0, registry.get("zk.lock.wait").timer().takeSnapshot().histogramCounts().length);
+
+        ZkMetrics.setPercentileHistogram(true);
+        ZkMetrics.recordSupplier("get", "/histogram", () -> null);
+        ZkMetrics.recordLockWait("test", "/histogram", 1000, "acquired");
+        assertTrue(registry.get("zk.operation").tag("path", "/histogram").timer().takeSnapshot().histogramCounts().length > 0);
+        assertTrue(registry.get("zk.lock.wait").tag("path", "/histogram").timer().takeSnapshot().histogramCounts().length > 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.zookeeper.two;
+
+import com.example.zookeeper.codec.ValueCodec;
+import com.example.zookeeper.metrics.ZkMetrics;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZkClientServiceTest {
+
+	private static final String NAMESPACE = "service.test";
+
+	private static TestingServer server;
+	private static ZkClientService service;
+	//与service使用同一命名空间,检查分块目录
+	private static CuratorFramework client;
+
+	@BeforeAll
+	static void start() throws Exception {
+		server = new TestingServer();
+		service = new ZkClientService(server.getConnectString(), NAMESPACE);
+		service.setValueCodec(new ValueCodec(64, 1024, 16, 200));
+		assertTrue(service.awaitConnected(10, TimeUnit.SECONDS));
+		client = CuratorFrameworkFactory.builder().connectString(server.getConnectString())
+				.namespace(NAMESPACE).retryPolicy(new RetryOneTime(100)).build();
+		client.start();
+		assertTrue(client.blockUntilConnected(10, TimeUnit.SECONDS));
+	}
+
+	@AfterAll
+	static void stop() throws Exception {
+		client.close();
+		service.close();
+		server.close();
+	}
+
+	@Test
+	void largeValuesRoundTripThroughChunks() throws Exception {
+		String value = randomText(5000);
+		assertTrue(service.setPathDataIfNoNode("/chunked/value", value));
+		assertEquals(value, service.getPathData("/chunked/value"));
+		assertNotNull(client.checkExists().forPath(chunkDir("/chunked/value")));
+	}
+
+	@Test
+	void batchAddCollectsChunksOfOverwrittenValues() throws Exception {
+		assertTrue(service.setPathDataIfNoNode("/batch/a", randomText(5000)));
+		assertNotNull(client.checkExists().forPath(chunkDir("/batch/a")));
+
+		Map<String, Boolean> result = service.batchAdd(Arrays.asList("a", "b"), "/batch");
+		assertEquals(Boolean.TRUE, result.get("a"));
+		assertEquals(Boolean.TRUE, result.get("b"));
+		assertEquals(36, service.getPathData("/batch/a").length());
+		awaitDeleted(chunkDir("/batch/a"));
+	}
+
+	@Test
+	void subtreeDeletesCollectChunksOfDescendants() throws Exception {
+		assertTrue(service.setPathDataIfNoNode("/del/x", randomText(5000)));
+		assertTrue(service.setPathDataIfNoNode("/del/x/y", randomText(5000)));
+		assertTrue(service.setPathDataIfNoNode("/leaves/z", randomText(5000)));
+
+		assertTrue(service.deletePathIncludeChildren("/del"));
+		assertEquals(Boolean.TRUE, service.batchDel(Arrays.asList("z"), "/leaves").get("z"));
+		awaitDeleted(chunkDir("/del/x"));
+		awaitDeleted(chunkDir("/del/x/y"));
+		awaitDeleted(chunkDir("/leaves/z"));
+	}
+
+	@Test
+	void manualSwitchKeepsEnsembleStatsAndConnectionListener() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ZkMetrics.setRegistry(registry);
+		// 三个独立的服务端即可验证切换,不需要组成集群
+		List<TestingServer> servers = new ArrayList<>();
+		ZkClientService switching = null;
+		try {
+			List<String> connectStrings = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				TestingServer node = new TestingServer();
+				servers.add(node);
+				connectStrings.add(node.getConnectString());
+			}
+			switching = new ZkClientService(String.join(",", connectStrings), NAMESPACE);
+			switching.setZkAutoChangeServerNode(true);
+			assertTrue(switching.awaitConnected(10, TimeUnit.SECONDS));
+
+			// 3.4客户端不支持updateServerList,切换节点会重建客户端
+			for (int node = 0; node < 3; node++) {
+				assertTrue(switching.connect(node), "切换到节点 " + node);
+				assertTrue(switching.isConnected());
+				assertTrue(switching.setPathDataIfNoNode("/switch/node", String.valueOf(node)));
+				assertEquals(String.valueOf(node), switching.getPathData("/switch/node"));
+				assertEquals(3, switching.getEnsembleStats().size());
+			}
+			// 已在该节点时不重复切换
+			assertFalse(switching.connect(2));
+			// 首次连接和每次重建的客户端都通过状态回调记录了连接
+			assertEquals(4, registry.get("zk.connection.state").tag("client", "ZkClientService")
+					.tag("state", "CONNECTED").counter().count());
+		} finally {
+			if (switching != null) {
+				switching.close();
+			}
+			for (TestingServer node : servers) {
+				node.close();
+			}
+			ZkMetrics.setRegistry(Metrics.globalRegistry);
+		}
+	}
+
+	@Test
+	void operationsFailFastWhileNotConnected() {
+		// 没有可达的节点,后台连接一直重试
+		ZkClientService unreachable = new ZkClientService("127.0.0.1:2", NAMESPACE);
+		try {
+			assertFalse(unreachable.isConnected());
+			long begin = System.currentTimeMillis();
+			IllegalStateException e = assertThrows(IllegalStateException.class, () -> unreachable.getPathData("/any"));
+			assertTrue(System.currentTimeMillis() - begin >= 1500, "应等待连接超时时间");
+			assertTrue(e.getMessage().contains("未连接"), e.getMessage());
+			assertThrows(IllegalStateException.class, () -> unreachable.checkExist("/any"));
+			assertThrows(IllegalStateException.class, () -> unreachable.setPathDataIfNoNode("/any", "v"));
+			assertThrows(IllegalStateException.class, () -> unreachable.batchDel(Arrays.asList("a"), "/any"));
+		} finally {
+			unreachable.close();
+		}
+	}
+
+	private static String chunkDir(String path) {
+		return ValueCodec.CHUNK_ROOT + "/" + path.replace("/", "%2F");
+	}
+
+	private static void awaitDeleted(String path) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (client.checkExists().forPath(path) != null) {
+			assertTrue(System.currentTimeMillis() < deadline, "等待回收分块目录超时: " + path);
+			Thread.sleep(20);
+		}
+	}
+
+	//随机的可见字符,压缩后仍超过块大小
+	private static String randomText(int length) {
+		Random random = new Random(length);
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			text.append((char) (33 + random.nextInt(94)));
+		}
+		return text.toString();
+	}
+}